@@ -6,6 +6,7 @@ import java.util.HashMap;
 
 import edu.isi.wings.ontapi.rules.KBRule;
 import edu.isi.wings.ontapi.rules.KBRuleList;
+import edu.isi.wings.ontapi.rules.KBRuleProfile;
 
 /**
  * @author varunr
@@ -39,6 +40,10 @@ public interface KBAPI {
 
 	public boolean containsResource(String id);
 
+	// Text search : resources whose names or literal values contain the words
+	// of the text (or words starting with them), best matches first
+	public ArrayList<KBObject> search(String text, int limit);
+
 	// Classificiation
 	public KBObject getClassOfInstance(KBObject obj);
 
@@ -95,8 +100,30 @@ public interface KBAPI {
 
 	public ArrayList<ArrayList<SparqlQuerySolution>> sparqlQuery(String queryString);
 
+	// Streaming variants of the queries above : Results are read while iterating
+	// -- Stop early by closing the iterator
+	// -- A limit <= 0 returns all results
+	public KBIterator<KBTriple> streamTripleQuery(KBObject subj, KBObject pred, KBObject obj,
+			int limit);
+
+	public KBIterator<KBTriple> streamAllTriples(int limit);
+
+	public KBIterator<ArrayList<SparqlQuerySolution>> streamSparqlQuery(String queryString,
+			int limit);
+
+	// Queries are cached by query string, so prepare queries that differ only
+	// in constant values as one query, and bind the values before executing
+	public PreparedSparqlQuery prepareQuery(String queryString);
+
 	public void addTriples(ArrayList<KBTriple> statements);
 
+	// Encode triples once to add them to many KBs (or to add a large number
+	// of triples). Batches are added to the base graph in one go, and the
+	// reasoner (if any) catches up once the whole batch is in
+	public KBTripleBatch encodeTriples(ArrayList<KBTriple> statements);
+
+	public void addTriples(KBTripleBatch batch);
+
 	public KBTriple addTriple(KBTriple triple);
 
 	public KBTriple addTriple(KBObject subj, KBObject pred, KBObject obj);
@@ -122,6 +149,11 @@ public interface KBAPI {
 
 	public ArrayList<KBObject> getSubPropertiesOf(KBObject prop, boolean direct);
 
+	// Answer the (non-direct) class hierarchy and membership queries above from
+	// an index of the inferred statements. The index is built on first use, and
+	// rebuilt after the KB changes, so only use this for KBs that are mostly read
+	public void useClassHierarchyIndex(boolean use);
+
 	// Creation/Deletion
 	public KBObject createClass(String id);
 
@@ -168,9 +200,18 @@ public interface KBAPI {
 	public void setRulePrefixes(HashMap<String, String> map);
 	
 	public void applyRules(KBRuleList rules);
+
+	// Applies the rules, adding lines printed by the rules to printouts
+	// (instead of System.out)
+	public void applyRules(KBRuleList rules, ArrayList<String> printouts);
 	
 	public void applyRule(KBRule rule);
 
+	// Applies the rules like applyRules, and returns what each rule did
+	public KBRuleProfile profileRules(KBRuleList rules);
+
+	public KBRuleProfile profileRules(KBRuleList rules, ArrayList<String> printouts);
+
 	// Imports
 	public void createImport(String ontid, String importurl);
 
@@ -184,6 +225,10 @@ public interface KBAPI {
 
 	public void copyFrom(KBAPI kb);
 
+	// Returns a copy of this KB that shares the current triples with it. Later
+	// changes to either KB are not seen by the other
+	public KBAPI fork();
+
 	// API Transactions
 	public boolean save();
 
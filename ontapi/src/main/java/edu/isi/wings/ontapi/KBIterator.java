@@ -0,0 +1,13 @@
+package edu.isi.wings.ontapi;
+
+import java.util.Iterator;
+
+/**
+ * Iterator over streamed query results (see the KBAPI stream* functions).
+ * Results are fetched as the iterator advances. The iterator closes itself
+ * once all results have been read, otherwise it should be closed by the 
+ * caller to release the underlying query.
+ */
+public interface KBIterator<T> extends Iterator<T> {
+	public void close();
+}
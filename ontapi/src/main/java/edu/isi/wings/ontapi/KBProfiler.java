@@ -0,0 +1,273 @@
+package edu.isi.wings.ontapi;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records statistics of KBAPI calls : call counts, total and percentile
+ * latencies, result sizes and allocated bytes per method, for each KB url
+ * and OntSpec. KBs are wrapped in a proxy that times every call (see
+ * OntFactory.setProfiling). Only the most recently used operations are kept,
+ * as every template and run has a KB url of its own.
+ */
+public class KBProfiler {
+	static final int MAX_OPERATIONS = 2000;
+	static LinkedHashMap<String, OperationStats> operations =
+			new LinkedHashMap<String, OperationStats>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, OperationStats> eldest) {
+			return size() > MAX_OPERATIONS;
+		}
+	};
+
+	static com.sun.management.ThreadMXBean threadbean;
+	static {
+		try {
+			Object bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+				threadbean = (com.sun.management.ThreadMXBean) bean;
+		}
+		catch (Throwable e) {
+			// Allocation counts are not available on this JVM
+		}
+	}
+
+	/**
+	 * Returns a KBAPI that records its calls and passes them on to the kb
+	 */
+	public static KBAPI wrap(KBAPI kb, String url, OntSpec spec) {
+		if (kb == null || unwrap(kb) != kb)
+			return kb;
+		return (KBAPI) Proxy.newProxyInstance(KBAPI.class.getClassLoader(),
+				new Class<?>[] { KBAPI.class }, new ProfilingHandler(kb, url, spec));
+	}
+
+	/**
+	 * Returns the KB that was wrapped (or the kb itself if it isn't wrapped)
+	 */
+	public static KBAPI unwrap(KBAPI kb) {
+		if (kb != null && Proxy.isProxyClass(kb.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(kb);
+			if (handler instanceof ProfilingHandler)
+				return ((ProfilingHandler) handler).kb;
+		}
+		return kb;
+	}
+
+	/**
+	 * Returns the statistics recorded so far, most expensive operations first
+	 */
+	public static ArrayList<Entry> getSnapshot() {
+		ArrayList<OperationStats> list;
+		synchronized (operations) {
+			list = new ArrayList<OperationStats>(operations.values());
+		}
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (OperationStats stats : list)
+			entries.add(stats.snapshot());
+		Collections.sort(entries, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				return Double.compare(e2.totalMillis, e1.totalMillis);
+			}
+		});
+		return entries;
+	}
+
+	public static void reset() {
+		synchronized (operations) {
+			operations.clear();
+		}
+	}
+
+	public static void dump(PrintStream out) {
+		out.println(String.format("%-60s %-22s %-28s %8s %10s %8s %8s %8s %8s %8s %10s",
+				"KB", "Spec", "Method", "Calls", "Total(ms)", "p50", "p90", "p99", "Max",
+				"Results", "Alloc(KB)"));
+		for (Entry e : getSnapshot()) {
+			String kb = e.kb.length() > 60 ? "..." + e.kb.substring(e.kb.length() - 57) : e.kb;
+			out.println(String.format("%-60s %-22s %-28s %8d %10.1f %8.2f %8.2f %8.2f %8.2f %8.1f %10d",
+					kb, e.spec, e.method, e.count, e.totalMillis, e.p50Millis, e.p90Millis,
+					e.p99Millis, e.maxMillis, e.meanResults, e.allocatedBytes / 1024));
+		}
+	}
+
+	static void record(String url, OntSpec spec, String method, long nanos, int results,
+			long allocated) {
+		String key = url + " " + spec + " " + method;
+		OperationStats stats;
+		synchronized (operations) {
+			stats = operations.get(key);
+			if (stats == null) {
+				stats = new OperationStats(url, String.valueOf(spec), method);
+				operations.put(key, stats);
+			}
+		}
+		stats.add(nanos, results, allocated);
+	}
+
+	static long getAllocatedBytes() {
+		if (threadbean == null)
+			return 0;
+		return threadbean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	static int getResultSize(Object result) {
+		if (result instanceof Collection)
+			return ((Collection<?>) result).size();
+		if (result instanceof Map)
+			return ((Map<?, ?>) result).size();
+		return -1;
+	}
+
+	/**
+	 * Snapshot of the statistics of one method of a KB
+	 */
+	public static class Entry {
+		public String kb;
+		public String spec;
+		public String method;
+		public long count;
+		public double totalMillis;
+		public double p50Millis;
+		public double p90Millis;
+		public double p99Millis;
+		public double maxMillis;
+		public double meanResults;
+		public long allocatedBytes;
+	}
+
+	static class OperationStats {
+		// Latency histogram : 4 buckets for every power of 2 nanoseconds
+		static final int BUCKETS = 256;
+
+		String url;
+		String spec;
+		String method;
+		long count;
+		long totalNanos;
+		long maxNanos;
+		long results;
+		long resultCalls;
+		long allocated;
+		long[] histogram = new long[BUCKETS];
+
+		OperationStats(String url, String spec, String method) {
+			this.url = url;
+			this.spec = spec;
+			this.method = method;
+		}
+
+		synchronized void add(long nanos, int results, long allocated) {
+			this.count++;
+			this.totalNanos += nanos;
+			this.maxNanos = Math.max(this.maxNanos, nanos);
+			if (results >= 0) {
+				this.results += results;
+				this.resultCalls++;
+			}
+			this.allocated += allocated;
+			this.histogram[bucket(nanos)]++;
+		}
+
+		synchronized Entry snapshot() {
+			Entry e = new Entry();
+			e.kb = this.url;
+			e.spec = this.spec;
+			e.method = this.method;
+			e.count = this.count;
+			e.totalMillis = this.totalNanos / 1e6;
+			e.p50Millis = this.percentile(0.5) / 1e6;
+			e.p90Millis = this.percentile(0.9) / 1e6;
+			e.p99Millis = this.percentile(0.99) / 1e6;
+			e.maxMillis = this.maxNanos / 1e6;
+			e.meanResults = this.resultCalls > 0 ? (double) this.results / this.resultCalls : 0;
+			e.allocatedBytes = this.allocated;
+			return e;
+		}
+
+		// Upper bound of the bucket that contains the percentile
+		private long percentile(double p) {
+			long rank = (long) Math.ceil(p * this.count);
+			long seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				seen += this.histogram[b];
+				if (seen >= rank && seen > 0)
+					return Math.min(lowerBound(b + 1), this.maxNanos);
+			}
+			return this.maxNanos;
+		}
+
+		static int bucket(long v) {
+			if (v < 4)
+				return (int) Math.max(v, 0);
+			int log = 63 - Long.numberOfLeadingZeros(v);
+			int sub = (int) ((v >>> (log - 2)) & 3);
+			return 4 * (log - 1) + sub;
+		}
+
+		static long lowerBound(int b) {
+			if (b < 4)
+				return b;
+			int log = b / 4 + 1;
+			return (4L + b % 4) << (log - 2);
+		}
+	}
+
+	static class ProfilingHandler implements InvocationHandler {
+		KBAPI kb;
+		String url;
+		OntSpec spec;
+
+		ProfilingHandler(KBAPI kb, String url, OntSpec spec) {
+			this.kb = kb;
+			this.url = url != null ? url : "(in memory)";
+			this.spec = spec;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				if (method.getName().equals("equals"))
+					return proxy == args[0];
+				if (method.getName().equals("hashCode"))
+					return System.identityHashCode(proxy);
+				return method.invoke(this.kb, args);
+			}
+			// Pass the real KBs to calls that take other KBs (importFrom etc)
+			if (args != null) {
+				for (int i = 0; i < args.length; i++) {
+					if (args[i] instanceof KBAPI)
+						args[i] = unwrap((KBAPI) args[i]);
+				}
+			}
+			long allocated = getAllocatedBytes();
+			long start = System.nanoTime();
+			Object result = null;
+			try {
+				result = method.invoke(this.kb, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			finally {
+				long nanos = System.nanoTime() - start;
+				record(this.url, this.spec, method.getName(), nanos, getResultSize(result),
+						getAllocatedBytes() - allocated);
+			}
+			// Forked KBs are recorded under the same KB
+			if (result instanceof KBAPI)
+				return wrap((KBAPI) result, this.url, this.spec);
+			return result;
+		}
+	}
+}
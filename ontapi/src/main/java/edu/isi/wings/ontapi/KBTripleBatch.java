@@ -0,0 +1,10 @@
+package edu.isi.wings.ontapi;
+
+/**
+ * A list of triples that is converted to the backend's representation once,
+ * and can then be added to any number of KBs with KBAPI.addTriples.
+ * Get one from KBAPI.encodeTriples
+ */
+public interface KBTripleBatch {
+	public int size();
+}
@@ -5,17 +5,33 @@ import com.hp.hpl.jena.reasoner.rulesys.BuiltinRegistry;
 import com.hp.hpl.jena.util.FileManager;
 import com.hp.hpl.jena.util.LocationMapper;
 
+import edu.isi.wings.ontapi.jena.BinaryModelFile;
+import edu.isi.wings.ontapi.jena.ClassificationSnapshot;
 import edu.isi.wings.ontapi.jena.KBAPIJena;
 import edu.isi.wings.ontapi.jena.KBObjectJena;
 import edu.isi.wings.ontapi.jena.KBTripleJena;
+import edu.isi.wings.ontapi.jena.SaveQueue;
 import edu.isi.wings.ontapi.jena.extrules.date.*;
 import edu.isi.wings.ontapi.jena.extrules.math.*;
+import edu.isi.wings.ontapi.jena.extrules.util.Print;
+import edu.isi.wings.ontapi.jena.extrules.util.RuleCounter;
 import edu.isi.wings.ontapi.jena.rules.KBRuleJena;
 import edu.isi.wings.ontapi.jena.rules.KBRuleListJena;
 import edu.isi.wings.ontapi.rules.KBRule;
 import edu.isi.wings.ontapi.rules.KBRuleList;
+import edu.isi.wings.ontapi.rules.KBRuleProfile;
 
+import java.io.File;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.log4j.Logger;
 
@@ -25,6 +41,20 @@ public class OntFactory {
 
 	int type;
 	String tripleStoreDirectory;
+	boolean binaryStorage;
+
+	static volatile boolean profiling = Boolean.getBoolean("wings.profile.kb");
+
+	// Pool for loading independent KBs at the same time
+	static final int LOADER_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	static ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS,
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "kb-loader");
+					t.setDaemon(true);
+					return t;
+				}
+			});
 
 	// Type of Factory (default JENA used for now, can add more here)
 	public OntFactory(int type) {
@@ -41,6 +71,11 @@ public class OntFactory {
 			BuiltinRegistry.theRegistry.register(rule2);
 			SubtractDays rule3 = new SubtractDays();
 			BuiltinRegistry.theRegistry.register(rule3);
+			// Rule printouts go to the output set for the thread
+			BuiltinRegistry.theRegistry.register(new Print());
+			// Counters of profiled rules
+			BuiltinRegistry.theRegistry.register(new RuleCounter(RuleCounter.MATCHED));
+			BuiltinRegistry.theRegistry.register(new RuleCounter(RuleCounter.FIRED));
 		}
 	}
 
@@ -52,9 +87,9 @@ public class OntFactory {
 	public KBAPI getKB(String url, OntSpec spec) throws Exception {
 		if (this.type == JENA) {
 			if (this.tripleStoreDirectory != null)
-				return new KBAPIJena(url, tripleStoreDirectory, spec);
+				return this.profile(new KBAPIJena(url, tripleStoreDirectory, spec), url, spec);
 			else
-				return new KBAPIJena(url, spec);
+				return this.profile(this.configure(new KBAPIJena(url, spec)), url, spec);
 		}
 		return null;
 	}
@@ -67,20 +102,225 @@ public class OntFactory {
 			throws Exception {
 		if (this.type == JENA) {
 			if (this.tripleStoreDirectory != null)
-				return new KBAPIJena(url, tripleStoreDirectory, spec, cache_url);
+				return this.profile(new KBAPIJena(url, tripleStoreDirectory, spec, cache_url), url,
+						spec);
+			else
+				return this.profile(
+						this.configure(new KBAPIJena(url, spec, create_if_empty, cache_url)), url, spec);
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns a KB that is only read from. Without a triple store, these KBs
+	 * share a cached parsed graph with other read-only KBs of the same url
+	 * (until the backing file changes) instead of re-parsing the url.
+	 */
+	public KBAPI getKB(String url, OntSpec spec, boolean create_if_empty, boolean cache_url,
+			boolean read_only) throws Exception {
+		if (this.type == JENA) {
+			if (this.tripleStoreDirectory != null)
+				return this.profile(new KBAPIJena(url, tripleStoreDirectory, spec, cache_url), url,
+						spec);
 			else
-				return new KBAPIJena(url, spec, create_if_empty, cache_url);
+				return this.profile(this.configure(
+						new KBAPIJena(url, spec, create_if_empty, cache_url, read_only)), url, spec);
+		}
+		return null;
+	}
+	
+	/**
+	 * Starts loading a KB (as getKB does) on a shared bounded pool, so that
+	 * independent KBs can be parsed at the same time. Use getLoadedKB to wait
+	 * for it. Threads in a store batch load the KB right away, as other
+	 * threads wouldn't see the batch's writes
+	 */
+	public Future<KBAPI> loadKB(final String url, final OntSpec spec,
+			final boolean create_if_empty, final boolean cache_url, final boolean read_only) {
+		FutureTask<KBAPI> task = new FutureTask<KBAPI>(new Callable<KBAPI>() {
+			public KBAPI call() throws Exception {
+				return getKB(url, spec, create_if_empty, cache_url, read_only);
+			}
+		});
+		if (LOADER_THREADS > 1 && !KBAPIJena.isInBatch())
+			loader.execute(task);
+		else
+			task.run();
+		return task;
+	}
+
+	// Waits for a KB started with loadKB. Throws the exception of getKB if it failed
+	public static KBAPI getLoadedKB(Future<KBAPI> kb) throws Exception {
+		try {
+			return kb.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Save file based KBs from this factory in the binary model format instead
+	 * of RDF/XML. Binary files are always read back if they are current, 
+	 * whatever this setting is
+	 */
+	public void setBinaryStorage(boolean binary) {
+		this.binaryStorage = binary;
+	}
+
+	/**
+	 * Delay (in milliseconds) for writing saves of file based KBs. Repeated
+	 * saves of a url within the delay are written once. 0 writes right away
+	 */
+	public static void setSaveWindow(long millis) {
+		SaveQueue.setWindow(millis);
+	}
+
+	// Write all queued saves to disk
+	public static void flush() {
+		SaveQueue.flush();
+	}
+
+	// Write RDF/XML copies of the binary model files under the directory
+	public static void exportRdfFiles(String dir) {
+		SaveQueue.flush();
+		try {
+			BinaryModelFile.exportRdfFiles(new File(dir));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private KBAPI configure(KBAPIJena kb) {
+		kb.setBinaryStorage(this.binaryStorage);
+		return kb;
+	}
+
+	/**
+	 * Record latencies of calls to KBs returned by factories from now on (see
+	 * KBProfiler). Also enabled with the wings.profile.kb system property
+	 */
+	public static void setProfiling(boolean profile) {
+		profiling = profile;
+	}
+
+	public static List<KBProfiler.Entry> getProfile() {
+		return KBProfiler.getSnapshot();
+	}
+
+	public static void dumpProfile(PrintStream out) {
+		KBProfiler.dump(out);
+	}
+
+	public static void resetProfile() {
+		KBProfiler.reset();
+	}
+
+	/**
+	 * Profile component rules (see KBRuleProfile). Totals of all rule runs are
+	 * kept by rule
+	 */
+	public static void setRuleProfiling(boolean profile) {
+		KBRuleProfile.setEnabled(profile);
+	}
+
+	public static List<KBRuleProfile.RuleStats> getRuleProfile() {
+		return KBRuleProfile.getTotals();
+	}
+
+	public static void dumpRuleProfile(PrintStream out) {
+		KBRuleProfile.dump(out);
+	}
+
+	public static void resetRuleProfile() {
+		KBRuleProfile.resetTotals();
+	}
+
+	private KBAPI profile(KBAPI kb, String url, OntSpec spec) {
+		return profiling ? KBProfiler.wrap(kb, url, spec) : kb;
+	}
+
+	// Bound the number of triples held in the shared read-only graph cache
+	public static void setGraphCacheSize(long maxTriples) {
+		KBAPIJena.setGraphCacheSize(maxTriples);
+	}
+	
+	// Store plain (non-inferencing) in-memory KBs as dictionary encoded int triples
+	// instead of Jena's default graph. Saves memory for the many small KBs that 
+	// are created while planning
+	public static void setUseIntTripleGraphs(boolean use) {
+		KBAPIJena.setUseIntTripleGraphs(use);
+	}
+
+	/**
+	 * Groups the saves (and deletes) of KBs made by this thread into a single
+	 * triple store write transaction, until the matching commitBatch. Does
+	 * nothing for file based KBs
+	 */
+	public void startBatch() {
+		if (this.type == JENA && this.tripleStoreDirectory != null)
+			KBAPIJena.startBatch();
+	}
+
+	public boolean commitBatch() {
+		if (this.type == JENA && this.tripleStoreDirectory != null)
+			return KBAPIJena.commitBatch();
+		return true;
+	}
+
+	public void abortBatch() {
+		if (this.type == JENA && this.tripleStoreDirectory != null)
+			KBAPIJena.abortBatch();
+	}
+
+	/**
+	 * Returns a stamp of the contents of the url, which changes whenever they
+	 * change (null if changes can't be detected, as for triple store KBs)
+	 */
+	public String getContentStamp(String url) {
+		if (this.type == JENA && this.tripleStoreDirectory == null)
+			return KBAPIJena.getFileStamp(url);
+		return null;
+	}
+
+	/**
+	 * Returns a classified version of a plain KB loaded from the source urls.
+	 * If a saved classification snapshot of the sources is still valid, its
+	 * inferred statements are added to the plain KB. Otherwise the snapshot is
+	 * regenerated in the background, and a Pellet KB over the plain KB is
+	 * returned.
+	 */
+	public KBAPI getClassifiedKB(KBAPI kb, List<String> sources) {
+		if (this.type == JENA) {
+			if (sources.isEmpty())
+				return null;
+			ClassificationSnapshot snapshot = new ClassificationSnapshot(sources);
+			if (snapshot.load((KBAPIJena) KBProfiler.unwrap(kb)))
+				return kb;
+			snapshot.update();
+			KBAPI pkb = this.getKB(OntSpec.PELLET);
+			pkb.importFrom(kb);
+			return pkb;
 		}
 		return null;
 	}
 
+	// Regenerate the classification snapshot of the source urls (in the background)
+	public void updateClassificationSnapshot(List<String> sources) {
+		if (this.type == JENA && !sources.isEmpty())
+			new ClassificationSnapshot(sources).update();
+	}
+
 	public KBAPI getKB(InputStream data, String base, OntSpec spec) {
 		if (this.type == JENA) {
 			if (this.tripleStoreDirectory != null)
 				Logger.getLogger(this.getClass()).warn(
 						"InputStream data not allowed for triple store factories. "
 								+ "Reverting to non-triple store api");
-			return new KBAPIJena(data, base, spec);
+			return this.profile(new KBAPIJena(data, base, spec), base, spec);
 		}
 		return null;
 	}
@@ -90,7 +330,9 @@ public class OntFactory {
 			KBAPIJena kb = new KBAPIJena(spec);
 			if(this.tripleStoreDirectory != null)
 				kb.setTdbStore(this.tripleStoreDirectory);
-			return kb;
+			else
+				this.configure(kb);
+			return this.profile(kb, null, spec);
 		}
 		return null;
 	}
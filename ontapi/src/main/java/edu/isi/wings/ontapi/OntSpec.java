@@ -24,4 +24,9 @@ public final class OntSpec {
 	public static final OntSpec TRANS = new OntSpec("Transitive Reasoner");
 
 	public static final OntSpec PELLET = new OntSpec("Pellet Reasoner");
+
+	// Plain models that only run the reasoner for queries that need entailments
+	public static final OntSpec LAZY_PELLET = new OntSpec("Pellet Reasoner on demand");
+
+	public static final OntSpec LAZY_MICRO = new OntSpec("Micro Rules Reasoner on demand");
 }
@@ -0,0 +1,17 @@
+package edu.isi.wings.ontapi;
+
+import java.util.ArrayList;
+
+/**
+ * A sparql query that is parsed and compiled once, and can then be executed
+ * repeatedly with different values bound to its variables.
+ * Get one from KBAPI.prepareQuery
+ */
+public interface PreparedSparqlQuery {
+	// Bind a query variable (without the leading '?') to a value
+	public void bind(String variable, KBObject value);
+
+	public void clearBindings();
+
+	public ArrayList<ArrayList<SparqlQuerySolution>> execute();
+}
@@ -2,6 +2,8 @@ package edu.isi.wings.ontapi;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class SparqlFactory {
@@ -12,6 +14,18 @@ public class SparqlFactory {
 
 	String libraryUrl;
 
+	static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
+
+	// Catalog statistics used to order query patterns (null if not collected)
+	HashMap<String, PredicateStatistics> predicateStatistics;
+	HashMap<String, Long> classCounts;
+	long numTriples;
+
+	// Statistics last collected for each library url, with the stamp of the
+	// contents they were collected from
+	static HashMap<String, CachedStatistics> statisticsCache = 
+			new HashMap<String, CachedStatistics>();
+
 	private HashMap<String, String> sparql_escape_map = new HashMap<String, String>();
 
 	public String escape(String string) {
@@ -45,6 +59,200 @@ public class SparqlFactory {
 		this.libraryUrl = libraryUrl;
 	}
 
+	/**
+	 * Collects the number of triples (and distinct subjects and objects) per
+	 * predicate from the catalog kb, and the number of instances per class.
+	 * Instances are also counted for all super classes (from the classkb,
+	 * which can be the same as kb if it does inference)
+	 */
+	public void collectStatistics(KBAPI kb, KBAPI classkb) {
+		HashMap<String, PredicateStatistics> predstats = new HashMap<String, PredicateStatistics>();
+		HashMap<String, Long> typecounts = new HashMap<String, Long>();
+		long numtriples = 0;
+		KBIterator<KBTriple> it = kb.streamAllTriples(0);
+		try {
+			while (it.hasNext()) {
+				KBTriple triple = it.next();
+				numtriples++;
+				String pred = triple.getPredicate().getID();
+				PredicateStatistics stats = predstats.get(pred);
+				if (stats == null) {
+					stats = new PredicateStatistics();
+					predstats.put(pred, stats);
+				}
+				KBObject obj = triple.getObject();
+				String objkey = obj.isLiteral() ? String.valueOf(obj.getValue()) : obj.getID();
+				stats.add(triple.getSubject().getID(), objkey);
+				if (pred.equals(RDF_TYPE) && !obj.isLiteral()) {
+					Long count = typecounts.get(objkey);
+					typecounts.put(objkey, count == null ? 1 : count + 1);
+				}
+			}
+		}
+		finally {
+			it.close();
+		}
+		for (PredicateStatistics stats : predstats.values())
+			stats.finish();
+
+		HashMap<String, Long> clscounts = new HashMap<String, Long>(typecounts);
+		for (Map.Entry<String, Long> entry : typecounts.entrySet()) {
+			KBObject cls = classkb.getConcept(entry.getKey());
+			if (cls == null)
+				continue;
+			for (KBObject supcls : classkb.getSuperClasses(cls, false)) {
+				Long count = clscounts.get(supcls.getID());
+				clscounts.put(supcls.getID(), entry.getValue() + (count == null ? 0 : count));
+			}
+		}
+		this.predicateStatistics = predstats;
+		this.classCounts = clscounts;
+		this.numTriples = numtriples;
+	}
+
+	public boolean hasStatistics() {
+		return this.predicateStatistics != null;
+	}
+
+	/**
+	 * Uses the statistics last collected for the library, if they were
+	 * collected from contents with the same stamp. Returns false if there are
+	 * none
+	 */
+	public boolean useCachedStatistics(String stamp) {
+		if (stamp == null)
+			return false;
+		synchronized (statisticsCache) {
+			CachedStatistics cached = statisticsCache.get(this.libraryUrl);
+			if (cached == null || !cached.stamp.equals(stamp))
+				return false;
+			this.predicateStatistics = cached.predicateStatistics;
+			this.classCounts = cached.classCounts;
+			this.numTriples = cached.numTriples;
+			return true;
+		}
+	}
+
+	/**
+	 * Keeps the collected statistics for the library (with the stamp of the
+	 * contents they were collected from), for useCachedStatistics. Collected
+	 * statistics are never modified, so they are shared as they are
+	 */
+	public void cacheStatistics(String stamp) {
+		if (stamp == null || this.predicateStatistics == null)
+			return;
+		synchronized (statisticsCache) {
+			statisticsCache.put(this.libraryUrl, new CachedStatistics(stamp,
+					this.predicateStatistics, this.classCounts, this.numTriples));
+		}
+	}
+
+	/**
+	 * Orders the triple patterns so that the most selective ones come first.
+	 * Picks patterns greedily by their estimated number of results (given the
+	 * variables that earlier patterns bind), preferring patterns that share a
+	 * variable with the earlier ones. Constants (including literal values)
+	 * count as bound, so equality constraints narrow down their pattern
+	 */
+	public ArrayList<KBTriple> orderBySelectivity(ArrayList<KBTriple> dods) {
+		if (this.predicateStatistics == null || dods.size() < 2)
+			return dods;
+		ArrayList<KBTriple> remaining = new ArrayList<KBTriple>(dods);
+		ArrayList<KBTriple> ordered = new ArrayList<KBTriple>(dods.size());
+		HashSet<String> bound = new HashSet<String>();
+		while (!remaining.isEmpty()) {
+			KBTriple best = null;
+			boolean bestConnected = false;
+			double bestCost = 0;
+			for (KBTriple triple : remaining) {
+				boolean connected = bound.isEmpty() || this.isBound(triple.getSubject(), bound)
+						|| this.isBound(triple.getObject(), bound);
+				double cost = this.estimateResults(triple, bound);
+				if (best == null || (connected && !bestConnected)
+						|| (connected == bestConnected && cost < bestCost)) {
+					best = triple;
+					bestConnected = connected;
+					bestCost = cost;
+				}
+			}
+			remaining.remove(best);
+			ordered.add(best);
+			if (this.isVariable(best.getSubject()))
+				bound.add(best.getSubject().getName());
+			if (this.isVariable(best.getObject()))
+				bound.add(best.getObject().getName());
+		}
+		return ordered;
+	}
+
+	private boolean isBound(KBObject item, HashSet<String> bound) {
+		return this.isVariable(item) && bound.contains(item.getName());
+	}
+
+	private double estimateResults(KBTriple triple, HashSet<String> bound) {
+		KBObject subj = triple.getSubject();
+		KBObject obj = triple.getObject();
+		String pred = triple.getPredicate().getID();
+		boolean subjBound = !this.isVariable(subj) || bound.contains(subj.getName());
+		boolean objBound = !this.isVariable(obj) || bound.contains(obj.getName());
+
+		if (pred.equals(RDF_TYPE) && !this.isVariable(obj)) {
+			Long count = this.classCounts.get(obj.getID());
+			double instances = count == null ? 0 : count;
+			return subjBound ? Math.min(instances, 1) : instances;
+		}
+		PredicateStatistics stats = this.predicateStatistics.get(pred);
+		// Not in the library, but it may still be inferred (for sub
+		// properties etc), so don't let it go first
+		if (stats == null)
+			return this.numTriples;
+		if (subjBound && objBound)
+			return Math.min(stats.triples, 1);
+		if (subjBound)
+			return (double) stats.triples / stats.subjects;
+		if (objBound)
+			return (double) stats.triples / stats.objects;
+		return stats.triples;
+	}
+
+	static class PredicateStatistics {
+		long triples;
+		long subjects;
+		long objects;
+
+		// Only kept while collecting
+		HashSet<String> subjectIds = new HashSet<String>();
+		HashSet<String> objectIds = new HashSet<String>();
+
+		void add(String subj, String obj) {
+			this.triples++;
+			this.subjectIds.add(subj);
+			this.objectIds.add(obj);
+		}
+
+		void finish() {
+			this.subjects = this.subjectIds.size();
+			this.objects = this.objectIds.size();
+			this.subjectIds = null;
+			this.objectIds = null;
+		}
+	}
+
+	static class CachedStatistics {
+		String stamp;
+		HashMap<String, PredicateStatistics> predicateStatistics;
+		HashMap<String, Long> classCounts;
+		long numTriples;
+
+		CachedStatistics(String stamp, HashMap<String, PredicateStatistics> predicateStatistics,
+				HashMap<String, Long> classCounts, long numTriples) {
+			this.stamp = stamp;
+			this.predicateStatistics = predicateStatistics;
+			this.classCounts = classCounts;
+			this.numTriples = numTriples;
+		}
+	}
+
 	private boolean isVariable(KBObject item) {
 		return !(item.isLiteral() || (item.getNamespace().equals(this.getBaseNamespace()))
 				|| (item.getNamespace().equals(this.getDomainNamespace())) || (item.getNamespace()
@@ -78,9 +286,14 @@ public class SparqlFactory {
 	 *            a data object description
 	 * @param sq
 	 *            a SparqlQuery object
+	 * @param variableNames
+	 *            if not null, variables are renamed (v0, v1, ..) and constants
+	 *            are replaced by parameters (p0, p1, ..) so that queries of
+	 *            the same shape have the same text
 	 * @return a String representing one line of the where clause
 	 */
-	private String makeWhereClauseLineFromDod(ArrayList<KBObject> dod, SparqlQuery sq) {
+	private String makeWhereClauseLineFromDod(ArrayList<KBObject> dod, SparqlQuery sq,
+			HashMap<String, String> variableNames) {
 		StringBuilder whereClause = new StringBuilder();
 		String tabChar = "\t";
 		String colon = ":";
@@ -88,64 +301,53 @@ public class SparqlFactory {
 		String end = " ." + System.getProperty("line.separator");
 
 		HashMap<String, String> namespacePrefixes = sq.getNamespacePrefixes();
-		HashMap<String, KBObject> variableMap = sq.getVariableMap();
-		ArrayList<String> variables = sq.getVariables();
 
 		KBObject subject = dod.get(0);
 		KBObject predicate = dod.get(1);
 		KBObject object = dod.get(2);
 
-		if (this.isVariable(subject)) {
-			String variableName = subject.getName();
-			String sparqlVariableName = "?" + variableName;
-			if (!variables.contains(variableName)) {
-				variables.add(variableName);
-				variableMap.put(variableName, subject);
-			}
-			whereClause.append(tabChar);
-			whereClause.append(sparqlVariableName);
-		} else {
-			whereClause.append(tabChar);
-			whereClause.append(namespacePrefixes.get(subject.getNamespace()));
-			whereClause.append(colon);
-			whereClause.append(subject.getName());
-		}
+		whereClause.append(tabChar);
+		whereClause.append(this.makeTerm(subject, sq, variableNames));
 		whereClause.append(space);
 		whereClause.append(namespacePrefixes.get(predicate.getNamespace()));
 		whereClause.append(colon);
 		whereClause.append(predicate.getName());
+		whereClause.append(space);
+		whereClause.append(this.makeTerm(object, sq, variableNames));
+		whereClause.append(end);
+		return whereClause.toString();
+	}
 
-		if (this.isVariable(object)) {
-			String variableName = object.getName();
-			String sparqlVariableName = "?" + variableName;
+	private String makeTerm(KBObject item, SparqlQuery sq, HashMap<String, String> variableNames) {
+		HashMap<String, KBObject> variableMap = sq.getVariableMap();
+		ArrayList<String> variables = sq.getVariables();
+
+		if (this.isVariable(item)) {
+			String variableName = item.getName();
+			if (variableNames != null) {
+				if (!variableNames.containsKey(variableName))
+					variableNames.put(variableName, "v" + variableNames.size());
+				variableName = variableNames.get(variableName);
+			}
 			if (!variables.contains(variableName)) {
 				variables.add(variableName);
-				variableMap.put(variableName, object);
-			}
-			whereClause.append(space);
-			whereClause.append(sparqlVariableName);
-		} else {
-			whereClause.append(space);
-			if (object.isLiteral() && object.getValue() !=  null) {
-				if (object.getDataType() != null) {
-					whereClause.append("\"");
-					whereClause.append(escape(object.getValue().toString()));
-					whereClause.append("\"^^<");
-					whereClause.append(object.getDataType());
-					whereClause.append(">");
-				} else {
-					whereClause.append("\"");
-					whereClause.append(escape(object.getValue().toString()));
-					whereClause.append("\"");
-				}
-			} else {
-				whereClause.append(namespacePrefixes.get(object.getNamespace()));
-				whereClause.append(colon);
-				whereClause.append(object.getName());
+				variableMap.put(variableName, item);
 			}
+			return "?" + variableName;
 		}
-		whereClause.append(end);
-		return whereClause.toString();
+		if (variableNames != null) {
+			HashMap<String, KBObject> parameters = sq.getParameters();
+			String parameterName = "p" + parameters.size();
+			parameters.put(parameterName, item);
+			return "?" + parameterName;
+		}
+		if (item.isLiteral() && item.getValue() != null) {
+			if (item.getDataType() != null)
+				return "\"" + escape(item.getValue().toString()) + "\"^^<" + item.getDataType()
+						+ ">";
+			return "\"" + escape(item.getValue().toString()) + "\"";
+		}
+		return sq.getNamespacePrefixes().get(item.getNamespace()) + ":" + item.getName();
 	}
 
 	/**
@@ -201,18 +403,42 @@ public class SparqlFactory {
 	 * @return a SparqlQuery object
 	 */
 	public SparqlQuery makeSparqlQueryFromDataObjectDescriptions(ArrayList<KBTriple> dods) {
+		return this.makeSparqlQuery(dods, false);
+	}
+
+	/**
+	 * constructs a parameterized SparqlQuery object from a list of dods. The
+	 * query text only depends on the shape of the dods, and the constant
+	 * values are returned as query parameters that have to be bound (see
+	 * KBAPI.prepareQuery) before executing the query
+	 * 
+	 * @param dods
+	 *            a list of data object descriptions
+	 * @return a SparqlQuery object
+	 */
+	public SparqlQuery makeParameterizedSparqlQueryFromDataObjectDescriptions(
+			ArrayList<KBTriple> dods) {
+		return this.makeSparqlQuery(dods, true);
+	}
+
+	private SparqlQuery makeSparqlQuery(ArrayList<KBTriple> dods, boolean parameterize) {
 		StringBuilder queryBuilder = new StringBuilder();
 
 		SparqlQuery sq = new SparqlQuery();
 		int numberOfNamespaces = 0;
 		HashMap<String, String> namespacePrefixes = sq.getNamespacePrefixes();
 		ArrayList<String> variables = sq.getVariables();
+		HashMap<String, String> variableNames = parameterize ? new HashMap<String, String>()
+				: null;
 
 		StringBuilder whereClause = new StringBuilder();
-		for (KBTriple triple : dods) {
-			// Add any unknown namespace prefixes
+		for (KBTriple triple : this.orderBySelectivity(dods)) {
+			// Add any unknown namespace prefixes (only predicates need them
+			// when parameterized)
 			ArrayList<KBObject> dod = triple.toArrayList();
 			for (KBObject kbObject : dod) {
+				if (parameterize && kbObject != triple.getPredicate())
+					continue;
 				if (!kbObject.isLiteral()) {
 					String namespacePrefix = namespacePrefixes.get(kbObject.getNamespace());
 					if (namespacePrefix == null) {
@@ -223,7 +449,7 @@ public class SparqlFactory {
 			}
 			// populates the variables and variableMap while building the where
 			// clauses
-			whereClause.append(this.makeWhereClauseLineFromDod(dod, sq));
+			whereClause.append(this.makeWhereClauseLineFromDod(dod, sq, variableNames));
 		}
 
 		String prefixLines = this.makePrefixLines(namespacePrefixes);
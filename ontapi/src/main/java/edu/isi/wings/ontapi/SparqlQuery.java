@@ -32,6 +32,12 @@ public class SparqlQuery {
 	 */
 	HashMap<String, String> namespacePrefixes;
 
+	/**
+	 * values to bind to the query parameters in a parameterized query {p0 =
+	 * http://wings-workflows.org/ontology/dc/dm/ontology.owl#Instance}
+	 */
+	HashMap<String, KBObject> parameters;
+
 	/**
 	 * default constructor - initializes fields
 	 */
@@ -40,6 +46,7 @@ public class SparqlQuery {
 		this.variableMap = new HashMap<String, KBObject>();
 		this.variables = new ArrayList<String>();
 		this.namespacePrefixes = new HashMap<String, String>();
+		this.parameters = new HashMap<String, KBObject>();
 	}
 
 	public String toString() {
@@ -122,4 +129,23 @@ public class SparqlQuery {
 	public void setVariables(ArrayList<String> variables) {
 		this.variables = variables;
 	}
+
+	/**
+	 * Getter for property 'parameters'.
+	 * 
+	 * @return Value for property 'parameters'.
+	 */
+	public HashMap<String, KBObject> getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Setter for property 'parameters'.
+	 * 
+	 * @param parameters
+	 *            Value to set for property 'parameters'.
+	 */
+	public void setParameters(HashMap<String, KBObject> parameters) {
+		this.parameters = parameters;
+	}
 }
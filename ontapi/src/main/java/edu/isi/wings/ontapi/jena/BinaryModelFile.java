@@ -0,0 +1,329 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.hp.hpl.jena.datatypes.RDFDatatype;
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.util.LocationMapper;
+
+/**
+ * A compact binary file format for models, which is much faster to write and
+ * read than RDF/XML. The file has a header, the namespace prefixes, a
+ * dictionary of all terms (each stored once), and the triples as term ids.
+ * Strings are length prefixed UTF-8. Files are read through a memory mapped
+ * buffer.
+ *
+ * Binary files are kept next to the RDF file that the url maps to (with an
+ * extra extension). The header holds the size and modification time that the
+ * RDF file had when the binary file was written, and the binary file is used
+ * instead of the RDF file for as long as these haven't changed.
+ */
+public class BinaryModelFile {
+	public static final String EXTENSION = ".bin";
+
+	static final int MAGIC = 0x57524446; // "WRDF"
+	static final int VERSION = 2;
+
+	// Offset of the RDF file stamp in the header
+	static final int STAMP_OFFSET = 8;
+
+	static final byte URI = 0;
+	static final byte BLANK = 1;
+	static final byte LITERAL = 2;
+
+	/**
+	 * Returns the binary file for the url if it exists and the RDF file hasn't
+	 * changed since the binary file was written (or if there is no RDF file),
+	 * and null otherwise
+	 */
+	public static File getCurrentFile(String url) {
+		File rdffile = getRdfFile(url);
+		if (rdffile == null)
+			return null;
+		File binfile = getFile(rdffile);
+		if (!binfile.exists())
+			return null;
+		if (!rdffile.exists())
+			return binfile;
+		Header header = readHeader(binfile);
+		if (header == null || !header.matches(rdffile))
+			return null;
+		return binfile;
+	}
+
+	// The local RDF file that the url maps to (which may not exist)
+	public static File getRdfFile(String url) {
+		String fileuri = LocationMapper.get().altMapping(url);
+		if (fileuri == null || !fileuri.startsWith("file:"))
+			return null;
+		try {
+			return new File(new URL(fileuri).getFile());
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	public static File getFile(File rdffile) {
+		return new File(rdffile.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Writes the model (of the url) to the binary file, along with the stamp
+	 * of the RDF file next to it
+	 */
+	public static void write(Model model, File file, String url) throws IOException {
+		// Encode the triples first, so the dictionary can be written before them
+		NodeDictionary dictionary = new NodeDictionary();
+		Graph graph = model.getGraph();
+		int[] triples = new int[3 * Math.max(graph.size(), 1)];
+		int count = 0;
+		for (Iterator<Triple> it = graph.find(Triple.ANY); it.hasNext();) {
+			Triple t = it.next();
+			if (3 * count == triples.length) {
+				int[] tmp = new int[triples.length * 2];
+				System.arraycopy(triples, 0, tmp, 0, triples.length);
+				triples = tmp;
+			}
+			triples[3 * count] = dictionary.add(t.getSubject());
+			triples[3 * count + 1] = dictionary.add(t.getPredicate());
+			triples[3 * count + 2] = dictionary.add(t.getObject());
+			count++;
+		}
+
+		// Write to a temporary file first, so readers never see a partial file
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			File rdffile = getRdfFile(file);
+			out.writeLong(rdffile.exists() ? rdffile.length() : -1);
+			out.writeLong(rdffile.exists() ? rdffile.lastModified() : 0);
+			out.writeByte(0);
+			writeString(out, url != null ? url : "");
+
+			Map<String, String> prefixes = model.getNsPrefixMap();
+			out.writeInt(prefixes.size());
+			for (Map.Entry<String, String> entry : prefixes.entrySet()) {
+				writeString(out, entry.getKey());
+				writeString(out, entry.getValue());
+			}
+
+			out.writeInt(dictionary.size());
+			for (int i = 0; i < dictionary.size(); i++) {
+				Node node = dictionary.getNode(i);
+				if (node.isURI()) {
+					out.writeByte(URI);
+					writeString(out, node.getURI());
+				} else if (node.isBlank()) {
+					out.writeByte(BLANK);
+					writeString(out, node.getBlankNodeLabel());
+				} else {
+					String dtype = node.getLiteralDatatypeURI();
+					out.writeByte(LITERAL);
+					writeString(out, node.getLiteralLexicalForm());
+					writeString(out, node.getLiteralLanguage());
+					writeString(out, dtype != null ? dtype : "");
+				}
+			}
+
+			out.writeInt(count);
+			for (int i = 0; i < 3 * count; i++)
+				out.writeInt(triples[i]);
+		}
+		finally {
+			out.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+				throw new IOException("Could not write " + file);
+			}
+		}
+	}
+
+	/**
+	 * Adds the prefixes and triples in the file to the model
+	 */
+	public static void read(File file, Model model) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				throw new IOException(file + " is not a binary model file");
+			buf.getLong();
+			buf.getLong();
+			buf.get();
+			readString(buf);
+
+			int numprefixes = buf.getInt();
+			HashMap<String, String> prefixes = new HashMap<String, String>();
+			for (int i = 0; i < numprefixes; i++) {
+				String prefix = readString(buf);
+				prefixes.put(prefix, readString(buf));
+			}
+
+			TypeMapper types = TypeMapper.getInstance();
+			Node[] nodes = new Node[buf.getInt()];
+			for (int i = 0; i < nodes.length; i++) {
+				byte kind = buf.get();
+				if (kind == URI) {
+					nodes[i] = NodeFactory.createURI(readString(buf));
+				} else if (kind == BLANK) {
+					nodes[i] = NodeFactory.createAnon(new AnonId(readString(buf)));
+				} else {
+					String lex = readString(buf);
+					String lang = readString(buf);
+					String dtype = readString(buf);
+					RDFDatatype datatype = dtype.equals("") ? null : types.getSafeTypeByName(dtype);
+					nodes[i] = NodeFactory.createLiteral(lex, lang, datatype);
+				}
+			}
+
+			Graph graph = model.getGraph();
+			int count = buf.getInt();
+			for (int i = 0; i < count; i++) {
+				Node s = nodes[buf.getInt()];
+				Node p = nodes[buf.getInt()];
+				Node o = nodes[buf.getInt()];
+				graph.add(Triple.create(s, p, o));
+			}
+			model.setNsPrefixes(prefixes);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes RDF/XML files for all binary files under the directory whose RDF
+	 * file is missing or out of date (for exporting). RDF files are written
+	 * like saves of the url, and their new stamp is recorded in the binary
+	 * file, so the binary file stays in use. RDF files that have been changed
+	 * since the binary file was written are left as they are
+	 */
+	public static void exportRdfFiles(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files) {
+			if (f.isDirectory()) {
+				exportRdfFiles(f);
+				continue;
+			}
+			if (!f.getPath().endsWith(EXTENSION))
+				continue;
+			Header header = readHeader(f);
+			if (header == null)
+				continue;
+			File rdffile = getRdfFile(f);
+			if (rdffile.exists() && (header.rdfCurrent || !header.matches(rdffile)))
+				continue;
+			Model model = ModelFactory.createDefaultModel();
+			read(f, model);
+			String url = header.url.equals("") ? null : header.url;
+			KBAPIJena.writeRdfFile(rdffile, model, url);
+			setRdfStamp(f, rdffile);
+		}
+	}
+
+	// The RDF file next to a binary file
+	private static File getRdfFile(File binfile) {
+		String path = binfile.getPath();
+		return new File(path.substring(0, path.length() - EXTENSION.length()));
+	}
+
+	/**
+	 * Returns the header of the binary file (null if it can't be read, or is
+	 * of another version)
+	 */
+	static Header readHeader(File file) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					return null;
+				Header header = new Header();
+				header.rdfLength = in.readLong();
+				header.rdfModified = in.readLong();
+				header.rdfCurrent = in.readByte() != 0;
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				header.url = new String(bytes, "UTF-8");
+				return header;
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	// Records the stamp of an RDF file written with the same contents
+	private static void setRdfStamp(File binfile, File rdffile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(binfile, "rw");
+		try {
+			raf.seek(STAMP_OFFSET);
+			raf.writeLong(rdffile.length());
+			raf.writeLong(rdffile.lastModified());
+			raf.writeByte(1);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	static class Header {
+		// Size and modification time of the RDF file when the binary file was
+		// written, and whether it has the same contents
+		long rdfLength;
+		long rdfModified;
+		boolean rdfCurrent;
+		String url;
+
+		boolean matches(File rdffile) {
+			return rdffile.length() == this.rdfLength
+					&& rdffile.lastModified() == this.rdfModified;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buf) throws IOException {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+}
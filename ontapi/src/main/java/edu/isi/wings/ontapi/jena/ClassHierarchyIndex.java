@@ -0,0 +1,218 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.ontology.Individual;
+import com.hp.hpl.jena.ontology.OntClass;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * A snapshot of the (inferred) subClassOf and rdf:type statements of a model.
+ * Classes and instances get dense ids, and their super classes, sub classes,
+ * types and instances are kept as bitsets, so that subsumption and membership
+ * checks don't have to go through the reasoner. The index listens to the
+ * model, and is no longer valid once the model changes.
+ */
+public class ClassHierarchyIndex {
+	OntModel ontmodel;
+	volatile boolean valid;
+	StatementListener listener;
+
+	HashMap<Node, Integer> ids;
+	ArrayList<RDFNode> nodes;
+
+	// Bitsets per id (null if empty)
+	ArrayList<BitSet> superClasses;
+	ArrayList<BitSet> subClasses;
+	ArrayList<BitSet> types;
+	ArrayList<BitSet> instances;
+
+	// Ids that are classes
+	BitSet classes;
+
+	public ClassHierarchyIndex(OntModel ontmodel) {
+		this.ontmodel = ontmodel;
+		this.ids = new HashMap<Node, Integer>();
+		this.nodes = new ArrayList<RDFNode>();
+		this.superClasses = new ArrayList<BitSet>();
+		this.subClasses = new ArrayList<BitSet>();
+		this.types = new ArrayList<BitSet>();
+		this.instances = new ArrayList<BitSet>();
+		this.classes = new BitSet();
+
+		// Invalidate the index on any change to the model
+		this.listener = new StatementListener() {
+			public void addedStatement(Statement s) {
+				valid = false;
+			}
+			public void removedStatement(Statement s) {
+				valid = false;
+			}
+			public void notifyEvent(Model m, Object event) {
+				// Read events are followed by statement events anyway
+				if (event != GraphEvents.startRead && event != GraphEvents.finishRead)
+					valid = false;
+			}
+		};
+		this.valid = true;
+		this.ontmodel.register(this.listener);
+		this.build();
+	}
+
+	public boolean isValid() {
+		return this.valid;
+	}
+
+	/**
+	 * Stops listening to the model (the index should not be used after this)
+	 */
+	public void close() {
+		this.valid = false;
+		this.ontmodel.unregister(this.listener);
+	}
+
+	private void build() {
+		StmtIterator it = this.ontmodel.listStatements(null, RDFS.subClassOf, (RDFNode) null);
+		try {
+			while (it.hasNext()) {
+				Statement st = it.nextStatement();
+				if (!st.getObject().isResource())
+					continue;
+				int sub = this.getOrAddId(st.getSubject());
+				int sup = this.getOrAddId(st.getObject());
+				this.createBits(this.superClasses, sub).set(sup);
+				this.createBits(this.subClasses, sup).set(sub);
+			}
+		}
+		finally {
+			it.close();
+		}
+
+		it = this.ontmodel.listStatements(null, RDF.type, (RDFNode) null);
+		try {
+			while (it.hasNext()) {
+				Statement st = it.nextStatement();
+				if (!st.getObject().isResource())
+					continue;
+				int ind = this.getOrAddId(st.getSubject());
+				int cls = this.getOrAddId(st.getObject());
+				this.createBits(this.types, ind).set(cls);
+				this.createBits(this.instances, cls).set(ind);
+			}
+		}
+		finally {
+			it.close();
+		}
+
+		for (int i = 0; i < this.nodes.size(); i++) {
+			if (this.subClasses.get(i) != null || this.superClasses.get(i) != null
+					|| this.instances.get(i) != null) {
+				if (this.nodes.get(i).canAs(OntClass.class))
+					this.classes.set(i);
+			}
+		}
+	}
+
+	public boolean isA(Node ind, Node cls) {
+		return this.has(this.types, ind, cls);
+	}
+
+	public boolean hasSubClass(Node cls, Node sub) {
+		return this.has(this.subClasses, cls, sub);
+	}
+
+	public boolean hasSuperClass(Node cls, Node sup) {
+		return this.has(this.superClasses, cls, sup);
+	}
+
+	public ArrayList<RDFNode> getSubClasses(Node cls) {
+		return this.getClasses(this.subClasses, cls);
+	}
+
+	public ArrayList<RDFNode> getSuperClasses(Node cls) {
+		return this.getClasses(this.superClasses, cls);
+	}
+
+	public ArrayList<RDFNode> getClassesOfInstance(Node ind) {
+		return this.getClasses(this.types, ind);
+	}
+
+	public ArrayList<RDFNode> getInstancesOfClass(Node cls) {
+		ArrayList<RDFNode> list = new ArrayList<RDFNode>();
+		BitSet bits = this.getBits(cls, this.instances);
+		if (bits == null)
+			return list;
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			RDFNode node = this.nodes.get(i);
+			if (node.canAs(Individual.class))
+				node = node.as(Individual.class);
+			list.add(node);
+		}
+		return list;
+	}
+
+	private boolean has(ArrayList<BitSet> relation, Node from, Node to) {
+		BitSet bits = this.getBits(from, relation);
+		if (bits == null)
+			return false;
+		Integer id = this.ids.get(to);
+		return id != null && bits.get(id);
+	}
+
+	// Returns related classes (excluding the node itself)
+	private ArrayList<RDFNode> getClasses(ArrayList<BitSet> relation, Node node) {
+		ArrayList<RDFNode> list = new ArrayList<RDFNode>();
+		BitSet bits = this.getBits(node, relation);
+		if (bits == null)
+			return list;
+		int self = this.ids.get(node);
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			if (i != self && this.classes.get(i))
+				list.add(this.nodes.get(i).as(OntClass.class));
+		}
+		return list;
+	}
+
+	private BitSet getBits(Node node, ArrayList<BitSet> relation) {
+		if (node == null)
+			return null;
+		Integer id = this.ids.get(node);
+		if (id == null)
+			return null;
+		return relation.get(id);
+	}
+
+	private BitSet createBits(ArrayList<BitSet> relation, int id) {
+		BitSet bits = relation.get(id);
+		if (bits == null) {
+			bits = new BitSet();
+			relation.set(id, bits);
+		}
+		return bits;
+	}
+
+	private int getOrAddId(RDFNode node) {
+		Integer id = this.ids.get(node.asNode());
+		if (id == null) {
+			id = this.nodes.size();
+			this.ids.put(node.asNode(), id);
+			this.nodes.add(node);
+			this.superClasses.add(null);
+			this.subClasses.add(null);
+			this.types.add(null);
+			this.instances.add(null);
+		}
+		return id;
+	}
+}
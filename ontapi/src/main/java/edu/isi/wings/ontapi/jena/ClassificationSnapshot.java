@@ -0,0 +1,224 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.mindswap.pellet.jena.PelletReasonerFactory;
+
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.ontology.OntModelSpec;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.util.LocationMapper;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Saved results of classifying a set of ontologies with Pellet : the inferred
+ * subClassOf, subPropertyOf and rdf:type statements. The snapshot is stored
+ * (as gzipped N-Triples) next to the first source file, along with a hash of
+ * the contents of all source files. It is only used while the hash matches,
+ * and is regenerated in the background otherwise.
+ */
+public class ClassificationSnapshot {
+	static final String EXTENSION = ".classification.nt.gz";
+	static final Property[] PROPERTIES = { RDFS.subClassOf, RDFS.subPropertyOf, RDF.type };
+
+	static Set<String> pending = Collections.synchronizedSet(new HashSet<String>());
+	static ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "classification-snapshot");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+
+	List<String> sources;
+	File file;
+
+	public ClassificationSnapshot(List<String> sources) {
+		this.sources = new ArrayList<String>(sources);
+		File first = getSourceFile(sources.get(0));
+		if (first != null) {
+			String name = first.getName() + "."
+					+ Integer.toHexString(sources.toString().hashCode()) + EXTENSION;
+			this.file = new File(first.getParentFile(), name);
+		}
+	}
+
+	/**
+	 * Adds the snapshot's inferred statements to the KB. Returns false if
+	 * there is no snapshot for the current contents of the sources
+	 */
+	public boolean load(KBAPIJena kb) {
+		String hash = this.getSourcesHash();
+		if (hash == null || !this.file.exists())
+			return false;
+		try {
+			InputStream in = new BufferedInputStream(
+					new GZIPInputStream(new FileInputStream(this.file)));
+			try {
+				if (!("# " + hash).equals(readLine(in)))
+					return false;
+				Model inferred = ModelFactory.createDefaultModel();
+				inferred.read(in, null, "N-TRIPLE");
+				kb.ontmodel.add(inferred);
+				return true;
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (Exception e) {
+			Logger.getLogger(this.getClass()).warn(
+					"Could not read classification snapshot " + this.file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Regenerates the snapshot from the sources in the background (unless it
+	 * is already being regenerated)
+	 */
+	public void update() {
+		if (this.getSourcesHash() == null || !pending.add(this.file.getPath()))
+			return;
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					generate();
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+				}
+				finally {
+					pending.remove(file.getPath());
+				}
+			}
+		});
+	}
+
+	private void generate() throws Exception {
+		for (String url : this.sources)
+			SaveQueue.flush(url);
+		String hash = this.getSourcesHash();
+		OntModel base = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+		for (String url : this.sources)
+			base.read(url);
+		// Sources changed while reading them. A later load will try again
+		if (hash == null || !hash.equals(this.getSourcesHash()))
+			return;
+
+		OntModel infmodel = ModelFactory.createOntologyModel(PelletReasonerFactory.THE_SPEC, base);
+		Model inferred = ModelFactory.createDefaultModel();
+		for (Property prop : PROPERTIES) {
+			StmtIterator it = infmodel.listStatements(null, prop, (RDFNode) null);
+			try {
+				while (it.hasNext()) {
+					Statement st = it.nextStatement();
+					// Blank nodes (restrictions etc) can't be matched up on load
+					if (st.getSubject().isAnon() || st.getObject().isAnon())
+						continue;
+					if (!base.contains(st))
+						inferred.add(st);
+				}
+			}
+			finally {
+				it.close();
+			}
+		}
+
+		// Write to a temporary file first, so readers never see a partial file
+		File tmp = new File(this.file.getPath() + ".tmp");
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp));
+		try {
+			out.write(("# " + hash + "\n").getBytes("UTF-8"));
+			inferred.write(out, "N-TRIPLE");
+		}
+		finally {
+			out.close();
+		}
+		if (!tmp.renameTo(this.file)) {
+			this.file.delete();
+			if (!tmp.renameTo(this.file))
+				tmp.delete();
+		}
+	}
+
+	// Hash of all source urls and file contents (null if any source isn't a local file)
+	private String getSourcesHash() {
+		if (this.file == null)
+			return null;
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[8192];
+			for (String url : this.sources) {
+				File f = getSourceFile(url);
+				if (f == null)
+					return null;
+				md.update(url.getBytes("UTF-8"));
+				InputStream in = new FileInputStream(f);
+				try {
+					int n;
+					while ((n = in.read(buffer)) > 0)
+						md.update(buffer, 0, n);
+				}
+				finally {
+					in.close();
+				}
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : md.digest())
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static File getSourceFile(String url) {
+		if (url == null)
+			return null;
+		String fileuri = LocationMapper.get().altMapping(url);
+		if (fileuri == null || !fileuri.startsWith("file:"))
+			return null;
+		try {
+			File f = new File(new URL(fileuri).getFile());
+			return f.exists() ? f : null;
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static String readLine(InputStream in) throws Exception {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != -1 && c != '\n')
+			line.append((char) c);
+		return line.toString();
+	}
+}
@@ -0,0 +1,120 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.util.LocationMapper;
+
+/**
+ * A process-wide cache of parsed ontology graphs. Graphs are keyed by url and
+ * by the modification time and size of the file that the url maps to (and of
+ * its binary copy, if any), so an edited file is re-parsed on the next read.
+ * Cached graphs are shared and must be treated as immutable (they are only
+ * handed out wrapped as SharedGraphs, which can't modify or close them).
+ * Memory is bounded by the total number of cached triples, and the least
+ * recently used graphs are evicted first.
+ */
+public class GraphCache {
+	private LinkedHashMap<String, CacheEntry> entries;
+	private long maxTriples;
+	private long numTriples;
+
+	public GraphCache(long maxTriples) {
+		this.maxTriples = maxTriples;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the cached graph for the url, or null if the url hasn't been
+	 * cached, if the backing file has changed since it was cached, or if the
+	 * graph has been closed
+	 */
+	public synchronized Graph get(String url) {
+		CacheEntry entry = this.entries.get(url);
+		if (entry == null)
+			return null;
+		String stamp = getFileStamp(url);
+		if (stamp == null || !stamp.equals(entry.stamp) || entry.graph.isClosed()) {
+			this.remove(url);
+			return null;
+		}
+		return entry.graph;
+	}
+
+	/**
+	 * Caches the graph for the url. Urls that do not map to an existing local
+	 * file are not cached
+	 */
+	public synchronized void put(String url, Graph graph) {
+		String stamp = getFileStamp(url);
+		if (stamp == null)
+			return;
+		this.remove(url);
+		CacheEntry entry = new CacheEntry(stamp, graph);
+		if (entry.size > this.maxTriples)
+			return;
+		this.entries.put(url, entry);
+		this.numTriples += entry.size;
+		this.evict();
+	}
+
+	public synchronized void remove(String url) {
+		CacheEntry entry = this.entries.remove(url);
+		if (entry != null)
+			this.numTriples -= entry.size;
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		this.numTriples = 0;
+	}
+
+	public synchronized void setMaxTriples(long maxTriples) {
+		this.maxTriples = maxTriples;
+		this.evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, CacheEntry>> it = this.entries.entrySet().iterator();
+		while (this.numTriples > this.maxTriples && it.hasNext()) {
+			CacheEntry entry = it.next().getValue();
+			this.numTriples -= entry.size;
+			it.remove();
+		}
+	}
+
+	static String getFileStamp(String url) {
+		String fileuri = LocationMapper.get().altMapping(url);
+		if (fileuri == null || !fileuri.startsWith("file:"))
+			return null;
+		try {
+			File f = new File(new URL(fileuri).getFile());
+			File binfile = BinaryModelFile.getFile(f);
+			if (binfile.exists())
+				return f.lastModified() + ":" + f.length() + ":" + binfile.lastModified()
+						+ ":" + binfile.length();
+			if (!f.exists())
+				return null;
+			return f.lastModified() + ":" + f.length();
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static class CacheEntry {
+		String stamp;
+		Graph graph;
+		long size;
+
+		CacheEntry(String stamp, Graph graph) {
+			this.stamp = stamp;
+			this.graph = graph;
+			this.size = graph.size();
+		}
+	}
+}
@@ -0,0 +1,383 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+
+/**
+ * An in-memory graph that stores triples as ints. Nodes are dictionary
+ * encoded, triples are kept in a flat int table with an open addressing hash
+ * for exact lookups, and every term keeps the list of triples that it appears
+ * in (for each of the subject, predicate and object positions). Finds scan the
+ * shortest of these lists. This takes much less memory than the default
+ * in-memory graph, which matters for the many small plain models that are
+ * created while planning.
+ *
+ * Like the default graph, it is not thread-safe.
+ */
+public class IntTripleGraph extends GraphBase {
+	static final int S = 0;
+	static final int P = 1;
+	static final int O = 2;
+
+	NodeDictionary dictionary;
+
+	// Triple table : triple ids for slot i are at 3i, 3i+1 and 3i+2
+	// -- Deleted slots have a subject id of -1, and are chained into a free
+	// list through their object id
+	int[] triples;
+	// Index of each triple slot in the posting lists of its 3 terms
+	int[] positions;
+	int numSlots;
+	int freeSlot;
+	int size;
+
+	// Hash of triples : entries are (slot + 1), 0 for empty, -1 for deleted
+	int[] table;
+	int tableUsed;
+
+	// Posting lists : slots of triples in which a term id appears (per position)
+	int[][][] postings;
+	int[][] postingSizes;
+
+	public IntTripleGraph() {
+		this.initialize();
+	}
+
+	private void initialize() {
+		this.dictionary = new NodeDictionary();
+		this.triples = new int[3 * 16];
+		this.positions = new int[3 * 16];
+		this.freeSlot = -1;
+		this.table = new int[32];
+		this.postings = new int[3][16][];
+		this.postingSizes = new int[3][16];
+		this.numSlots = 0;
+		this.size = 0;
+		this.tableUsed = 0;
+	}
+
+	@Override
+	public void performAdd(Triple t) {
+		int s = this.dictionary.add(t.getSubject());
+		int p = this.dictionary.add(t.getPredicate());
+		int o = this.dictionary.add(t.getObject());
+		if (this.findIndex(s, p, o) >= 0)
+			return;
+
+		int slot = this.allocateSlot();
+		int base = 3 * slot;
+		this.triples[base + S] = s;
+		this.triples[base + P] = p;
+		this.triples[base + O] = o;
+		this.addPosting(S, s, slot);
+		this.addPosting(P, p, slot);
+		this.addPosting(O, o, slot);
+		this.insert(slot);
+		this.size++;
+	}
+
+	@Override
+	public void performDelete(Triple t) {
+		int s = this.dictionary.getId(t.getSubject());
+		int p = this.dictionary.getId(t.getPredicate());
+		int o = this.dictionary.getId(t.getObject());
+		if (s < 0 || p < 0 || o < 0)
+			return;
+		int index = this.findIndex(s, p, o);
+		if (index < 0)
+			return;
+
+		int slot = this.table[index] - 1;
+		this.table[index] = -1;
+		this.removePosting(S, s, slot);
+		this.removePosting(P, p, slot);
+		this.removePosting(O, o, slot);
+		this.triples[3 * slot + S] = -1;
+		this.triples[3 * slot + O] = this.freeSlot;
+		this.freeSlot = slot;
+		this.size--;
+	}
+
+	@Override
+	public void clear() {
+		this.initialize();
+		this.getEventManager().notifyEvent(this, GraphEvents.removeAll);
+	}
+
+	@Override
+	protected int graphBaseSize() {
+		return this.size;
+	}
+
+	// Checks of concrete triples (with non literal objects) only do hash
+	// lookups, and allocate nothing
+	@Override
+	protected boolean graphBaseContains(Triple t) {
+		// Literal objects are matched by value, so those go through find
+		if (!t.isConcrete() || t.getObject().isLiteral())
+			return this.containsByFind(t);
+		int s = this.dictionary.getId(t.getSubject());
+		int p = this.dictionary.getId(t.getPredicate());
+		int o = this.dictionary.getId(t.getObject());
+		if (s < 0 || p < 0 || o < 0)
+			return false;
+		return this.findIndex(s, p, o) >= 0;
+	}
+
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+		Node sn = m.getMatchSubject();
+		Node pn = m.getMatchPredicate();
+		Node on = m.getMatchObject();
+
+		int s = -1, p = -1, o = -1;
+		Node literal = null;
+		if (sn != null && (s = this.dictionary.getId(sn)) < 0)
+			return NullIterator.instance();
+		if (pn != null && (p = this.dictionary.getId(pn)) < 0)
+			return NullIterator.instance();
+		if (on != null) {
+			if (on.isLiteral())
+				literal = on;
+			else if ((o = this.dictionary.getId(on)) < 0)
+				return NullIterator.instance();
+		}
+
+		// Fully specified triple : use the hash (only the iterator is created)
+		if (s >= 0 && p >= 0 && o >= 0) {
+			int index = this.findIndex(s, p, o);
+			if (index < 0)
+				return NullIterator.instance();
+			return new TripleIterator(this.table[index] - 1, s, p, o);
+		}
+
+		// Otherwise scan the shortest posting list of the given terms
+		int pos = -1, id = -1, min = Integer.MAX_VALUE;
+		if (s >= 0 && this.postingSize(S, s) < min) {
+			pos = S; id = s; min = this.postingSize(S, s);
+		}
+		if (p >= 0 && this.postingSize(P, p) < min) {
+			pos = P; id = p; min = this.postingSize(P, p);
+		}
+		if (o >= 0 && this.postingSize(O, o) < min) {
+			pos = O; id = o; min = this.postingSize(O, o);
+		}
+
+		int[] slots;
+		int count = 0;
+		if (literal != null) {
+			ArrayList<Integer> literalids = this.dictionary.getLiteralIds(literal);
+			if (literalids == null)
+				return NullIterator.instance();
+			int total = 0;
+			for (int lid : literalids)
+				total += this.postingSize(O, lid);
+			if (total < min) {
+				slots = new int[total];
+				for (int lid : literalids) {
+					int n = this.postingSize(O, lid);
+					if (n > 0)
+						System.arraycopy(this.postings[O][lid], 0, slots, count, n);
+					count += n;
+				}
+				return new TripleIterator(slots, count, s, p, o, literal);
+			}
+		}
+		if (pos >= 0) {
+			count = min;
+			slots = new int[count];
+			if (count > 0)
+				System.arraycopy(this.postings[pos][id], 0, slots, 0, count);
+		} else {
+			slots = new int[this.size];
+			for (int slot = 0; slot < this.numSlots; slot++) {
+				if (this.triples[3 * slot] >= 0)
+					slots[count++] = slot;
+			}
+		}
+		return new TripleIterator(slots, count, s, p, o, literal);
+	}
+
+	private int postingSize(int pos, int id) {
+		return id < this.postingSizes[pos].length ? this.postingSizes[pos][id] : 0;
+	}
+
+	private void addPosting(int pos, int id, int slot) {
+		if (id >= this.postings[pos].length) {
+			int capacity = Math.max(id + 1, this.postings[pos].length * 2);
+			int[][] tmp = new int[capacity][];
+			System.arraycopy(this.postings[pos], 0, tmp, 0, this.postings[pos].length);
+			this.postings[pos] = tmp;
+			int[] tmpsizes = new int[capacity];
+			System.arraycopy(this.postingSizes[pos], 0, tmpsizes, 0, this.postingSizes[pos].length);
+			this.postingSizes[pos] = tmpsizes;
+		}
+		int[] list = this.postings[pos][id];
+		int n = this.postingSizes[pos][id];
+		if (list == null) {
+			list = new int[2];
+			this.postings[pos][id] = list;
+		} else if (n == list.length) {
+			int[] tmp = new int[n * 2];
+			System.arraycopy(list, 0, tmp, 0, n);
+			list = tmp;
+			this.postings[pos][id] = list;
+		}
+		list[n] = slot;
+		this.positions[3 * slot + pos] = n;
+		this.postingSizes[pos][id] = n + 1;
+	}
+
+	private void removePosting(int pos, int id, int slot) {
+		// Move the last entry of the list into the removed entry's place
+		int[] list = this.postings[pos][id];
+		int n = --this.postingSizes[pos][id];
+		int i = this.positions[3 * slot + pos];
+		int moved = list[n];
+		list[i] = moved;
+		this.positions[3 * moved + pos] = i;
+		if (n == 0)
+			this.postings[pos][id] = null;
+	}
+
+	private int allocateSlot() {
+		if (this.freeSlot >= 0) {
+			int slot = this.freeSlot;
+			this.freeSlot = this.triples[3 * slot + O];
+			return slot;
+		}
+		if (3 * this.numSlots == this.triples.length) {
+			int[] tmp = new int[this.triples.length * 2];
+			System.arraycopy(this.triples, 0, tmp, 0, this.triples.length);
+			this.triples = tmp;
+			tmp = new int[this.positions.length * 2];
+			System.arraycopy(this.positions, 0, tmp, 0, this.positions.length);
+			this.positions = tmp;
+		}
+		return this.numSlots++;
+	}
+
+	private int findIndex(int s, int p, int o) {
+		int mask = this.table.length - 1;
+		for (int i = hash(s, p, o) & mask;; i = (i + 1) & mask) {
+			int entry = this.table[i];
+			if (entry == 0)
+				return -1;
+			if (entry > 0) {
+				int base = 3 * (entry - 1);
+				if (this.triples[base + S] == s && this.triples[base + P] == p
+						&& this.triples[base + O] == o)
+					return i;
+			}
+		}
+	}
+
+	private void insert(int slot) {
+		// Keep at least half the table empty, so probes stay short
+		if (2 * (this.tableUsed + 1) > this.table.length) {
+			int capacity = 32;
+			while (capacity < 4 * (this.size + 1))
+				capacity *= 2;
+			this.table = new int[capacity];
+			this.tableUsed = 0;
+			for (int i = 0; i < this.numSlots; i++) {
+				if (i != slot && this.triples[3 * i] >= 0)
+					this.insertEntry(i);
+			}
+		}
+		this.insertEntry(slot);
+	}
+
+	private void insertEntry(int slot) {
+		int base = 3 * slot;
+		int mask = this.table.length - 1;
+		int i = hash(this.triples[base + S], this.triples[base + P], this.triples[base + O]) & mask;
+		while (this.table[i] > 0)
+			i = (i + 1) & mask;
+		if (this.table[i] == 0)
+			this.tableUsed++;
+		this.table[i] = slot + 1;
+	}
+
+	private static int hash(int s, int p, int o) {
+		int h = s * 0x9E3779B1 + p * 0x85EBCA77 + o * 0xC2B2AE3D;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Iterates over a snapshot of candidate triple slots, and returns the ones
+	 * that (still) match. Triples can be removed from the graph while iterating
+	 */
+	class TripleIterator extends NiceIterator<Triple> {
+		// Candidate slots (or a single slot, if slots is null)
+		int[] slots;
+		int slot;
+		int count;
+		int index;
+		int s, p, o;
+		Node literal;
+		Triple next;
+		Triple current;
+
+		TripleIterator(int[] slots, int count, int s, int p, int o, Node literal) {
+			this.slots = slots;
+			this.count = count;
+			this.s = s;
+			this.p = p;
+			this.o = o;
+			this.literal = literal;
+		}
+
+		TripleIterator(int slot, int s, int p, int o) {
+			this(null, 1, s, p, o, null);
+			this.slot = slot;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (this.next == null && this.index < this.count) {
+				int base = 3 * (this.slots != null ? this.slots[this.index] : this.slot);
+				this.index++;
+				int ts = triples[base + S];
+				if (ts < 0)
+					continue;
+				int tp = triples[base + P];
+				int to = triples[base + O];
+				if ((this.s >= 0 && ts != this.s) || (this.p >= 0 && tp != this.p)
+						|| (this.o >= 0 && to != this.o))
+					continue;
+				Node object = dictionary.getNode(to);
+				if (this.literal != null && !this.literal.sameValueAs(object))
+					continue;
+				this.next = Triple.create(dictionary.getNode(ts), dictionary.getNode(tp), object);
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public Triple next() {
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			this.current = this.next;
+			this.next = null;
+			return this.current;
+		}
+
+		@Override
+		public void remove() {
+			if (this.current == null)
+				throw new IllegalStateException();
+			delete(this.current);
+			this.current = null;
+		}
+	}
+}
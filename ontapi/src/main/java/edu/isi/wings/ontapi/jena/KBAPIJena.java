@@ -1,15 +1,24 @@
 package edu.isi.wings.ontapi.jena;
 
 import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.ontology.*;
 import com.hp.hpl.jena.query.*;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
 import com.hp.hpl.jena.rdf.model.*;
-//import com.hp.hpl.jena.reasoner.Derivation;
+import com.hp.hpl.jena.reasoner.Derivation;
+import com.hp.hpl.jena.reasoner.InfGraph;
 import com.hp.hpl.jena.reasoner.Reasoner;
+import com.hp.hpl.jena.reasoner.rulesys.ClauseEntry;
+import com.hp.hpl.jena.reasoner.rulesys.Functor;
 import com.hp.hpl.jena.reasoner.rulesys.GenericRuleReasoner;
 import com.hp.hpl.jena.reasoner.rulesys.Rule;
+import com.hp.hpl.jena.reasoner.rulesys.RuleDerivation;
 import com.hp.hpl.jena.shared.WrappedIOException;
-import com.hp.hpl.jena.tdb.TDB;
+import com.hp.hpl.jena.sparql.graph.GraphReadOnly;
 import com.hp.hpl.jena.tdb.TDBFactory;
 import com.hp.hpl.jena.util.FileManager;
 import com.hp.hpl.jena.util.LocationMapper;
@@ -17,8 +26,11 @@ import com.hp.hpl.jena.util.PrintUtil;
 import com.hp.hpl.jena.vocabulary.RDFS;
 
 import edu.isi.wings.ontapi.*;
+import edu.isi.wings.ontapi.jena.extrules.util.Print;
+import edu.isi.wings.ontapi.jena.extrules.util.RuleCounter;
 import edu.isi.wings.ontapi.rules.KBRule;
 import edu.isi.wings.ontapi.rules.KBRuleList;
+import edu.isi.wings.ontapi.rules.KBRuleProfile;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
@@ -31,6 +43,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URL;
 import java.util.*;
@@ -50,8 +63,60 @@ public class KBAPIJena implements KBAPI {
 	
 	static Dataset tdbstore; // TDB store
 	boolean usetdb;
+	
+	// Depth of the store write transaction batch opened by this thread
+	static ThreadLocal<Integer> batchdepth = new ThreadLocal<Integer>() {
+		protected Integer initialValue() {
+			return 0;
+		}
+	};
 	boolean cache_url;
 	boolean write_file_if_absent;
+	boolean read_only;
+	boolean binary_storage;
+	
+	boolean useclassindex;
+	ClassHierarchyIndex classindex;
+	
+	// Subjects changed since the KB was loaded or saved, and the stamp of the
+	// contents it was loaded from (for the shared text indexes, see search)
+	HashSet<Node> changed;
+	volatile boolean allchanged;
+	StatementListener changelistener;
+	String loadstamp;
+	
+	// KBs imported into this one
+	ArrayList<KBAPIJena> imports = new ArrayList<KBAPIJena>();
+	
+	// Lazy specs : inference model over the plain model for queries that need
+	// entailments. Created on demand, and rebound after the model changes
+	OntModel infmodel;
+	OntModel infsource;
+	volatile boolean infstale;
+	StatementListener inflistener;
+	
+	// Wrappers of the nodes of this KB that are still in use (see wrap)
+	WeakHashMap<Node, WeakReference<KBObjectJena>> objects = 
+			new WeakHashMap<Node, WeakReference<KBObjectJena>>();
+	
+	// Parsed graphs shared by read-only models
+	static GraphCache graphcache = new GraphCache(2000000);
+	
+	// Text indexes shared by the KBs of a url
+	static TextIndexCache textindexcache = new TextIndexCache();
+	
+	// Store plain models in int encoded graphs
+	static boolean useintgraphs = false;
+	
+	// Compiled rule reasoners (least recently used ones are dropped)
+	static final int MAX_CACHED_REASONERS = 256;
+	static LinkedHashMap<List<Rule>, GenericRuleReasoner> reasonercache = 
+			new LinkedHashMap<List<Rule>, GenericRuleReasoner>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<List<Rule>, GenericRuleReasoner> eldest) {
+			return size() > MAX_CACHED_REASONERS;
+		}
+	};
 
 	public KBAPIJena(OntSpec spec) {
 		this.spec = spec;
@@ -77,6 +142,23 @@ public class KBAPIJena implements KBAPI {
 		this.write_file_if_absent = write_file_if_absent;
 		initialize(spec);
 	}
+	
+	public KBAPIJena(String url, OntSpec spec, boolean write_file_if_absent,
+			boolean cache_url, boolean read_only) throws Exception {
+		this.url = url;
+		this.spec = spec;
+		this.cache_url = cache_url;
+		this.write_file_if_absent = write_file_if_absent;
+		this.read_only = read_only;
+		initialize(spec);
+	}
+
+	private KBAPIJena(OntSpec spec, Graph graph) {
+		this.spec = spec;
+		this.modelSpec = getOntSpec(spec);
+		this.ontmodel = ModelFactory.createOntologyModel(modelSpec,
+				ModelFactory.createModelForGraph(graph));
+	}
 
 	public KBAPIJena(String url, String storedir, OntSpec spec) throws Exception{
 		this(url, storedir, spec, false);
@@ -112,6 +194,78 @@ public class KBAPIJena implements KBAPI {
 		this.usetdb = true;
 	}
 	
+	/**
+	 * Starts a batch of store writes on this thread : changes to store KBs,
+	 * saves, saveAs and deletes until the matching commitBatch all go into a
+	 * single write transaction.
+	 * Batches can be nested, and only the outermost one commits
+	 */
+	public static void startBatch() {
+		if (tdbstore == null)
+			return;
+		int depth = batchdepth.get();
+		if (depth == 0)
+			tdbstore.begin(ReadWrite.WRITE);
+		batchdepth.set(depth + 1);
+	}
+
+	public static boolean commitBatch() {
+		int depth = batchdepth.get();
+		if (depth == 0)
+			return false;
+		batchdepth.set(depth - 1);
+		if (depth > 1)
+			return true;
+		try {
+			tdbstore.commit();
+			return true;
+		}
+		catch (Exception e) {
+			// Ending an uncommitted write transaction aborts it
+			e.printStackTrace();
+			return false;
+		}
+		finally {
+			tdbstore.end();
+		}
+	}
+
+	public static boolean isInBatch() {
+		return batchdepth.get() > 0;
+	}
+
+	// Drops all writes of the current (outermost) batch
+	public static void abortBatch() {
+		if (batchdepth.get() == 0)
+			return;
+		batchdepth.set(0);
+		// Indexes may have been updated with the dropped writes
+		textindexcache.clear();
+		try {
+			tdbstore.abort();
+		}
+		finally {
+			tdbstore.end();
+		}
+	}
+
+	/**
+	 * Save to the binary model format instead of RDF/XML (file based KBs only).
+	 * Binary files are read back automatically while the RDF file hasn't
+	 * changed since, and RDF/XML can still be produced with toAbbrevRdf
+	 */
+	public void setBinaryStorage(boolean binary) {
+		this.binary_storage = binary;
+	}
+
+	public static void setGraphCacheSize(long maxTriples) {
+		graphcache.setMaxTriples(maxTriples);
+	}
+	
+	public static void setUseIntTripleGraphs(boolean use) {
+		useintgraphs = use;
+	}
+	
 	private void initialize(OntSpec spec) throws Exception {
 		modelSpec = getOntSpec(spec);
 		if (modelSpec == null)
@@ -119,25 +273,133 @@ public class KBAPIJena implements KBAPI {
 
 		OntDocumentManager.getInstance().setProcessImports(false);
 		if (!this.usetdb || tdbstore == null || this.url == null) {
+			// Make sure queued saves of the url are on disk before reading it
+			if (this.url != null)
+				SaveQueue.flush(this.url);
 			// If there is no triple tdbstore
-			ontmodel = ModelFactory.createOntologyModel(modelSpec);
-			readModel();
+			if (this.read_only && this.url != null) {
+				// Wrap the shared parsed graph instead of re-reading the url
+				Graph graph = this.getCachedGraph();
+				ontmodel = ModelFactory.createOntologyModel(modelSpec,
+						ModelFactory.createModelForGraph(new SharedGraph(graph)));
+			}
+			else if (this.url == null && this.inputstream == null 
+					&& modelSpec == OntModelSpec.OWL_MEM) {
+				// Plain scratch models are created forkable
+				ontmodel = ModelFactory.createOntologyModel(modelSpec,
+						ModelFactory.createModelForGraph(new OverlayGraph()));
+			}
+			else {
+				ontmodel = createOntModel(modelSpec);
+				readModel();
+			}
 		} else {
-			// If there is a triple tdbstore
-			Model tmodel = tdbstore.getNamedModel(this.url);
-			if (this.cache_url && tmodel.isEmpty()) {
+			// If there is a triple tdbstore : wrap the named graph. Reads and
+			// writes of the graph run in transactions of their own (see
+			// StoreGraph), so other readers and the writer aren't blocked for
+			// as long as the model is in use
+			StoreGraph graph = new StoreGraph(tdbstore, this.url);
+			if (this.cache_url && graph.isEmpty()) {
+				Model tmodel = ModelFactory.createDefaultModel();
 				tmodel.read(this.url);
-				TDB.sync(tmodel);
+				this.writeToStore(this.url, tmodel);
+			}
+			ontmodel = ModelFactory.createOntologyModel(modelSpec,
+					ModelFactory.createModelForGraph(graph));
+			boolean intransaction = tdbstore.isInTransaction();
+			if (!intransaction)
+				tdbstore.begin(ReadWrite.READ);
+			try {
+				ontmodel.setNsPrefixes(tdbstore.getNamedModel(this.url).getNsPrefixMap());
+			}
+			finally {
+				if (!intransaction)
+					tdbstore.end();
+			}
+		}
+		this.trackChanges();
+	}
+
+	// Keep the subjects changed in KBs that can be saved, so the saves can
+	// update the shared text index of the url
+	private void trackChanges() {
+		if (this.url == null || ontmodel == null)
+			return;
+		this.loadstamp = this.getContentStamp();
+		if (this.read_only)
+			return;
+		this.changed = new HashSet<Node>();
+		this.changelistener = new StatementListener() {
+			public void addedStatement(Statement s) {
+				subjectChanged(s.getSubject().asNode());
+			}
+			public void removedStatement(Statement s) {
+				subjectChanged(s.getSubject().asNode());
 			}
-			if (tmodel != null) {
-				ontmodel = ModelFactory.createOntologyModel(modelSpec, tmodel);
+			public void notifyEvent(Model m, Object event) {
+				// Bulk removals don't say which statements were removed
+				if (event != GraphEvents.startRead && event != GraphEvents.finishRead)
+					allchanged = true;
 			}
+		};
+		ontmodel.register(this.changelistener);
+	}
+
+	private synchronized void subjectChanged(Node subject) {
+		if (this.changed != null && subject.isURI())
+			this.changed.add(subject);
+	}
+
+	// Re-index the subjects changed since the last save in the shared index
+	private void indexChanges() {
+		HashSet<Node> subjects;
+		synchronized (this) {
+			if (this.changed == null)
+				return;
+			subjects = this.changed;
+			this.changed = new HashSet<Node>();
+		}
+		if (this.allchanged) {
+			this.allchanged = false;
+			textindexcache.remove(this.url);
+		}
+		else {
+			textindexcache.update(this.url, ontmodel.getBaseGraph(), subjects);
+		}
+	}
+
+	// Stamp of the current contents of the url (null if it can't be checked
+	// for changes)
+	private String getContentStamp() {
+		if (this.usetdb && tdbstore != null)
+			return "tdb";
+		return getFileStamp(this.url);
+	}
+
+	// Stamp of the file that the url maps to (after its queued saves)
+	public static String getFileStamp(String url) {
+		SaveQueue.flush(url);
+		return GraphCache.getFileStamp(url);
+	}
+
+	private Graph getCachedGraph() throws Exception {
+		Graph graph = graphcache.get(this.url);
+		if (graph == null) {
+			ontmodel = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
+			readModel();
+			graph = ontmodel.getBaseGraph();
+			graphcache.put(this.url, graph);
 		}
+		return graph;
 	}
 
 	private void readModel() throws Exception {
 		if (ontmodel != null) {
-			if (this.url != null) {
+			File binfile = this.url != null ? BinaryModelFile.getCurrentFile(this.url) : null;
+			if (binfile != null) {
+				BinaryModelFile.read(binfile, ontmodel.getBaseModel());
+			}
+			else if (this.url != null) {
 				try {
 					ontmodel.read(this.url);
 				}
@@ -148,7 +410,7 @@ public class KBAPIJena implements KBAPI {
 					    ontmodel.read(this.url);
 					}
 					else if(this.write_file_if_absent) {
-						this.save();
+						writeFile(this.url, ontmodel.getBaseModel(), false);
 						ontmodel.read(this.url);
 					}
 					else {
@@ -164,7 +426,7 @@ public class KBAPIJena implements KBAPI {
 
 	private OntModelSpec getOntSpec(OntSpec spec) {
 		OntModelSpec modelspec = null;
-		if (spec == OntSpec.PLAIN) {
+		if (spec == OntSpec.PLAIN || this.isLazy(spec)) {
 			modelspec = OntModelSpec.OWL_MEM;
 		} else if (spec == OntSpec.MINI) {
 			modelspec = OntModelSpec.OWL_MEM_MINI_RULE_INF;
@@ -183,14 +445,95 @@ public class KBAPIJena implements KBAPI {
 		return modelspec;
 	}
 
+	private boolean isLazy(OntSpec spec) {
+		return spec == OntSpec.LAZY_PELLET || spec == OntSpec.LAZY_MICRO;
+	}
+
+	/**
+	 * Returns the model that answers queries which need entailments. For lazy
+	 * specs this is an inference model over the (plain) model, which is only
+	 * created when first needed and is rebound after the model changes
+	 */
+	synchronized OntModel getInfModel() {
+		if (!this.isLazy(this.spec))
+			return this.ontmodel;
+		if (this.infmodel == null || this.infsource != this.ontmodel) {
+			if (this.infsource != null)
+				this.infsource.unregister(this.inflistener);
+			OntModelSpec infspec = OntModelSpec.OWL_MEM_MICRO_RULE_INF;
+			if (this.spec == OntSpec.LAZY_PELLET) {
+				cleanPelletSpec(PelletReasonerFactory.THE_SPEC);
+				infspec = PelletReasonerFactory.THE_SPEC;
+			}
+			// Reason over the model's imports as well
+			this.infsource = this.ontmodel;
+			this.infmodel = ModelFactory.createOntologyModel(infspec, 
+					ModelFactory.createModelForGraph(this.ontmodel.getGraph()));
+			this.inflistener = new StatementListener() {
+				public void addedStatement(Statement st) {
+					infstale = true;
+				}
+				public void removedStatement(Statement st) {
+					infstale = true;
+				}
+				public void notifyEvent(Model m, Object event) {
+					if (event != GraphEvents.startRead && event != GraphEvents.finishRead)
+						infstale = true;
+				}
+			};
+			this.infsource.register(this.inflistener);
+			this.infstale = false;
+		} else if (this.infstale) {
+			this.infstale = false;
+			this.infmodel.rebind();
+			this.resetClassIndex();
+		}
+		return this.infmodel;
+	}
+
+	// Changes that don't go through the model's listeners
+	private void modelChanged() {
+		this.infstale = true;
+		this.resetClassIndex();
+	}
+
+	// The object's node, as seen by the model that answers entailment queries
+	private RDFNode getInfNode(KBObject obj, Class<? extends RDFNode> view) {
+		RDFNode node = (RDFNode) obj.getInternalNode();
+		OntModel model = this.getInfModel();
+		if (node == null || model == this.ontmodel || node.getModel() == model)
+			return node;
+		RDFNode infnode = node.inModel(model);
+		return infnode.canAs(view) ? infnode.as(view) : infnode;
+	}
+
+	// Wraps a node from the inference model as a view of the model itself, so
+	// that updates through it go to the model
+	private KBObjectJena wrapInf(RDFNode node, Class<? extends RDFNode> view) {
+		if (node != null && node.getModel() != this.ontmodel && this.isLazy(this.spec)) {
+			RDFNode basenode = node.inModel(this.ontmodel);
+			if (basenode.canAs(view))
+				node = basenode.as(view);
+		}
+		return this.wrap(node);
+	}
+
+	private OntModel createOntModel(OntModelSpec spec) {
+		// Plain models don't infer anything, so they can use the compact graph
+		if (useintgraphs && spec == OntModelSpec.OWL_MEM)
+			return ModelFactory.createOntologyModel(spec, 
+					ModelFactory.createModelForGraph(new IntTripleGraph()));
+		return ModelFactory.createOntologyModel(spec);
+	}
+
 	public void useRawModel() {
-		OntModel tmodel = ModelFactory.createOntologyModel(getOntSpec(spec));
+		OntModel tmodel = createOntModel(getOntSpec(spec));
 		tmodel.add(ontmodel.getRawModel());
 		ontmodel = tmodel;
 	}
 
 	public void useBaseModel() {
-		OntModel tmodel = ModelFactory.createOntologyModel(getOntSpec(spec));
+		OntModel tmodel = createOntModel(getOntSpec(spec));
 		tmodel.add(ontmodel.getBaseModel());
 		ontmodel = tmodel;
 	}
@@ -226,23 +569,152 @@ public class KBAPIJena implements KBAPI {
 		this.applyRulesHelper(rules);
 	}
 
+	public void applyRules(KBRuleList rulelist, ArrayList<String> printouts) {
+		List<String> oldout = Print.setOutput(printouts);
+		try {
+			this.applyRules(rulelist);
+		}
+		finally {
+			Print.setOutput(oldout);
+		}
+	}
+
 	private void applyRulesHelper(List<Rule> rules) {
-		OntModelSpec rulesModelSpec = new OntModelSpec(getOntSpec(OntSpec.PLAIN));
-		GenericRuleReasoner reasoner = new GenericRuleReasoner(rules,
-				rulesModelSpec.getReasonerFactory());
+		GenericRuleReasoner reasoner = getRuleReasoner(rules);
+
+		// Bind the reasoner directly to the base graph, and only add the 
+		// new entailments (the deductions) back into the ontmodel
+		InfModel infmodel = ModelFactory.createInfModel(reasoner, ontmodel.getBaseModel());
+		Model deductions = ModelFactory.createDefaultModel();
+		deductions.add(infmodel.getDeductionsModel());
+		this.ontmodel.add(deductions);
+	}
+
+	public KBRuleProfile profileRules(KBRuleList rulelist, ArrayList<String> printouts) {
+		List<String> oldout = Print.setOutput(printouts);
+		try {
+			return this.profileRules(rulelist);
+		}
+		finally {
+			Print.setOutput(oldout);
+		}
+	}
+
+	/**
+	 * Applies the rules with derivation logging on. Body pattern matches and
+	 * firings of each rule are counted as the rules run (see RuleCounter), and
+	 * the triples each rule deduced are found from their derivations. Rules
+	 * share their matching work when they run together, so the time of each
+	 * rule is an estimate : the time to run it on its own over the final
+	 * triples. Print builtins are left out of these runs so their output isn't
+	 * repeated
+	 */
+	public KBRuleProfile profileRules(KBRuleList rulelist) {
+		KBRuleProfile profile = new KBRuleProfile();
+		if(rulelist == null) return profile;
+		ArrayList<Rule> rules = new ArrayList<Rule>();
+		for(KBRule rule : rulelist.getRules()) {
+			rules.add((Rule) rule.getInternalRuleObject());
+		}
+
+		// Rules are told apart by their position in the list, as different
+		// rules can have the same short form (or even be equal)
+		ArrayList<Rule> counted = new ArrayList<Rule>();
+		IdentityHashMap<Rule, String> keys = new IdentityHashMap<Rule, String>();
+		IdentityHashMap<Rule, long[]> counts = new IdentityHashMap<Rule, long[]>();
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = RuleCounter.addCounters(rules.get(i));
+			counted.add(rule);
+			keys.put(rule, "#" + (i + 1) + " " + rules.get(i).toShortString());
+			counts.put(rule, new long[2]);
+		}
+
+		// Not taken from the reasoner cache, as derivations are logged
+		GenericRuleReasoner reasoner = new GenericRuleReasoner(counted);
 		reasoner.setOWLTranslation(true);
 		reasoner.setTransitiveClosureCaching(true);
-		// reasoner.setDerivationLogging(true);
-		rulesModelSpec.setReasoner(reasoner);
+		reasoner.setDerivationLogging(true);
+
+		IdentityHashMap<Rule, long[]> oldcounts = RuleCounter.setCounts(counts);
+		InfModel infmodel;
+		Model deductions = ModelFactory.createDefaultModel();
+		try {
+			long start = System.nanoTime();
+			infmodel = ModelFactory.createInfModel(reasoner, ontmodel.getBaseModel());
+			deductions.add(infmodel.getDeductionsModel());
+			profile.setTotalMillis((System.nanoTime() - start) / 1e6);
+		}
+		finally {
+			RuleCounter.setCounts(oldcounts);
+		}
+
+		InfGraph infgraph = (InfGraph) infmodel.getGraph();
+		for (Iterator<Triple> it = deductions.getGraph().find(Triple.ANY); it.hasNext();) {
+			Triple t = it.next();
+			Set<Rule> derivedby = Collections.newSetFromMap(new IdentityHashMap<Rule, Boolean>());
+			for (Iterator<Derivation> dit = infgraph.getDerivation(t); dit.hasNext();) {
+				Derivation d = dit.next();
+				if (d instanceof RuleDerivation && keys.containsKey(((RuleDerivation) d).getRule()))
+					derivedby.add(((RuleDerivation) d).getRule());
+			}
+			for (Rule rule : derivedby)
+				profile.getStats(keys.get(rule)).deductions++;
+		}
 
-		// Create a temporary inference ontmodel and create new entailments
-		OntModel newmodel = ModelFactory.createOntologyModel(rulesModelSpec);
-		newmodel.add(ontmodel.getBaseModel());
+		Model closure = ModelFactory.createDefaultModel();
+		closure.add(ontmodel.getBaseModel());
+		closure.add(deductions);
+		for (int i = 0; i < rules.size(); i++) {
+			Rule rule = counted.get(i);
+			KBRuleProfile.RuleStats stats = profile.getStats(keys.get(rule));
+			stats.matches += counts.get(rule)[0];
+			stats.firings += counts.get(rule)[1];
 
-		for (Iterator<Statement> itst = newmodel.getDeductionsModel().listStatements(); itst
-				.hasNext();) {
-			Statement st = itst.next();
-			this.ontmodel.add(st);
+			GenericRuleReasoner single = new GenericRuleReasoner(
+					Collections.singletonList(withoutPrints(rules.get(i))));
+			single.setOWLTranslation(true);
+			single.setTransitiveClosureCaching(true);
+			long start = System.nanoTime();
+			ModelFactory.createInfModel(single, closure).prepare();
+			stats.estimatedMillis += (System.nanoTime() - start) / 1e6;
+		}
+
+		this.ontmodel.add(deductions);
+		KBRuleProfile.record(profile);
+		return profile;
+	}
+
+	private static Rule withoutPrints(Rule rule) {
+		return new Rule(rule.getName(), withoutPrints(rule.getHead()),
+				withoutPrints(rule.getBody()));
+	}
+
+	private static List<ClauseEntry> withoutPrints(ClauseEntry[] clauses) {
+		ArrayList<ClauseEntry> list = new ArrayList<ClauseEntry>();
+		for (ClauseEntry ce : clauses) {
+			if (ce instanceof Functor && ((Functor) ce).getName().equals("print"))
+				continue;
+			list.add(ce);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns a compiled reasoner for the rules. Reasoners are cached by the
+	 * rule list, so the same rules are only compiled once
+	 */
+	private static GenericRuleReasoner getRuleReasoner(List<Rule> rules) {
+		ArrayList<Rule> key = new ArrayList<Rule>(rules);
+		synchronized (reasonercache) {
+			GenericRuleReasoner reasoner = reasonercache.get(key);
+			if (reasoner == null) {
+				reasoner = new GenericRuleReasoner(key);
+				reasoner.setOWLTranslation(true);
+				reasoner.setTransitiveClosureCaching(true);
+				// reasoner.setDerivationLogging(true);
+				reasonercache.put(key, reasoner);
+			}
+			return reasoner;
 		}
 	}
 
@@ -256,12 +728,35 @@ public class KBAPIJena implements KBAPI {
 		}
 	}
 
+	/**
+	 * Returns the wrapper of a node of this KB. Wrappers are shared while they
+	 * are in use, so looking up the same node again doesn't create a new one.
+	 * A wrapper is only reused for the same view of the node (OntClass,
+	 * Property etc) in the current model, as callers cast the internal node.
+	 * Returned objects should not be modified
+	 */
+	KBObjectJena wrap(RDFNode node) {
+		if (node == null)
+			return new KBObjectJena((RDFNode) null);
+		Node key = node.asNode();
+		synchronized (this.objects) {
+			WeakReference<KBObjectJena> ref = this.objects.get(key);
+			KBObjectJena obj = ref != null ? ref.get() : null;
+			if (obj != null && obj.node.getClass() == node.getClass()
+					&& obj.node.getModel() == node.getModel())
+				return obj;
+			obj = new KBObjectJena(node);
+			this.objects.put(key, new WeakReference<KBObjectJena>(obj));
+			return obj;
+		}
+	}
+
 	// Simple resource, etc queries
 	public KBObject getResource(String id) {
 		KBObject res = null;
 		Resource r = ontmodel.getResource(id);
 		if (r != null) {
-			res = new KBObjectJena(r);
+			res = this.wrap(r);
 		}
 		return res;
 	}
@@ -270,7 +765,7 @@ public class KBAPIJena implements KBAPI {
 		KBObject cls = null;
 		OntClass cl = ontmodel.getOntClass(id);
 		if (cl != null) {
-			cls = new KBObjectJena(cl);
+			cls = this.wrap(cl);
 		}
 		return cls;
 	}
@@ -279,7 +774,7 @@ public class KBAPIJena implements KBAPI {
 		KBObject indobj = null;
 		Individual ind = ontmodel.getIndividual(id);
 		if (ind != null) {
-			indobj = new KBObjectJena(ind);
+			indobj = this.wrap(ind);
 		}
 		return indobj;
 	}
@@ -288,7 +783,7 @@ public class KBAPIJena implements KBAPI {
 		KBObject propobj = null;
 		Property prop = ontmodel.getProperty(id);
 		if (prop != null && prop.isProperty()) {
-			propobj = new KBObjectJena(prop);
+			propobj = this.wrap(prop);
 		}
 		return propobj;
 	}
@@ -302,12 +797,12 @@ public class KBAPIJena implements KBAPI {
 		OntClass cl = null;
 		if (!checkNulls(obj))
 			return null;
-		Individual ind = getIndividual((Resource) obj.getInternalNode());
+		Individual ind = getIndividual((Resource) getInfNode(obj, Individual.class));
 		Resource node = ind.getRDFType(true);
 		if (node.canAs(OntClass.class)) {
 			cl = (OntClass) node.as(OntClass.class);
 		}
-		KBObject cls = new KBObjectJena(cl);
+		KBObject cls = this.wrapInf(cl, OntClass.class);
 		return cls;
 	}
 
@@ -315,9 +810,15 @@ public class KBAPIJena implements KBAPI {
 		if (!checkNulls(obj))
 			return null;
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
-		Individual ind = getIndividual((Resource) obj.getInternalNode());
+		ClassHierarchyIndex index = direct ? null : getClassIndex();
+		if (index != null) {
+			for (RDFNode node : index.getClassesOfInstance(getNode(obj)))
+				list.add(this.wrapInf(node, OntClass.class));
+			return list;
+		}
+		Individual ind = getIndividual((Resource) getInfNode(obj, Individual.class));
 		if (ind == null) {
-			ind = ontmodel.getIndividual(obj.getID());
+			ind = getInfModel().getIndividual(obj.getID());
 		}
 		if (ind == null) {
 			return list;
@@ -326,7 +827,7 @@ public class KBAPIJena implements KBAPI {
 			Resource node = (Resource) i.next();
 			if (node.canAs(OntClass.class)) {
 				OntClass cl = (OntClass) node.as(OntClass.class);
-				list.add(new KBObjectJena(cl));
+				list.add(this.wrapInf(cl, OntClass.class));
 			}
 		}
 		return list;
@@ -336,9 +837,15 @@ public class KBAPIJena implements KBAPI {
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
 		if (!checkNulls(cls, direct))
 			return list;
-		OntClass cl = (OntClass) cls.getInternalNode();
+		ClassHierarchyIndex index = direct ? null : getClassIndex();
+		if (index != null) {
+			for (RDFNode node : index.getInstancesOfClass(getNode(cls)))
+				list.add(this.wrapInf(node, Individual.class));
+			return list;
+		}
+		OntClass cl = (OntClass) getInfNode(cls, OntClass.class);
 		for (Iterator<? extends OntResource> it = cl.listInstances(direct); it.hasNext();) {
-			list.add(new KBObjectJena((RDFNode) it.next()));
+			list.add(this.wrapInf((RDFNode) it.next(), Individual.class));
 		}
 		return list;
 	}
@@ -353,7 +860,7 @@ public class KBAPIJena implements KBAPI {
 				.hasNext();) {
 			RDFNode node = (RDFNode) it.next();
 			if (node != null) {
-				KBObjectJena vobj = new KBObjectJena(node);
+				KBObjectJena vobj = this.wrap(node);
 				v.add(vobj);
 			}
 		}
@@ -382,7 +889,7 @@ public class KBAPIJena implements KBAPI {
 		for (NodeIterator it = ind.listPropertyValues(p); it.hasNext();) {
 			RDFNode node = (RDFNode) it.next();
 			if (node != null) {
-				v.add(new KBObjectJena(node));
+				v.add(this.wrap(node));
 			}
 		}
 		return v;
@@ -403,14 +910,14 @@ public class KBAPIJena implements KBAPI {
 		ArrayList<KBObject> subProps = new ArrayList<KBObject>();
 		if (!checkNulls(prop))
 			return subProps;
-		OntProperty p = ontmodel.getOntProperty(prop.getID());
+		OntProperty p = getInfModel().getOntProperty(prop.getID());
 		if (!checkNulls(p)) {
 			return subProps;
 		}
 		for (Iterator<? extends OntProperty> it = p.listSubProperties(direct); it.hasNext();) {
 			Resource subprop = (Resource) it.next();
 			if (!subprop.getURI().equals(prop.getID())) {
-				subProps.add(new KBObjectJena(subprop));
+				subProps.add(this.wrapInf(subprop, OntProperty.class));
 			}
 		}
 		return subProps;
@@ -443,17 +950,17 @@ public class KBAPIJena implements KBAPI {
 	public KBObject createLiteral(Object literal) {
 		if (!checkNulls(literal))
 			return null;
-		return new KBObjectJena(ontmodel.createTypedLiteral(literal));
+		return this.wrap(ontmodel.createTypedLiteral(literal));
 	}
 
 	public KBObject createXSDLiteral(String literal, String xsdtype) {
 		if (!checkNulls(literal))
 			return null;
 		if (xsdtype == null) {
-			return new KBObjectJena(ontmodel.createLiteral(literal));
+			return this.wrap(ontmodel.createLiteral(literal));
 		} else {
 			try {
-				return new KBObjectJena(ontmodel.createTypedLiteral(literal, xsdtype));
+				return this.wrap(ontmodel.createTypedLiteral(literal, xsdtype));
 			}
 			catch (Exception e) {
 				e.printStackTrace();
@@ -464,9 +971,22 @@ public class KBAPIJena implements KBAPI {
 
 	public ArrayList<KBTriple> genericTripleQuery(KBObject subj, KBObject pred, KBObject obj) {
 		ArrayList<KBTriple> list = new ArrayList<KBTriple>();
+		for (KBIterator<KBTriple> it = streamTripleQuery(subj, pred, obj, 0); it.hasNext();)
+			list.add(it.next());
+		return list;
+	}
+
+	public KBIterator<KBTriple> streamTripleQuery(KBObject subj, KBObject pred, KBObject obj,
+			int limit) {
 		// Check that predicate (if provided) is a property
 		if (pred != null && !((Resource) pred.getInternalNode()).canAs(Property.class))
-			return list;
+			return new StatementIteratorJena(null, this, limit) {
+				protected boolean hasNextResult() {
+					return false;
+				}
+				protected void closeResults() {
+				}
+			};
 		Individual s = subj != null ? getIndividual((Resource) subj.getInternalNode()) : null;
 		Property p = pred != null ? (Property) pred.getInternalNode() : null;
 		RDFNode o = null;
@@ -484,57 +1004,47 @@ public class KBAPIJena implements KBAPI {
 		} else {
 			sts = ontmodel.listStatements(s, p, o, posit);
 		}
-		for (; sts.hasNext();) {
-			Statement st = (Statement) sts.next();
-			KBObject newSubject = new KBObjectJena(st.getSubject());
-			KBObject newPredicate = new KBObjectJena(st.getPredicate());
-			KBObject newObject = new KBObjectJena(st.getObject());
-			list.add(new KBTripleJena(newSubject, newPredicate, newObject));
-		}
-		return list;
+		return new StatementIteratorJena(sts, this, limit);
 	}
 
 	public ArrayList<ArrayList<SparqlQuerySolution>> sparqlQuery(String queryString) {
 		ArrayList<ArrayList<SparqlQuerySolution>> list = new ArrayList<ArrayList<SparqlQuerySolution>>();
-		Query query = QueryFactory.create(queryString);
-		ArrayList<String> vars = new ArrayList<String>(query.getResultVars());
-		QueryExecution qexec = QueryExecutionFactory.create(query, ontmodel);
+		KBIterator<ArrayList<SparqlQuerySolution>> it = streamSparqlQuery(queryString, 0);
 		try {
-			ResultSet results = qexec.execSelect();
-			for (; results.hasNext();) {
-				QuerySolution soln = results.nextSolution();
-				ArrayList<SparqlQuerySolution> inner = new ArrayList<SparqlQuerySolution>();
-				for (String variableName : vars) {
-					RDFNode x = soln.get(variableName);
-					// System.out.println(soln.toString());
-					KBObject item = null;
-					if (x != null) {
-						if (x.isLiteral()) {
-							Literal l = soln.getLiteral(variableName);
-							item = new KBObjectJena(l.getValue(), true);
-						} else {
-							Resource r = soln.getResource(variableName);
-							item = new KBObjectJena(r);
-						}
-					}
-					SparqlQuerySolution sqs = new SparqlQuerySolution(variableName, item);
-					inner.add(sqs);
-				}
-				list.add(inner);
-			}
-
+			while (it.hasNext())
+				list.add(it.next());
 		} finally {
-			qexec.close();
+			it.close();
 		}
 		return list;
 	}
 
+	public KBIterator<ArrayList<SparqlQuerySolution>> streamSparqlQuery(String queryString,
+			int limit) {
+		Query query = QueryFactory.create(queryString);
+		ArrayList<String> vars = new ArrayList<String>(query.getResultVars());
+		// Queries may match inferred statements, so lazy KBs run them on the
+		// inference model (and return resources of the model itself)
+		QueryExecution qexec = QueryExecutionFactory.create(query, this.getInfModel());
+		return new SolutionIteratorJena(qexec, vars, limit, ontmodel);
+	}
+
+	public PreparedSparqlQuery prepareQuery(String queryString) {
+		return new PreparedSparqlQueryJena(queryString, this);
+	}
+
 	public ArrayList<KBObject> getSubClasses(KBObject cls, boolean direct_only) {
 
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
-		OntClass cl = (OntClass) cls.getInternalNode();
+		ClassHierarchyIndex index = direct_only ? null : getClassIndex();
+		if (index != null) {
+			for (RDFNode node : index.getSubClasses(getNode(cls)))
+				list.add(this.wrapInf(node, OntClass.class));
+			return list;
+		}
+		OntClass cl = (OntClass) getInfNode(cls, OntClass.class);
 		for (Iterator<OntClass> it = cl.listSubClasses(direct_only); it.hasNext();) {
-			list.add(new KBObjectJena((Resource) it.next()));
+			list.add(this.wrapInf((Resource) it.next(), OntClass.class));
 		}
 
 		return list;
@@ -542,9 +1052,15 @@ public class KBAPIJena implements KBAPI {
 
 	public ArrayList<KBObject> getSuperClasses(KBObject cls, boolean direct_only) {
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
-		OntClass cl = (OntClass) cls.getInternalNode();
+		ClassHierarchyIndex index = direct_only ? null : getClassIndex();
+		if (index != null) {
+			for (RDFNode node : index.getSuperClasses(getNode(cls)))
+				list.add(this.wrapInf(node, OntClass.class));
+			return list;
+		}
+		OntClass cl = (OntClass) getInfNode(cls, OntClass.class);
 		for (Iterator<OntClass> it = cl.listSuperClasses(direct_only); it.hasNext();) {
-			list.add(new KBObjectJena((Resource) it.next()));
+			list.add(this.wrapInf((Resource) it.next(), OntClass.class));
 		}
 		return list;
 	}
@@ -557,7 +1073,7 @@ public class KBAPIJena implements KBAPI {
 			RDFList rdfitems = (RDFList) listNode.as(RDFList.class);
 			if (rdfitems != null && rdfitems.size() > 0) {
 				for (Iterator<RDFNode> it = rdfitems.iterator(); it.hasNext();) {
-					items.add(new KBObjectJena(it.next()));
+					items.add(this.wrap(it.next()));
 				}
 			}
 		}
@@ -567,8 +1083,11 @@ public class KBAPIJena implements KBAPI {
 	public boolean isA(KBObject obj, KBObject cls) {
 		if (!checkNulls(obj, cls))
 			return false;
+		ClassHierarchyIndex index = getClassIndex();
+		if (index != null)
+			return index.isA(getNode(obj), getNode(cls));
 		boolean val = false;
-		Individual ind = getIndividual((Resource) obj.getInternalNode());
+		Individual ind = getIndividual((Resource) getInfNode(obj, Individual.class));
 		if (ind == null) {
 			return false;
 		}
@@ -585,11 +1104,14 @@ public class KBAPIJena implements KBAPI {
 		if (!checkNulls(cls1, cls2))
 			return false;
 		boolean val = false;
-		OntClass cl1 = (OntClass) cls1.getInternalNode();
-		OntClass cl2 = (OntClass) cls2.getInternalNode();
+		OntClass cl1 = (OntClass) getInfNode(cls1, OntClass.class);
+		OntClass cl2 = (OntClass) getInfNode(cls2, OntClass.class);
 		if (cl1 != null && cl2 != null) {
+			ClassHierarchyIndex index = getClassIndex();
 			if (cls1.getID().equals(cls2.getID())) {
 				val = true;
+			} else if (index != null) {
+				val = index.hasSubClass(cl1.asNode(), cl2.asNode());
 			} else if (cl1.hasSubClass(cl2)) {
 				val = true;
 			}
@@ -601,11 +1123,14 @@ public class KBAPIJena implements KBAPI {
 		if (!checkNulls(cls1, cls2))
 			return false;
 		boolean val = false;
-		OntClass cl1 = (OntClass) cls1.getInternalNode();
-		OntClass cl2 = (OntClass) cls2.getInternalNode();
+		OntClass cl1 = (OntClass) getInfNode(cls1, OntClass.class);
+		OntClass cl2 = (OntClass) getInfNode(cls2, OntClass.class);
 		if (cl1 != null && cl2 != null) {
+			ClassHierarchyIndex index = getClassIndex();
 			if (cls1.getID().equals(cls2.getID())) {
 				val = true;
+			} else if (index != null) {
+				val = index.hasSuperClass(cl1.asNode(), cl2.asNode());
 			} else if (cl1.hasSuperClass(cl2)) {
 				val = true;
 			}
@@ -613,11 +1138,89 @@ public class KBAPIJena implements KBAPI {
 		return val;
 	}
 
+	public void useClassHierarchyIndex(boolean use) {
+		this.useclassindex = use;
+		this.resetClassIndex();
+	}
+
+	private synchronized ClassHierarchyIndex getClassIndex() {
+		if (!this.useclassindex)
+			return null;
+		// (Re)build the index if the model has changed or been replaced
+		OntModel model = this.getInfModel();
+		if (this.classindex == null || !this.classindex.isValid()
+				|| this.classindex.ontmodel != model) {
+			this.resetClassIndex();
+			this.classindex = new ClassHierarchyIndex(model);
+		}
+		return this.classindex;
+	}
+
+	private synchronized void resetClassIndex() {
+		if (this.classindex != null) {
+			this.classindex.close();
+			this.classindex = null;
+		}
+	}
+
+	public ArrayList<KBObject> search(String text, int limit) {
+		ArrayList<KBObject> list = new ArrayList<KBObject>();
+		if (!checkNulls(text))
+			return list;
+		// Every KB (this one and the ones it imports) has its own index
+		ArrayList<KBAPIJena> kbs = new ArrayList<KBAPIJena>();
+		this.addImportedKBs(kbs);
+		HashMap<String, Double> scores = new HashMap<String, Double>();
+		for (KBAPIJena kb : kbs) {
+			for (Map.Entry<String, Double> entry : kb.getTextIndex().getScores(text).entrySet()) {
+				Double score = scores.get(entry.getKey());
+				scores.put(entry.getKey(), score == null ? entry.getValue()
+						: score + entry.getValue());
+			}
+		}
+		for (String id : TextIndex.rank(scores, limit))
+			list.add(this.wrap(this.ontmodel.getResource(id)));
+		return list;
+	}
+
+	private void addImportedKBs(ArrayList<KBAPIJena> kbs) {
+		if (kbs.contains(this))
+			return;
+		kbs.add(this);
+		for (KBAPIJena kb : this.imports)
+			kb.addImportedKBs(kbs);
+	}
+
+	// The index of the url is shared with the other KBs of the url. KBs with
+	// unsaved changes (or without a url) index their own contents
+	private TextIndex getTextIndex() {
+		Graph graph = this.ontmodel.getBaseGraph();
+		synchronized (this) {
+			if (this.url == null || this.allchanged
+					|| (this.changed != null && !this.changed.isEmpty()))
+				return new TextIndex(graph);
+		}
+		TextIndex index = textindexcache.get(this.url, this.getContentStamp());
+		if (index == null) {
+			index = new TextIndex(graph);
+			textindexcache.put(this.url, this.loadstamp, index);
+		}
+		return index;
+	}
+
+	private Node getNode(KBObject obj) {
+		if (obj.getInternalNode() != null)
+			return ((RDFNode) obj.getInternalNode()).asNode();
+		if (obj.getID() != null)
+			return NodeFactory.createURI(obj.getID());
+		return null;
+	}
+
 	public KBObject createIndividual(String id) {
 		Individual ind = ontmodel.createIndividual(ontmodel.getResource(id));
 		if (ind == null)
 			return null;
-		return new KBObjectJena(ind);
+		return this.wrap(ind);
 	}
 	
 	public KBObject createObjectOfClass(String id, KBObject cls) {
@@ -626,7 +1229,7 @@ public class KBAPIJena implements KBAPI {
 		Individual ind = ontmodel.createIndividual(id, (Resource) cls.getInternalNode());
 		if (ind == null)
 			return null;
-		return new KBObjectJena(ind);
+		return this.wrap(ind);
 	}
 
 	public void deleteObject(KBObject obj, boolean subj_props_remove, boolean obj_props_remove) {
@@ -657,14 +1260,14 @@ public class KBAPIJena implements KBAPI {
 			i++;
 		}
 		RDFList list = ontmodel.createList(nodes);
-		return new KBObjectJena(list);
+		return this.wrap(list);
 	}
 
 	public KBObject createParsetypeLiteral(String xml) {
 		if (!checkNulls(xml))
 			return null;
 		Literal lit = ontmodel.createLiteral(xml, true);
-		return new KBObjectJena(lit);
+		return this.wrap(lit);
 	}
 
 	public void importFrom(KBAPI kb) {
@@ -672,6 +1275,8 @@ public class KBAPIJena implements KBAPI {
 			return;
 		KBAPIJena japi = (KBAPIJena) kb;
 		ontmodel.addSubModel(japi.ontmodel);
+		this.imports.add(japi);
+		this.modelChanged();
 	}
 
 	public void copyFrom(KBAPI kb) {
@@ -679,6 +1284,22 @@ public class KBAPIJena implements KBAPI {
 			return;
 		KBAPIJena japi = (KBAPIJena) kb;
 		ontmodel.addSubModel(japi.ontmodel, true);
+		this.imports.add(japi);
+		this.modelChanged();
+	}
+
+	public KBAPI fork() {
+		KBAPIJena kb;
+		Graph graph = this.ontmodel.getBaseGraph();
+		if (graph instanceof OverlayGraph) {
+			kb = new KBAPIJena(this.spec, ((OverlayGraph) graph).fork());
+		}
+		else {
+			kb = new KBAPIJena(this.spec);
+			kb.ontmodel.add(this.ontmodel.getBaseModel());
+		}
+		kb.ontmodel.setNsPrefixes(this.ontmodel.getNsPrefixMap());
+		return kb;
 	}
 
 	public void writeRDF(PrintStream ostr) {
@@ -708,12 +1329,16 @@ public class KBAPIJena implements KBAPI {
 	}
 
 	public String toAbbrevRdf(boolean showheader, String base) {
+		return toAbbrevRdf(ontmodel.getBaseModel(), showheader, base, this.url);
+	}
+
+	static String toAbbrevRdf(Model model, boolean showheader, String base, String url) {
 		StringWriter out = new StringWriter();
-		RDFWriter rdfWriter = ontmodel.getWriter("RDF/XML-ABBREV");
+		RDFWriter rdfWriter = model.getWriter("RDF/XML-ABBREV");
 		rdfWriter.setProperty("showXmlDeclaration", showheader);
 		rdfWriter.setProperty("tab", "6");
 		rdfWriter.setProperty("xmlbase", base);
-		rdfWriter.write(ontmodel.getBaseModel(), out, this.url);
+		rdfWriter.write(model, out, url);
 		return out.toString();
 	}
 
@@ -728,9 +1353,34 @@ public class KBAPIJena implements KBAPI {
 		if (!checkNulls(triples)) {
 			return;
 		}
+		this.addTriples(this.encodeTriples(triples));
+	}
+
+	public KBTripleBatch encodeTriples(ArrayList<KBTriple> triples) {
+		ArrayList<Triple> list = new ArrayList<Triple>(triples.size());
 		for (KBTriple triple : triples) {
-			addTriple(triple);
+			Statement ontst = this.getOntStatementFromTriple(this.ontmodel, triple);
+			if (ontst != null)
+				list.add(ontst.asTriple());
 		}
+		return new KBTripleBatchJena(list.toArray(new Triple[list.size()]));
+	}
+
+	@SuppressWarnings("deprecation")
+	public void addTriples(KBTripleBatch batch) {
+		if (!checkNulls(batch))
+			return;
+		Triple[] triples = ((KBTripleBatchJena) batch).triples;
+		if (triples.length == 0)
+			return;
+		// Add to the base graph directly, and let the reasoner see the whole
+		// batch at once, instead of processing every single added triple
+		ontmodel.getBaseGraph().getBulkUpdateHandler().add(triples);
+		ontmodel.rebind();
+		// Base graph changes are not seen by the model listeners
+		this.modelChanged();
+		for (Triple t : triples)
+			this.subjectChanged(t.getSubject());
 	}
 
 	public KBTriple addTriple(KBTriple triple) {
@@ -757,11 +1407,11 @@ public class KBAPIJena implements KBAPI {
 			if(curdom.canAs(UnionClass.class)) {
 				// If this is a union class domain, return elements of the list
 				UnionClass dom = (UnionClass) curdom.as(UnionClass.class);
-				list = this.getListItems(new KBObjectJena(dom.getOperands()));
+				list = this.getListItems(this.wrap(dom.getOperands()));
 			}
 			else {
 				// Else just return the simple resource domain
-				list.add(new KBObjectJena(curdom));
+				list.add(this.wrap(curdom));
 			}
 		} 
 		return list;
@@ -774,7 +1424,7 @@ public class KBAPIJena implements KBAPI {
 			for (Iterator<? extends OntResource> i = p.listDomain(); i.hasNext();) {
 				OntResource domain = i.next();
 				if (domain != null)
-					listOfDomains.add(new KBObjectJena(domain));
+					listOfDomains.add(this.wrap(domain));
 			}
 		}
 		return listOfDomains;
@@ -787,7 +1437,7 @@ public class KBAPIJena implements KBAPI {
 		if (p != null) {
 			OntResource domain = p.getDomain();
 			if (domain != null)
-				return new KBObjectJena(domain);
+				return this.wrap(domain);
 		}
 		return null;
 	}
@@ -799,7 +1449,7 @@ public class KBAPIJena implements KBAPI {
 			for (Iterator<? extends OntResource> i = p.listRange(); i.hasNext();) {
 				OntResource domain = i.next();
 				if (domain != null)
-					listOfRanges.add(new KBObjectJena(domain));
+					listOfRanges.add(this.wrap(domain));
 			}
 		}
 		return listOfRanges;
@@ -810,7 +1460,7 @@ public class KBAPIJena implements KBAPI {
 		if (p != null) {
 			OntResource range = p.getRange();
 			if (range != null)
-				return new KBObjectJena(range);
+				return this.wrap(range);
 		}
 		return null;
 	}
@@ -826,7 +1476,7 @@ public class KBAPIJena implements KBAPI {
 
 	public KBObject createClass(String id) {
 		OntClass clsobj = ontmodel.createClass(id);
-		return new KBObjectJena(clsobj);
+		return this.wrap(clsobj);
 	}
 
 	public KBObject createClass(String id, String parentid) {
@@ -834,12 +1484,12 @@ public class KBAPIJena implements KBAPI {
 		Resource pobj = ontmodel.getResource(parentid);
 		if (pobj != null)
 			clsobj.addSuperClass(pobj);
-		return new KBObjectJena(clsobj);
+		return this.wrap(clsobj);
 	}
 
 	public KBObject createObjectProperty(String id) {
 		OntProperty propobj = ontmodel.createObjectProperty(id);
-		return new KBObjectJena(propobj);
+		return this.wrap(propobj);
 	}
 
 	public KBObject createObjectProperty(String id, String parentid) {
@@ -847,12 +1497,12 @@ public class KBAPIJena implements KBAPI {
 		Property parentobj = ontmodel.getProperty(parentid);
 		if (parentobj != null)
 			propobj.addSuperProperty(parentobj);
-		return new KBObjectJena(propobj);
+		return this.wrap(propobj);
 	}
 
 	public KBObject createDatatypeProperty(String id) {
 		OntProperty propobj = ontmodel.createDatatypeProperty(id);
-		return new KBObjectJena(propobj);
+		return this.wrap(propobj);
 	}
 
 	public KBObject createDatatypeProperty(String id, String parentid) {
@@ -860,7 +1510,7 @@ public class KBAPIJena implements KBAPI {
 		Property parentobj = ontmodel.getProperty(parentid);
 		if (parentobj != null)
 			propobj.addSuperProperty(parentobj);
-		return new KBObjectJena(propobj);
+		return this.wrap(propobj);
 	}
 
 	public boolean setPropertyDomain(String propid, String domainid) {
@@ -964,7 +1614,7 @@ public class KBAPIJena implements KBAPI {
 	public ArrayList<KBObject> getAllClasses() {
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
 		for (Iterator<OntClass> i = ontmodel.listClasses(); i.hasNext();) {
-			list.add(new KBObjectJena((RDFNode) i.next()));
+			list.add(this.wrap((RDFNode) i.next()));
 		}
 		return list;
 	}
@@ -972,7 +1622,7 @@ public class KBAPIJena implements KBAPI {
 	public ArrayList<KBObject> getAllDatatypeProperties() {
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
 		for (Iterator<DatatypeProperty> i = ontmodel.listDatatypeProperties(); i.hasNext();) {
-			list.add(new KBObjectJena((RDFNode) i.next()));
+			list.add(this.wrap((RDFNode) i.next()));
 		}
 		return list;
 	}
@@ -980,7 +1630,7 @@ public class KBAPIJena implements KBAPI {
 	public ArrayList<KBObject> getAllObjectProperties() {
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
 		for (Iterator<ObjectProperty> i = ontmodel.listObjectProperties(); i.hasNext();) {
-			list.add(new KBObjectJena((RDFNode) i.next()));
+			list.add(this.wrap((RDFNode) i.next()));
 		}
 		return list;
 	}
@@ -988,7 +1638,7 @@ public class KBAPIJena implements KBAPI {
 	public ArrayList<KBObject> getAllProperties() {
 		ArrayList<KBObject> list = new ArrayList<KBObject>();
 		for (Iterator<OntProperty> i = ontmodel.listOntProperties(); i.hasNext();) {
-			list.add(new KBObjectJena((RDFNode) i.next()));
+			list.add(this.wrap((RDFNode) i.next()));
 		}
 		return list;
 	}
@@ -998,7 +1648,7 @@ public class KBAPIJena implements KBAPI {
 		OntClass cl = (OntClass) cls.getInternalNode();
 		if (cl != null) {
 			for (Iterator<OntProperty> i = cl.listDeclaredProperties(direct); i.hasNext();) {
-				list.add(new KBObjectJena((RDFNode) i.next()));
+				list.add(this.wrap((RDFNode) i.next()));
 			}
 		}
 		return list;
@@ -1026,8 +1676,12 @@ public class KBAPIJena implements KBAPI {
 			this.ontmodel.remove(ontst);
 		}
 		for (Graph subg : this.ontmodel.getSubGraphs()) {
+			// Shared read-only graphs are never modified
+			if (subg instanceof GraphReadOnly)
+				continue;
 			subg.delete(ontst.asTriple());
 		}
+		this.modelChanged();
 	}
 	
 	public void removeAllTriples() {
@@ -1189,8 +1843,8 @@ public class KBAPIJena implements KBAPI {
 		if (!checkNulls(prop1, prop2))
 			return false;
 		boolean val = false;
-		OntProperty ontProperty1 = (OntProperty) prop1.getInternalNode();
-		OntProperty ontProperty2 = (OntProperty) prop2.getInternalNode();
+		OntProperty ontProperty1 = (OntProperty) getInfNode(prop1, OntProperty.class);
+		OntProperty ontProperty2 = (OntProperty) getInfNode(prop2, OntProperty.class);
 		if (ontProperty1 != null && ontProperty2 != null) {
 			if (prop1.getID().equals(prop2.getID())) {
 				val = true;
@@ -1219,15 +1873,14 @@ public class KBAPIJena implements KBAPI {
 
 	public ArrayList<KBTriple> getAllTriples() {
 		ArrayList<KBTriple> list = new ArrayList<KBTriple>();
-		for (Iterator<Statement> sts = this.ontmodel.listStatements(); sts.hasNext();) {
-			Statement st = (Statement) sts.next();
-			KBObject newSubject = new KBObjectJena(st.getSubject());
-			KBObject newPredicate = new KBObjectJena(st.getPredicate());
-			KBObject newObject = new KBObjectJena(st.getObject());
-			list.add(new KBTripleJena(newSubject, newPredicate, newObject));
-		}
+		for (KBIterator<KBTriple> it = streamAllTriples(0); it.hasNext();)
+			list.add(it.next());
 		return list;
 	}
+
+	public KBIterator<KBTriple> streamAllTriples(int limit) {
+		return new StatementIteratorJena(this.ontmodel.listStatements(), this, limit);
+	}
 	
 	@Override
 	public void end() {
@@ -1242,44 +1895,66 @@ public class KBAPIJena implements KBAPI {
 		if (this.url == null)
 			return false;
 
-		if (this.usetdb && tdbstore != null) {
-			TDB.sync(ontmodel.getBaseModel());
-			// System.out.println("Commit to tdb store");
-			// tdbstore.commit();
-			return true;
+		boolean ok;
+		if (this.isStoreGraph(this.url)) {
+			// Changes are already written through to the store
+			ok = true;
+		} else if (this.usetdb && tdbstore != null) {
+			ok = this.writeToStore(this.url, ontmodel.getBaseModel());
+		} else if (SaveQueue.isEnabled()) {
+			// Write behind : queue a copy of the current contents
+			Model copy = ModelFactory.createDefaultModel();
+			copy.add(ontmodel.getBaseModel());
+			copy.setNsPrefixes(ontmodel.getNsPrefixMap());
+			SaveQueue.enqueue(this.url, copy, this.binary_storage);
+			ok = true;
 		} else {
-			// Store in file
-			String fileuri = LocationMapper.get().altMapping(this.url);
-			try {
-				File f = new File(new URL(fileuri).getFile());
-				try {
-				    	if(!f.getParentFile().exists())
-				    	    f.getParentFile().mkdirs();
-					FileWriter fout = new FileWriter(f);
-					BufferedWriter out = new BufferedWriter(fout);
-					out.write(this.toAbbrevRdf(true));
-					out.close();
-					fout.close();
-					return true;
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
+			ok = writeFile(this.url, ontmodel.getBaseModel(), this.binary_storage);
+		}
+		if (ok)
+			this.indexChanges();
+		return ok;
+	}
+
+	// Store the model in the file that the url maps to
+	static boolean writeFile(String url, Model model, boolean binary) {
+		String fileuri = LocationMapper.get().altMapping(url);
+		try {
+			File f = new File(new URL(fileuri).getFile());
+			if(!f.getParentFile().exists())
+				f.getParentFile().mkdirs();
+			if (binary) {
+				BinaryModelFile.write(model, BinaryModelFile.getFile(f), url);
+				return true;
 			}
+			writeRdfFile(f, model, url);
+			// Don't leave an older binary copy around
+			BinaryModelFile.getFile(f).delete();
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
 		return false;
 	}
 	
+	// Store the model as RDF/XML, with the url as its base
+	static void writeRdfFile(File f, Model model, String url) throws IOException {
+		FileWriter fout = new FileWriter(f);
+		BufferedWriter out = new BufferedWriter(fout);
+		out.write(toAbbrevRdf(model, true, url, url));
+		out.close();
+		fout.close();
+	}
+	
 	@Override
 	public boolean saveAs(String url) {
-		if (this.usetdb && tdbstore != null) {
-			tdbstore.removeNamedModel(url);
-			tdbstore.addNamedModel(url, ontmodel.getBaseModel());
-			TDB.sync(ontmodel.getBaseModel());
-			TDB.sync(tdbstore);
+		textindexcache.remove(url);
+		if (this.isStoreGraph(url)) {
 			return true;
 		}
+		else if (this.usetdb && tdbstore != null) {
+			return this.writeToStore(url, ontmodel.getBaseModel());
+		}
 		else {
 			this.url = url;
 			return this.save();
@@ -1291,17 +1966,19 @@ public class KBAPIJena implements KBAPI {
 		if (this.url == null)
 			return false;
 
+		textindexcache.remove(this.url);
 		if (this.usetdb && tdbstore != null) {
-			tdbstore.removeNamedModel(this.url);
-			TDB.sync(tdbstore);
-			return true;
+			return this.writeToStore(this.url, null);
 		} else {
+			// Drop queued saves, so they don't bring the file back
+			SaveQueue.cancel(this.url);
 			// Delete the file
 			String fileuri = LocationMapper.get().altMapping(this.url);
 			try {
 				File f = new File(new URL(fileuri).getFile());
 				f.setWritable(true);
 				f.delete();
+				BinaryModelFile.getFile(f).delete();
 				return true;
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -1310,6 +1987,42 @@ public class KBAPIJena implements KBAPI {
 		return false;
 	}
 
+	// Whether the model is a view of the url's named graph in the store
+	private boolean isStoreGraph(String url) {
+		Graph graph = ontmodel.getBaseGraph();
+		return graph instanceof StoreGraph && ((StoreGraph) graph).getURL().equals(url);
+	}
+
+	/**
+	 * Replaces the named graph in the store with the model (or removes it if
+	 * the model is null). Runs in its own write transaction, unless this
+	 * thread has a batch open
+	 */
+	private boolean writeToStore(String url, Model model) {
+		boolean batched = batchdepth.get() > 0;
+		if (!batched)
+			tdbstore.begin(ReadWrite.WRITE);
+		try {
+			tdbstore.removeNamedModel(url);
+			if (model != null) {
+				Model tmodel = tdbstore.getNamedModel(url);
+				tmodel.add(model);
+				tmodel.setNsPrefixes(model.getNsPrefixMap());
+			}
+			if (!batched)
+				tdbstore.commit();
+			return true;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+		finally {
+			if (!batched)
+				tdbstore.end();
+		}
+	}
+
 	private boolean checkNulls(Object... vars) {
 		for (Object var : vars) {
 			if (var == null) {
@@ -0,0 +1,53 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.NoSuchElementException;
+
+import edu.isi.wings.ontapi.KBIterator;
+
+/**
+ * Base class for streamed results. Handles the result limit, and closes the
+ * underlying iterator once it is exhausted
+ */
+public abstract class KBIteratorJena<T> implements KBIterator<T> {
+	int limit;
+	int count;
+	boolean closed;
+
+	public KBIteratorJena(int limit) {
+		this.limit = limit;
+	}
+
+	protected abstract boolean hasNextResult();
+
+	protected abstract T nextResult();
+
+	protected abstract void closeResults();
+
+	public boolean hasNext() {
+		if (this.closed)
+			return false;
+		if ((this.limit > 0 && this.count >= this.limit) || !this.hasNextResult()) {
+			this.close();
+			return false;
+		}
+		return true;
+	}
+
+	public T next() {
+		if (!this.hasNext())
+			throw new NoSuchElementException();
+		this.count++;
+		return this.nextResult();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() {
+		if (!this.closed) {
+			this.closed = true;
+			this.closeResults();
+		}
+	}
+}
@@ -10,7 +10,12 @@ import com.hp.hpl.jena.vocabulary.RDF;
 import edu.isi.wings.ontapi.KBObject;
 
 public class KBObjectJena implements KBObject {
+	// URIs (and namespaces) shared by all objects
+	static WeakInterner<String> uris = new WeakInterner<String>();
+
 	String id;
+	String namespace;
+	String name;
 
 	Object value;
 	String type;
@@ -20,7 +25,7 @@ public class KBObjectJena implements KBObject {
 	boolean isLiteral;
 
 	public KBObjectJena(String id) {
-		this.id = id;
+		this.id = uris.intern(id);
 	}
 
 	public KBObjectJena(Object value, boolean dummy) {
@@ -38,17 +43,17 @@ public class KBObjectJena implements KBObject {
 	}
 
 	public String getNamespace() {
-		if (node != null && node.isResource()) {
-			return ((Resource) node).getNameSpace();
+		if (namespace == null && node != null && node.isResource()) {
+			namespace = uris.intern(((Resource) node).getNameSpace());
 		}
-		return null;
+		return namespace;
 	}
 
 	public String getName() {
-		if (node != null && node.isResource()) {
-			return ((Resource) node).getLocalName();
+		if (name == null && node != null && node.isResource()) {
+			name = ((Resource) node).getLocalName();
 		}
-		return null;
+		return name;
 	}
 
 	public String shortForm(boolean showLiteralTypes) {
@@ -101,8 +106,10 @@ public class KBObjectJena implements KBObject {
 			this.value = node.asNode().getLiteralValue();
 			this.type = node.asNode().getLiteralDatatypeURI();
 		} else {
-			this.id = ((Resource) node).getURI();
+			this.id = uris.intern(((Resource) node).getURI());
 		}
+		this.namespace = null;
+		this.name = null;
 	}
 
 	public boolean isLiteral() {
@@ -152,6 +159,8 @@ public class KBObjectJena implements KBObject {
 	 */
 	@Override
 	public boolean equals(Object obj) {
+		if (obj == this)
+			return true;
 		if (obj instanceof KBObjectJena) {
 			KBObjectJena objJena = (KBObjectJena) obj;
 			if (isLiteral) {
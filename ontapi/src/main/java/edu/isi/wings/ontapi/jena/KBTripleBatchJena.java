@@ -0,0 +1,17 @@
+package edu.isi.wings.ontapi.jena;
+
+import com.hp.hpl.jena.graph.Triple;
+
+import edu.isi.wings.ontapi.KBTripleBatch;
+
+public class KBTripleBatchJena implements KBTripleBatch {
+	Triple[] triples;
+
+	public KBTripleBatchJena(Triple[] triples) {
+		this.triples = triples;
+	}
+
+	public int size() {
+		return this.triples.length;
+	}
+}
@@ -0,0 +1,112 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Maps nodes to dense int ids (and back). Ids are handed out in order and are
+ * never reused. Literals are also grouped by value, so that literals that are
+ * written differently but have the same value can be found together.
+ */
+public class NodeDictionary {
+	private Node[] nodes;
+	private int size;
+
+	// Open addressing hash of nodes to ids (null key = empty)
+	private Node[] keys;
+	private int[] ids;
+
+	private HashMap<Object, ArrayList<Integer>> literals;
+
+	public NodeDictionary() {
+		this.nodes = new Node[16];
+		this.keys = new Node[32];
+		this.ids = new int[32];
+		this.literals = new HashMap<Object, ArrayList<Integer>>();
+	}
+
+	/**
+	 * Returns the id of the node, or -1 if the node isn't in the dictionary
+	 */
+	public int getId(Node node) {
+		int mask = this.keys.length - 1;
+		for (int i = spread(node.hashCode()) & mask;; i = (i + 1) & mask) {
+			Node key = this.keys[i];
+			if (key == null)
+				return -1;
+			if (key.equals(node))
+				return this.ids[i];
+		}
+	}
+
+	/**
+	 * Returns the id of the node, adding it to the dictionary if required
+	 */
+	public int add(Node node) {
+		int id = this.getId(node);
+		if (id >= 0)
+			return id;
+
+		id = this.size++;
+		if (id == this.nodes.length) {
+			Node[] tmp = new Node[id * 2];
+			System.arraycopy(this.nodes, 0, tmp, 0, id);
+			this.nodes = tmp;
+		}
+		this.nodes[id] = node;
+		if (this.size * 2 > this.keys.length)
+			this.rehash(this.keys.length * 2);
+		else
+			this.insert(node, id);
+
+		if (node.isLiteral()) {
+			Object value = node.getIndexingValue();
+			ArrayList<Integer> valueids = this.literals.get(value);
+			if (valueids == null) {
+				valueids = new ArrayList<Integer>(1);
+				this.literals.put(value, valueids);
+			}
+			valueids.add(id);
+		}
+		return id;
+	}
+
+	public Node getNode(int id) {
+		return this.nodes[id];
+	}
+
+	/**
+	 * Returns the ids of all literals with the same value as the given literal
+	 * (or null if there are none)
+	 */
+	public ArrayList<Integer> getLiteralIds(Node literal) {
+		return this.literals.get(literal.getIndexingValue());
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	private void insert(Node node, int id) {
+		int mask = this.keys.length - 1;
+		int i = spread(node.hashCode()) & mask;
+		while (this.keys[i] != null)
+			i = (i + 1) & mask;
+		this.keys[i] = node;
+		this.ids[i] = id;
+	}
+
+	private void rehash(int capacity) {
+		this.keys = new Node[capacity];
+		this.ids = new int[capacity];
+		for (int id = 0; id < this.size; id++)
+			this.insert(this.nodes[id], id);
+	}
+
+	private static int spread(int h) {
+		h *= 0x9E3779B1;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,213 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+
+/**
+ * A graph made of a shared, frozen parent graph plus the triples that have
+ * been added to and deleted from it. Forking the graph freezes its current
+ * contents and returns a new graph over them, so copies cost nothing up front
+ * and only hold their own changes. Long chains of parents are flattened into
+ * a single graph to keep lookups short.
+ * 
+ * Like the memory graphs it is made of, an overlay graph is not thread safe.
+ * Forking a graph changes it, so only the thread that writes to the graph
+ * should fork it. Parents are never modified, so the forks themselves can be
+ * used by other threads.
+ */
+public class OverlayGraph extends GraphBase {
+	static final int MAX_DEPTH = 8;
+
+	// Frozen parent (never modified once it is a parent). Null if empty
+	Graph base;
+	int depth;
+
+	// Changes : adds are never in base, and dels are always in base
+	Graph adds;
+	Graph dels;
+
+	public OverlayGraph() {
+		this(null, 0);
+	}
+
+	private OverlayGraph(Graph base, int depth) {
+		this.base = base;
+		this.depth = depth;
+		this.adds = createGraph();
+		this.dels = createGraph();
+	}
+
+	private OverlayGraph(Graph base, int depth, Graph adds, Graph dels) {
+		this.base = base;
+		this.depth = depth;
+		this.adds = adds;
+		this.dels = dels;
+	}
+
+	/**
+	 * Returns a copy of this graph. The copy and this graph share the current
+	 * triples, and changes to either one are not seen by the other
+	 */
+	public OverlayGraph fork() {
+		if (!this.adds.isEmpty() || !this.dels.isEmpty()) {
+			// Freeze the current changes as a new parent for both graphs
+			Graph frozen = new OverlayGraph(this.base, this.depth, this.adds, this.dels);
+			if (this.depth >= MAX_DEPTH)
+				frozen = flatten(frozen);
+			this.base = frozen;
+			this.depth = frozen instanceof OverlayGraph ? this.depth + 1 : 0;
+			this.adds = createGraph();
+			this.dels = createGraph();
+		}
+		return new OverlayGraph(this.base, this.depth);
+	}
+
+	@Override
+	public void performAdd(Triple t) {
+		if (this.base != null && this.base.contains(t)) {
+			this.dels.delete(t);
+			return;
+		}
+		this.adds.add(t);
+	}
+
+	@Override
+	public void performDelete(Triple t) {
+		if (this.adds.contains(t))
+			this.adds.delete(t);
+		else if (this.base != null && this.base.contains(t))
+			this.dels.add(t);
+	}
+
+	@Override
+	public void clear() {
+		this.base = null;
+		this.depth = 0;
+		this.adds = createGraph();
+		this.dels = createGraph();
+		this.getEventManager().notifyEvent(this, GraphEvents.removeAll);
+	}
+
+	@Override
+	protected int graphBaseSize() {
+		int size = this.adds.size();
+		if (this.base != null)
+			size += this.base.size() - this.dels.size();
+		return size;
+	}
+
+	@Override
+	protected boolean graphBaseContains(Triple t) {
+		if (!t.isConcrete())
+			return this.containsByFind(t);
+		if (this.adds.contains(t))
+			return true;
+		return this.base != null && this.base.contains(t) && !this.dels.contains(t);
+	}
+
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+		Triple pattern = m.asTriple();
+		if (this.base == null)
+			return new OverlayIterator(null, this.adds, pattern);
+
+		// Deletes are checked as the parent's triples are read
+		ExtendedIterator<Triple> kept = this.base.find(pattern);
+		if (!this.dels.isEmpty()) {
+			final Graph deleted = this.dels;
+			kept = kept.filterDrop(new Filter<Triple>() {
+				public boolean accept(Triple t) {
+					return deleted.contains(t);
+				}
+			});
+		}
+		return new OverlayIterator(kept, this.adds, pattern);
+	}
+
+	private static Graph createGraph() {
+		if (KBAPIJena.useintgraphs)
+			return new IntTripleGraph();
+		return Factory.createGraphMem();
+	}
+
+	private static Graph flatten(Graph graph) {
+		Graph flat = createGraph();
+		for (Iterator<Triple> it = graph.find(Triple.ANY); it.hasNext();)
+			flat.add(it.next());
+		return flat;
+	}
+
+	/**
+	 * Reads the parent's (remaining) triples, and then the added ones (which
+	 * are only looked up once the parent's are done). Triples of the parent
+	 * are removed through the overlay (the parent is never modified), and
+	 * added triples through the iterator of the added ones
+	 */
+	class OverlayIterator extends NiceIterator<Triple> {
+		Iterator<Triple> kept;
+		Iterator<Triple> added;
+		Graph addgraph;
+		Triple pattern;
+		Triple current;
+		boolean currentAdded;
+
+		OverlayIterator(Iterator<Triple> kept, Graph addgraph, Triple pattern) {
+			this.kept = kept;
+			this.addgraph = addgraph;
+			this.pattern = pattern;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (this.kept != null) {
+				if (this.kept.hasNext())
+					return true;
+				NiceIterator.close(this.kept);
+				this.kept = null;
+			}
+			if (this.added == null)
+				this.added = this.addgraph.find(this.pattern);
+			return this.added.hasNext();
+		}
+
+		@Override
+		public Triple next() {
+			if (!this.hasNext())
+				throw new NoSuchElementException();
+			this.currentAdded = this.kept == null;
+			this.current = this.currentAdded ? this.added.next() : this.kept.next();
+			return this.current;
+		}
+
+		@Override
+		public void remove() {
+			if (this.current == null)
+				throw new IllegalStateException();
+			if (this.currentAdded) {
+				this.added.remove();
+				notifyDelete(this.current);
+			}
+			else
+				delete(this.current);
+			this.current = null;
+		}
+
+		@Override
+		public void close() {
+			if (this.kept != null)
+				NiceIterator.close(this.kept);
+			if (this.added != null)
+				NiceIterator.close(this.added);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.sparql.algebra.Algebra;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.core.Substitute;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+
+import edu.isi.wings.ontapi.KBObject;
+import edu.isi.wings.ontapi.PreparedSparqlQuery;
+import edu.isi.wings.ontapi.SparqlQuerySolution;
+
+public class PreparedSparqlQueryJena implements PreparedSparqlQuery {
+	// Compiled (and optimized) queries, cached by query string
+	static final int MAX_CACHED_QUERIES = 512;
+	static LinkedHashMap<String, CompiledQuery> querycache =
+			new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+			return size() > MAX_CACHED_QUERIES;
+		}
+	};
+
+	KBAPIJena kb;
+	CompiledQuery query;
+	HashMap<String, Node> bindings;
+
+	public PreparedSparqlQueryJena(String queryString, KBAPIJena kb) {
+		this.kb = kb;
+		this.query = getCompiledQuery(queryString);
+		this.bindings = new HashMap<String, Node>();
+	}
+
+	public void bind(String variable, KBObject value) {
+		if (value == null)
+			this.bindings.remove(variable);
+		else
+			this.bindings.put(variable, getNode(value));
+	}
+
+	public void clearBindings() {
+		this.bindings.clear();
+	}
+
+	public ArrayList<ArrayList<SparqlQuerySolution>> execute() {
+		ArrayList<ArrayList<SparqlQuerySolution>> list = new ArrayList<ArrayList<SparqlQuerySolution>>();
+
+		// Substitute the bound values into the compiled query
+		Op op = this.query.op;
+		if (!this.bindings.isEmpty()) {
+			BindingMap binding = BindingFactory.create();
+			for (String variable : this.bindings.keySet())
+				binding.add(Var.alloc(variable), this.bindings.get(variable));
+			op = Substitute.substitute(op, binding);
+		}
+
+		// Run on the KB's inference model (which is rebound to the current
+		// contents of lazy KBs), and view the results in the model itself
+		OntModel ontmodel = this.kb.ontmodel;
+		QueryIterator qiter = Algebra.exec(op, this.kb.getInfModel().getGraph());
+		try {
+			while (qiter.hasNext()) {
+				Binding soln = qiter.nextBinding();
+				ArrayList<SparqlQuerySolution> inner = new ArrayList<SparqlQuerySolution>();
+				for (String variableName : this.query.vars) {
+					Node x = soln.get(Var.alloc(variableName));
+					if (x == null)
+						x = this.bindings.get(variableName);
+					KBObject item = null;
+					if (x != null) {
+						RDFNode node = ontmodel.asRDFNode(x);
+						if (node.isLiteral())
+							item = new KBObjectJena(((Literal) node).getValue(), true);
+						else
+							item = new KBObjectJena(node);
+					}
+					inner.add(new SparqlQuerySolution(variableName, item));
+				}
+				list.add(inner);
+			}
+		}
+		finally {
+			qiter.close();
+		}
+		return list;
+	}
+
+	private Node getNode(KBObject value) {
+		if (value.getInternalNode() != null)
+			return ((RDFNode) value.getInternalNode()).asNode();
+		if (value.isLiteral()) {
+			String lex = value.getValue().toString();
+			if (value.getDataType() != null)
+				return NodeFactory.createLiteral(lex, null,
+						TypeMapper.getInstance().getSafeTypeByName(value.getDataType()));
+			return NodeFactory.createLiteral(lex);
+		}
+		if (value.isAnonymous())
+			return NodeFactory.createAnon(new AnonId(value.getID()));
+		return NodeFactory.createURI(value.getID());
+	}
+
+	private static CompiledQuery getCompiledQuery(String queryString) {
+		synchronized (querycache) {
+			CompiledQuery cq = querycache.get(queryString);
+			if (cq == null) {
+				cq = new CompiledQuery(queryString);
+				querycache.put(queryString, cq);
+			}
+			return cq;
+		}
+	}
+
+	static class CompiledQuery {
+		Op op;
+		List<String> vars;
+
+		CompiledQuery(String queryString) {
+			Query query = QueryFactory.create(queryString);
+			this.vars = new ArrayList<String>(query.getResultVars());
+			this.op = Algebra.optimize(Algebra.compile(query));
+		}
+	}
+}
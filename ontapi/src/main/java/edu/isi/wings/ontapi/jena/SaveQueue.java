@@ -0,0 +1,166 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Write-behind queue for saves of file based KBs. A save queues a copy of the
+ * model, and the file is written once the save window has passed. Saves of
+ * the same url within the window replace the queued copy, so a burst of
+ * updates costs a single write. Queued saves are written before the url is
+ * read again, on flush, and when the JVM shuts down.
+ *
+ * A window of 0 (the default) disables the queue, and saves are written
+ * right away.
+ */
+public class SaveQueue {
+	static volatile long window = 0;
+
+	// Queued saves by url (changed while holding its lock, but can be read
+	// without it)
+	static ConcurrentHashMap<String, PendingSave> pending = 
+			new ConcurrentHashMap<String, PendingSave>();
+	// Urls taken off the queue that are being written. A url is added before
+	// it is removed from the queue, so it is always in one of them until the
+	// write has finished
+	static Set<String> writing = Collections.newSetFromMap(
+			new ConcurrentHashMap<String, Boolean>());
+	// Held while taking a save off the queue and writing it, so writes of a
+	// url never overtake each other
+	static Object writeLock = new Object();
+
+	static ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "kb-save-queue");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread("kb-save-queue-flush") {
+			public void run() {
+				flush();
+			}
+		});
+	}
+
+	/**
+	 * Sets the time (in milliseconds) that saves wait in the queue. Saves that
+	 * are already queued are written first if the queue is disabled
+	 */
+	public static void setWindow(long millis) {
+		window = Math.max(millis, 0);
+		if (window == 0)
+			flush();
+	}
+
+	public static boolean isEnabled() {
+		return window > 0;
+	}
+
+	/**
+	 * Queues a save of the model to the url's file. The model should not be
+	 * modified after this
+	 */
+	public static void enqueue(final String url, Model model, boolean binary) {
+		synchronized (pending) {
+			PendingSave save = pending.get(url);
+			if (save != null) {
+				// Coalesce with the save that is already scheduled
+				save.model = model;
+				save.binary = binary;
+				return;
+			}
+			pending.put(url, new PendingSave(url, model, binary));
+		}
+		executor.schedule(new Runnable() {
+			public void run() {
+				flush(url);
+			}
+		}, window, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the queued save of the url (if any). Returns once any write of
+	 * the url that is in progress has finished
+	 */
+	public static void flush(String url) {
+		// Don't wait for the writes of other urls (every KB load flushes)
+		if (!pending.containsKey(url) && !writing.contains(url))
+			return;
+		synchronized (writeLock) {
+			PendingSave save;
+			synchronized (pending) {
+				save = pending.get(url);
+				if (save != null) {
+					writing.add(url);
+					pending.remove(url);
+				}
+			}
+			if (save != null)
+				save.write();
+		}
+	}
+
+	/**
+	 * Writes all queued saves. Returns once they are on disk
+	 */
+	public static void flush() {
+		synchronized (writeLock) {
+			ArrayList<PendingSave> saves;
+			synchronized (pending) {
+				saves = new ArrayList<PendingSave>(pending.values());
+				writing.addAll(pending.keySet());
+				pending.clear();
+			}
+			for (PendingSave save : saves)
+				save.write();
+		}
+	}
+
+	/**
+	 * Drops the queued save of the url (if any), and waits for a write of the
+	 * url that is in progress
+	 */
+	public static void cancel(String url) {
+		synchronized (writeLock) {
+			synchronized (pending) {
+				pending.remove(url);
+			}
+		}
+	}
+
+	static class PendingSave {
+		String url;
+		Model model;
+		boolean binary;
+
+		PendingSave(String url, Model model, boolean binary) {
+			this.url = url;
+			this.model = model;
+			this.binary = binary;
+		}
+
+		void write() {
+			try {
+				if (!KBAPIJena.writeFile(this.url, this.model, this.binary))
+					Logger.getLogger(SaveQueue.class).error("Could not save " + this.url);
+			}
+			finally {
+				writing.remove(this.url);
+			}
+		}
+	}
+}
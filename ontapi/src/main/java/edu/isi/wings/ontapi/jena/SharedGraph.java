@@ -0,0 +1,20 @@
+package edu.isi.wings.ontapi.jena;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.sparql.graph.GraphReadOnly;
+
+/**
+ * A read-only view of a graph shared through the GraphCache. Models that
+ * wrap the graph are closed when their KB ends, but the shared graph itself
+ * stays open for the other KBs that use it
+ */
+public class SharedGraph extends GraphReadOnly {
+	public SharedGraph(Graph graph) {
+		super(graph);
+	}
+
+	@Override
+	public void close() {
+		// The shared graph is only dropped by the cache
+	}
+}
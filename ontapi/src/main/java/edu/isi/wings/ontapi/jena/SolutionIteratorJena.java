@@ -0,0 +1,70 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+import edu.isi.wings.ontapi.KBObject;
+import edu.isi.wings.ontapi.SparqlQuerySolution;
+
+public class SolutionIteratorJena extends KBIteratorJena<ArrayList<SparqlQuerySolution>> {
+	QueryExecution qexec;
+	ResultSet results;
+	List<String> vars;
+	Model model;
+
+	public SolutionIteratorJena(QueryExecution qexec, List<String> vars, int limit) {
+		this(qexec, vars, limit, null);
+	}
+
+	/**
+	 * Returns resources as views in the given model (when the query runs on
+	 * some other model, such as an inference model over it)
+	 */
+	public SolutionIteratorJena(QueryExecution qexec, List<String> vars, int limit, 
+			Model model) {
+		super(limit);
+		this.qexec = qexec;
+		this.vars = vars;
+		this.model = model;
+		try {
+			this.results = qexec.execSelect();
+		}
+		catch (RuntimeException e) {
+			qexec.close();
+			throw e;
+		}
+	}
+
+	protected boolean hasNextResult() {
+		return this.results.hasNext();
+	}
+
+	protected ArrayList<SparqlQuerySolution> nextResult() {
+		QuerySolution soln = this.results.nextSolution();
+		ArrayList<SparqlQuerySolution> inner = new ArrayList<SparqlQuerySolution>();
+		for (String variableName : this.vars) {
+			RDFNode x = soln.get(variableName);
+			KBObject item = null;
+			if (x != null) {
+				if (x.isLiteral())
+					item = new KBObjectJena(soln.getLiteral(variableName).getValue(), true);
+				else if (this.model != null)
+					item = new KBObjectJena(soln.getResource(variableName).inModel(this.model));
+				else
+					item = new KBObjectJena(soln.getResource(variableName));
+			}
+			inner.add(new SparqlQuerySolution(variableName, item));
+		}
+		return inner;
+	}
+
+	protected void closeResults() {
+		this.qexec.close();
+	}
+}
@@ -0,0 +1,31 @@
+package edu.isi.wings.ontapi.jena;
+
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+import edu.isi.wings.ontapi.KBTriple;
+
+public class StatementIteratorJena extends KBIteratorJena<KBTriple> {
+	StmtIterator statements;
+	KBAPIJena kb;
+
+	public StatementIteratorJena(StmtIterator statements, KBAPIJena kb, int limit) {
+		super(limit);
+		this.statements = statements;
+		this.kb = kb;
+	}
+
+	protected boolean hasNextResult() {
+		return this.statements.hasNext();
+	}
+
+	protected KBTriple nextResult() {
+		Statement st = this.statements.nextStatement();
+		return new KBTripleJena(this.kb.wrap(st.getSubject()), this.kb.wrap(st.getPredicate()),
+				this.kb.wrap(st.getObject()));
+	}
+
+	protected void closeResults() {
+		this.statements.close();
+	}
+}
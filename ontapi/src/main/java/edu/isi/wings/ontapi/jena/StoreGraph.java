@@ -0,0 +1,139 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.Iterator;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.ReadWrite;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+
+/**
+ * A named graph of the triple store, read and written through transactions.
+ * Lookups run in a read transaction (matching triples are read before it
+ * ends), and changes are written through in a write transaction of their
+ * own. If the thread already has a transaction open (such as a batch, see
+ * KBAPIJena.startBatch), lookups and changes are part of it instead.
+ */
+public class StoreGraph extends GraphBase {
+	Dataset store;
+	String url;
+
+	public StoreGraph(Dataset store, String url) {
+		this.store = store;
+		this.url = url;
+	}
+
+	public String getURL() {
+		return this.url;
+	}
+
+	@Override
+	protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m) {
+		boolean intransaction = this.store.isInTransaction();
+		if (!intransaction)
+			this.store.begin(ReadWrite.READ);
+		try {
+			return new StoreIterator(this.getGraph().find(m).toList().iterator());
+		}
+		finally {
+			if (!intransaction)
+				this.store.end();
+		}
+	}
+
+	@Override
+	protected boolean graphBaseContains(Triple t) {
+		boolean intransaction = this.store.isInTransaction();
+		if (!intransaction)
+			this.store.begin(ReadWrite.READ);
+		try {
+			return this.getGraph().contains(t);
+		}
+		finally {
+			if (!intransaction)
+				this.store.end();
+		}
+	}
+
+	@Override
+	protected int graphBaseSize() {
+		boolean intransaction = this.store.isInTransaction();
+		if (!intransaction)
+			this.store.begin(ReadWrite.READ);
+		try {
+			return this.getGraph().size();
+		}
+		finally {
+			if (!intransaction)
+				this.store.end();
+		}
+	}
+
+	@Override
+	public void performAdd(Triple t) {
+		this.write(t, true);
+	}
+
+	@Override
+	public void performDelete(Triple t) {
+		this.write(t, false);
+	}
+
+	private void write(Triple t, boolean add) {
+		boolean intransaction = this.store.isInTransaction();
+		if (!intransaction)
+			this.store.begin(ReadWrite.WRITE);
+		try {
+			if (add)
+				this.getGraph().add(t);
+			else
+				this.getGraph().delete(t);
+			if (!intransaction)
+				this.store.commit();
+		}
+		finally {
+			if (!intransaction)
+				this.store.end();
+		}
+	}
+
+	// The named graph, as seen by the current transaction
+	private Graph getGraph() {
+		return this.store.getNamedModel(this.url).getGraph();
+	}
+
+	/**
+	 * Removes triples through the store graph
+	 */
+	class StoreIterator extends NiceIterator<Triple> {
+		Iterator<Triple> triples;
+		Triple current;
+
+		StoreIterator(Iterator<Triple> triples) {
+			this.triples = triples;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return this.triples.hasNext();
+		}
+
+		@Override
+		public Triple next() {
+			this.current = this.triples.next();
+			return this.current;
+		}
+
+		@Override
+		public void remove() {
+			if (this.current == null)
+				throw new IllegalStateException();
+			delete(this.current);
+			this.current = null;
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * An inverted index of the words in the local names and literal values
+ * (comments, metadata values etc) of the resources of a graph. Words are kept
+ * sorted, so all words starting with a prefix are found with a single range
+ * lookup. The index doesn't keep the graph : it is shared by all KBs of the
+ * same url (see TextIndexCache), and the resources that a KB changed are
+ * re-indexed from its graph when it is saved.
+ */
+public class TextIndex {
+	// Fields a word can occur in (bit mask), and how much a match in them counts
+	static final int NAME = 1;
+	static final int TEXT = 2;
+	static final double NAME_WEIGHT = 4.0;
+	static final double TEXT_WEIGHT = 1.0;
+
+	// Long literals (rules etc) only have their first words indexed
+	static final int MAX_WORDS = 200;
+	static final int MAX_WORD_LENGTH = 40;
+
+	// Word -> resources it occurs in (with the fields it occurs in)
+	TreeMap<String, HashMap<String, Integer>> words;
+	// Resource -> its words (with the fields they occur in)
+	HashMap<String, HashMap<String, Integer>> resources;
+
+	public TextIndex(Graph graph) {
+		this.words = new TreeMap<String, HashMap<String, Integer>>();
+		this.resources = new HashMap<String, HashMap<String, Integer>>();
+		this.build(graph);
+	}
+
+	/**
+	 * Re-indexes the resources from the graph (after their statements were
+	 * added or removed)
+	 */
+	public synchronized void update(Graph graph, Collection<Node> subjects) {
+		for (Node subject : subjects) {
+			if (!subject.isURI())
+				continue;
+			String id = subject.getURI();
+			HashMap<String, Integer> old = this.resources.remove(id);
+			if (old != null) {
+				for (String word : old.keySet()) {
+					HashMap<String, Integer> postings = this.words.get(word);
+					postings.remove(id);
+					if (postings.isEmpty())
+						this.words.remove(word);
+				}
+			}
+			HashMap<String, Integer> entry = null;
+			ExtendedIterator<Triple> it = graph.find(subject, Node.ANY, Node.ANY);
+			try {
+				while (it.hasNext()) {
+					Triple t = it.next();
+					if (entry == null) {
+						entry = new HashMap<String, Integer>();
+						addWords(entry, subject.getLocalName(), NAME);
+					}
+					if (t.getObject().isLiteral())
+						addWords(entry, t.getObject().getLiteralLexicalForm(), TEXT);
+				}
+			}
+			finally {
+				it.close();
+			}
+			if (entry != null)
+				this.add(id, entry);
+		}
+	}
+
+	/**
+	 * Returns the ids of the resources that match all words of the text, best
+	 * matches first. The last word (or all of them) may be the prefix of a
+	 * word. Matches in names count more than matches in values, and rare words
+	 * more than common ones. No more than limit ids are returned (if limit > 0)
+	 */
+	public ArrayList<String> search(String text, int limit) {
+		return rank(this.getScores(text), limit);
+	}
+
+	/**
+	 * Returns the scores of the resources that match all words of the text
+	 */
+	public synchronized HashMap<String, Double> getScores(String text) {
+		HashMap<String, Double> scores = null;
+		for (String term : getWords(text, false)) {
+			HashMap<String, Double> termscores = new HashMap<String, Double>();
+			for (Map.Entry<String, HashMap<String, Integer>> entry : this.words.subMap(term,
+					term + Character.MAX_VALUE).entrySet()) {
+				String word = entry.getKey();
+				HashMap<String, Integer> postings = entry.getValue();
+				double weight = Math.log(1.0 + (double) this.resources.size() / postings.size());
+				if (!word.equals(term))
+					weight *= 0.5 * term.length() / word.length();
+				for (Map.Entry<String, Integer> posting : postings.entrySet()) {
+					int fields = posting.getValue();
+					double score = weight * (((fields & NAME) != 0 ? NAME_WEIGHT : 0)
+							+ ((fields & TEXT) != 0 ? TEXT_WEIGHT : 0));
+					Double best = termscores.get(posting.getKey());
+					if (best == null || best < score)
+						termscores.put(posting.getKey(), score);
+				}
+			}
+			if (scores == null) {
+				scores = termscores;
+			}
+			else {
+				HashMap<String, Double> both = new HashMap<String, Double>();
+				for (Map.Entry<String, Double> entry : scores.entrySet()) {
+					Double score = termscores.get(entry.getKey());
+					if (score != null)
+						both.put(entry.getKey(), entry.getValue() + score);
+				}
+				scores = both;
+			}
+			if (scores.isEmpty())
+				break;
+		}
+		return scores != null ? scores : new HashMap<String, Double>();
+	}
+
+	/**
+	 * Returns the ids with the best scores first (no more than limit ids, if
+	 * limit > 0)
+	 */
+	public static ArrayList<String> rank(HashMap<String, Double> scores, int limit) {
+		ArrayList<Map.Entry<String, Double>> matches =
+				new ArrayList<Map.Entry<String, Double>>(scores.entrySet());
+		Collections.sort(matches, new Comparator<Map.Entry<String, Double>>() {
+			public int compare(Map.Entry<String, Double> m1, Map.Entry<String, Double> m2) {
+				int cmp = Double.compare(m2.getValue(), m1.getValue());
+				return cmp != 0 ? cmp : m1.getKey().compareTo(m2.getKey());
+			}
+		});
+		ArrayList<String> ids = new ArrayList<String>();
+		for (Map.Entry<String, Double> match : matches) {
+			if (limit > 0 && ids.size() >= limit)
+				break;
+			ids.add(match.getKey());
+		}
+		return ids;
+	}
+
+	private void build(Graph graph) {
+		HashMap<String, HashMap<String, Integer>> entries =
+				new HashMap<String, HashMap<String, Integer>>();
+		ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+		try {
+			while (it.hasNext()) {
+				Triple t = it.next();
+				Node subject = t.getSubject();
+				if (!subject.isURI())
+					continue;
+				HashMap<String, Integer> entry = entries.get(subject.getURI());
+				if (entry == null) {
+					entry = new HashMap<String, Integer>();
+					addWords(entry, subject.getLocalName(), NAME);
+					entries.put(subject.getURI(), entry);
+				}
+				if (t.getObject().isLiteral())
+					addWords(entry, t.getObject().getLiteralLexicalForm(), TEXT);
+			}
+		}
+		finally {
+			it.close();
+		}
+		for (Map.Entry<String, HashMap<String, Integer>> entry : entries.entrySet())
+			this.add(entry.getKey(), entry.getValue());
+	}
+
+	private void add(String id, HashMap<String, Integer> entry) {
+		if (entry.isEmpty())
+			return;
+		this.resources.put(id, entry);
+		for (Map.Entry<String, Integer> word : entry.entrySet()) {
+			HashMap<String, Integer> postings = this.words.get(word.getKey());
+			if (postings == null) {
+				postings = new HashMap<String, Integer>();
+				this.words.put(word.getKey(), postings);
+			}
+			postings.put(id, word.getValue());
+		}
+	}
+
+	private static void addWords(HashMap<String, Integer> entry, String text, int field) {
+		for (String word : getWords(text, field == NAME)) {
+			Integer fields = entry.get(word);
+			entry.put(word, fields == null ? field : fields | field);
+		}
+	}
+
+	/**
+	 * Splits the text into lower case words at non alphanumeric characters and
+	 * camel case humps. Names are also found by their whole text
+	 */
+	static ArrayList<String> getWords(String text, boolean name) {
+		ArrayList<String> words = new ArrayList<String>();
+		if (text == null)
+			return words;
+		StringBuilder word = new StringBuilder();
+		char prev = 0;
+		for (int i = 0; i < text.length() && words.size() < MAX_WORDS; i++) {
+			char c = text.charAt(i);
+			boolean hump = Character.isUpperCase(c) && Character.isLowerCase(prev);
+			if (!Character.isLetterOrDigit(c) || hump) {
+				addWord(words, word);
+				word.setLength(0);
+			}
+			if (Character.isLetterOrDigit(c))
+				word.append(Character.toLowerCase(c));
+			prev = c;
+		}
+		addWord(words, word);
+		if (name && words.size() > 1 && text.length() <= MAX_WORD_LENGTH)
+			words.add(text.toLowerCase());
+		return words;
+	}
+
+	private static void addWord(ArrayList<String> words, StringBuilder word) {
+		if (word.length() > 0 && word.length() <= MAX_WORD_LENGTH)
+			words.add(word.toString());
+	}
+}
@@ -0,0 +1,79 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * A process-wide cache of text indexes, one for each KB url. An index is
+ * kept along with the stamp (modification time and size of the file, see
+ * GraphCache) of the contents it was built from, so a file changed outside
+ * of the process is indexed again on the next search. Saves made in the
+ * process update the index instead, and the index takes the stamp of the
+ * saved file on the next search.
+ */
+public class TextIndexCache {
+	private HashMap<String, CacheEntry> entries;
+
+	public TextIndexCache() {
+		this.entries = new HashMap<String, CacheEntry>();
+	}
+
+	/**
+	 * Returns the index of the url, or null if the url hasn't been indexed, or
+	 * if its contents have changed since. The stamp is that of the current
+	 * contents of the url
+	 */
+	public synchronized TextIndex get(String url, String stamp) {
+		CacheEntry entry = this.entries.get(url);
+		if (entry == null || stamp == null)
+			return null;
+		if (entry.stamp == null)
+			entry.stamp = stamp;
+		if (!stamp.equals(entry.stamp)) {
+			this.entries.remove(url);
+			return null;
+		}
+		return entry.index;
+	}
+
+	public synchronized void put(String url, String stamp, TextIndex index) {
+		if (stamp != null)
+			this.entries.put(url, new CacheEntry(stamp, index));
+	}
+
+	/**
+	 * Re-indexes the subjects changed by a save of the url. The index takes
+	 * the stamp of the saved contents on the next get
+	 */
+	public void update(String url, Graph graph, Collection<Node> subjects) {
+		CacheEntry entry;
+		synchronized (this) {
+			entry = this.entries.get(url);
+			if (entry == null)
+				return;
+			entry.stamp = null;
+		}
+		entry.index.update(graph, subjects);
+	}
+
+	public synchronized void remove(String url) {
+		this.entries.remove(url);
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	private static class CacheEntry {
+		String stamp;
+		TextIndex index;
+
+		CacheEntry(String stamp, TextIndex index) {
+			this.stamp = stamp;
+			this.index = index;
+		}
+	}
+}
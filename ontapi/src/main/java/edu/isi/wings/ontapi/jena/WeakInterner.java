@@ -0,0 +1,54 @@
+package edu.isi.wings.ontapi.jena;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * Interns values through weak references : equal values share a single
+ * canonical instance while it is in use, and the table doesn't keep values
+ * alive once nothing else refers to them. The table is split into stripes
+ * (by hash) so that threads interning different values rarely wait on each
+ * other.
+ */
+public class WeakInterner<T> {
+	static final int STRIPES = 16;
+
+	WeakHashMap<T, WeakReference<T>>[] stripes;
+
+	@SuppressWarnings("unchecked")
+	public WeakInterner() {
+		this.stripes = new WeakHashMap[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			this.stripes[i] = new WeakHashMap<T, WeakReference<T>>();
+	}
+
+	/**
+	 * Returns the canonical instance equal to the value (the value itself if
+	 * there is none yet)
+	 */
+	public T intern(T value) {
+		if (value == null)
+			return null;
+		WeakHashMap<T, WeakReference<T>> table = this.stripes[(value.hashCode() & 0x7fffffff)
+				% STRIPES];
+		synchronized (table) {
+			WeakReference<T> ref = table.get(value);
+			T canonical = ref != null ? ref.get() : null;
+			if (canonical == null) {
+				table.put(value, new WeakReference<T>(value));
+				canonical = value;
+			}
+			return canonical;
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (WeakHashMap<T, WeakReference<T>> table : this.stripes) {
+			synchronized (table) {
+				size += table.size();
+			}
+		}
+		return size;
+	}
+}
@@ -0,0 +1,65 @@
+package edu.isi.wings.ontapi.jena.extrules.util;
+
+import java.util.List;
+
+import com.hp.hpl.jena.reasoner.rulesys.*;
+import com.hp.hpl.jena.reasoner.rulesys.builtins.BaseBuiltin;
+import com.hp.hpl.jena.graph.*;
+import com.hp.hpl.jena.util.PrintUtil;
+
+/**
+ * Replaces the standard print builtin. Prints its arguments (separated by
+ * spaces) as a line of the output list set for the current thread, or to
+ * System.out if no list is set. Printouts of rules run at the same time in
+ * different threads are kept apart this way.
+ */
+public class Print extends BaseBuiltin {
+	static ThreadLocal<List<String>> output = new ThreadLocal<List<String>>();
+
+	/**
+	 * Sets the list that printouts of the current thread are added to (null
+	 * to print to System.out). Returns the list that was set before
+	 */
+	public static List<String> setOutput(List<String> lines) {
+		List<String> old = output.get();
+		if (lines == null)
+			output.remove();
+		else
+			output.set(lines);
+		return old;
+	}
+
+	/**
+	 * Return a name for this builtin, normally this will be the name of the
+	 * functor that will be used to invoke it.
+	 */
+	public String getName() {
+		return "print";
+	}
+
+	/**
+	 * Prints the arguments. Always succeeds
+	 */
+	public boolean bodyCall(Node[] args, int length, RuleContext context) {
+		print(args, length, context);
+		return true;
+	}
+
+	/**
+	 * Prints the arguments when called in a rule head
+	 */
+	public void headAction(Node[] args, int length, RuleContext context) {
+		print(args, length, context);
+	}
+
+	private void print(Node[] args, int length, RuleContext context) {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < length; i++)
+			line.append(PrintUtil.print(getArg(i, args, context))).append(" ");
+		List<String> lines = output.get();
+		if (lines != null)
+			lines.add(line.toString());
+		else
+			System.out.println(line);
+	}
+}
@@ -0,0 +1,84 @@
+package edu.isi.wings.ontapi.jena.extrules.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import com.hp.hpl.jena.reasoner.rulesys.*;
+import com.hp.hpl.jena.reasoner.rulesys.builtins.BaseBuiltin;
+import com.hp.hpl.jena.graph.*;
+
+/**
+ * Counts what rules do while they are run (see KBAPI.profileRules). A rule
+ * is profiled by adding a "matched" call ahead of its body conditions, which
+ * is reached each time its body patterns match, and a "fired" call after
+ * them, which is reached each time all its conditions hold. Counts go to the
+ * rules being profiled by the current thread.
+ */
+public class RuleCounter extends BaseBuiltin {
+	public static final String MATCHED = "profileMatched";
+	public static final String FIRED = "profileFired";
+
+	// Counts of the rules profiled by the current thread : { matched, fired }
+	static ThreadLocal<IdentityHashMap<Rule, long[]>> counts =
+			new ThreadLocal<IdentityHashMap<Rule, long[]>>();
+
+	String name;
+	int slot;
+
+	public RuleCounter(String name) {
+		this.name = name;
+		this.slot = name.equals(FIRED) ? 1 : 0;
+	}
+
+	/**
+	 * Sets the rules counted for the current thread (null to stop counting).
+	 * Returns the counts that were set before
+	 */
+	public static IdentityHashMap<Rule, long[]> setCounts(IdentityHashMap<Rule, long[]> rules) {
+		IdentityHashMap<Rule, long[]> old = counts.get();
+		if (rules == null)
+			counts.remove();
+		else
+			counts.set(rules);
+		return old;
+	}
+
+	/**
+	 * Returns a copy of the rule with the counting calls added to its body
+	 */
+	public static Rule addCounters(Rule rule) {
+		List<ClauseEntry> body = new ArrayList<ClauseEntry>();
+		body.add(new Functor(MATCHED, new ArrayList<Node>(), BuiltinRegistry.theRegistry));
+		for (ClauseEntry ce : rule.getBody())
+			body.add(ce);
+		body.add(new Functor(FIRED, new ArrayList<Node>(), BuiltinRegistry.theRegistry));
+		List<ClauseEntry> head = new ArrayList<ClauseEntry>();
+		for (ClauseEntry ce : rule.getHead())
+			head.add(ce);
+		Rule counted = new Rule(rule.getName(), head, body);
+		counted.setBackward(rule.isBackward());
+		return counted;
+	}
+
+	/**
+	 * Return a name for this builtin, normally this will be the name of the
+	 * functor that will be used to invoke it.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Counts the call for the rule being run. Always succeeds
+	 */
+	public boolean bodyCall(Node[] args, int length, RuleContext context) {
+		IdentityHashMap<Rule, long[]> rules = counts.get();
+		if (rules != null) {
+			long[] count = rules.get(context.getRule());
+			if (count != null)
+				count[this.slot]++;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,159 @@
+package edu.isi.wings.ontapi.rules;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What each rule did in a run of a rule list (see KBAPI.profileRules) :
+ * the number of times its body patterns matched, the number of times it
+ * fired (i.e. its other conditions held as well) and the new triples it
+ * deduced. Rules share their matching work when they run together, so the
+ * time of each rule is only an estimate, made by running it on its own.
+ *
+ * Profiles of all runs are also added up by rule in a registry, so the most
+ * expensive rules of a domain can be found.
+ */
+public class KBRuleProfile {
+	static volatile boolean enabled = Boolean.getBoolean("wings.profile.rules");
+
+	// Totals of all profiled runs, by rule
+	static ConcurrentHashMap<String, RuleStats> totals = new ConcurrentHashMap<String, RuleStats>();
+
+	LinkedHashMap<String, RuleStats> rules = new LinkedHashMap<String, RuleStats>();
+	double totalMillis;
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Profile the rules run for component checks (also enabled with the
+	 * wings.profile.rules system property)
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * Adds the profile to the registry totals
+	 */
+	public static void record(KBRuleProfile profile) {
+		for (RuleStats stats : profile.rules.values()) {
+			RuleStats total = totals.get(stats.rule);
+			if (total == null) {
+				total = new RuleStats(stats.rule);
+				RuleStats existing = totals.putIfAbsent(stats.rule, total);
+				if (existing != null)
+					total = existing;
+			}
+			total.add(stats);
+		}
+	}
+
+	/**
+	 * Returns the registry totals, most expensive rules first
+	 */
+	public static ArrayList<RuleStats> getTotals() {
+		ArrayList<RuleStats> list = new ArrayList<RuleStats>();
+		for (RuleStats stats : totals.values())
+			list.add(stats.copy());
+		return sort(list);
+	}
+
+	public static void resetTotals() {
+		totals.clear();
+	}
+
+	public static void dump(PrintStream out) {
+		out.println(String.format("%-50s %8s %10s %10s %10s %10s", "Rule", "Runs",
+				"Matches", "Firings", "Deductions", "~Time(ms)"));
+		for (RuleStats s : getTotals()) {
+			String rule = s.rule.length() > 50 ? s.rule.substring(0, 47) + "..." : s.rule;
+			out.println(String.format("%-50s %8d %10d %10d %10d %10.1f", rule, s.runs,
+					s.matches, s.firings, s.deductions, s.estimatedMillis));
+		}
+	}
+
+	/**
+	 * Returns the stats of the rule in this profile (adding them if needed)
+	 */
+	public RuleStats getStats(String rule) {
+		RuleStats stats = this.rules.get(rule);
+		if (stats == null) {
+			stats = new RuleStats(rule);
+			stats.runs = 1;
+			this.rules.put(rule, stats);
+		}
+		return stats;
+	}
+
+	public ArrayList<RuleStats> getRules() {
+		return sort(new ArrayList<RuleStats>(this.rules.values()));
+	}
+
+	// Time taken by the whole rule list
+	public double getTotalMillis() {
+		return this.totalMillis;
+	}
+
+	public void setTotalMillis(double millis) {
+		this.totalMillis = millis;
+	}
+
+	/**
+	 * Returns the profile as explanation lines
+	 */
+	public ArrayList<String> getExplanations() {
+		ArrayList<String> explanations = new ArrayList<String>();
+		explanations.add(String.format("PROFILE %d rules applied in %.1f ms",
+				this.rules.size(), this.totalMillis));
+		for (RuleStats s : this.getRules()) {
+			explanations.add(String.format(
+					"PROFILE %s: %d matches, %d firings, %d deductions, ~%.2f ms", s.rule,
+					s.matches, s.firings, s.deductions, s.estimatedMillis));
+		}
+		return explanations;
+	}
+
+	private static ArrayList<RuleStats> sort(ArrayList<RuleStats> list) {
+		Collections.sort(list, new Comparator<RuleStats>() {
+			public int compare(RuleStats s1, RuleStats s2) {
+				return Double.compare(s2.estimatedMillis, s1.estimatedMillis);
+			}
+		});
+		return list;
+	}
+
+	public static class RuleStats {
+		// Position of the rule in its list, and its short form
+		public String rule;
+		public long runs;
+		public long matches;
+		public long firings;
+		public long deductions;
+		// Time to run the rule on its own over the final triples
+		public double estimatedMillis;
+
+		public RuleStats(String rule) {
+			this.rule = rule;
+		}
+
+		synchronized void add(RuleStats stats) {
+			this.runs += stats.runs;
+			this.matches += stats.matches;
+			this.firings += stats.firings;
+			this.deductions += stats.deductions;
+			this.estimatedMillis += stats.estimatedMillis;
+		}
+
+		synchronized RuleStats copy() {
+			RuleStats stats = new RuleStats(this.rule);
+			stats.add(this);
+			return stats;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package edu.isi.wings.ontapi.tests;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+import edu.isi.wings.ontapi.jena.IntTripleGraph;
+import edu.isi.wings.ontapi.jena.OverlayGraph;
+
+public class GraphTests {
+	static String ns = "http://www.wings-workflows.org/tests/graph.owl#";
+
+	static Node s1 = NodeFactory.createURI(ns + "s1");
+	static Node s2 = NodeFactory.createURI(ns + "s2");
+	static Node p = NodeFactory.createURI(ns + "p");
+	static Node q = NodeFactory.createURI(ns + "q");
+	static Node o1 = NodeFactory.createURI(ns + "o1");
+	static Node lit = NodeFactory.createLiteral("value");
+
+	static Triple t1 = Triple.create(s1, p, o1);
+	static Triple t2 = Triple.create(s1, q, lit);
+	static Triple t3 = Triple.create(s2, p, o1);
+
+	private static List<Triple> find(Graph graph, Node s, Node p, Node o) {
+		return graph.find(s, p, o).toList();
+	}
+
+	@Test
+	public void testIntTripleGraphExactFind() {
+		IntTripleGraph graph = new IntTripleGraph();
+		graph.add(t1);
+		graph.add(t2);
+		graph.add(t3);
+		graph.add(t1);
+		Assert.assertEquals(3, graph.size());
+
+		// Fully bound patterns find the triple itself, or nothing
+		List<Triple> found = find(graph, s1, p, o1);
+		Assert.assertEquals(1, found.size());
+		Assert.assertEquals(t1, found.get(0));
+		Assert.assertTrue(find(graph, s2, q, lit).isEmpty());
+		Assert.assertTrue(graph.contains(t2));
+		Assert.assertFalse(graph.contains(Triple.create(s2, q, lit)));
+
+		// Literals are matched by value
+		Assert.assertTrue(graph.contains(Triple.create(s1, q, NodeFactory.createLiteral("value"))));
+
+		Assert.assertEquals(2, find(graph, s1, Node.ANY, Node.ANY).size());
+		Assert.assertEquals(2, find(graph, Node.ANY, p, o1).size());
+		Assert.assertEquals(3, find(graph, Node.ANY, Node.ANY, Node.ANY).size());
+
+		graph.delete(t1);
+		Assert.assertTrue(find(graph, s1, p, o1).isEmpty());
+		Assert.assertFalse(graph.contains(t1));
+		Assert.assertEquals(1, find(graph, Node.ANY, p, o1).size());
+
+		// Deleted slots are reused
+		graph.add(t1);
+		Assert.assertEquals(1, find(graph, s1, p, o1).size());
+		Assert.assertEquals(3, graph.size());
+	}
+
+	@Test
+	public void testIntTripleGraphIteratorRemove() {
+		IntTripleGraph graph = new IntTripleGraph();
+		graph.add(t1);
+		graph.add(t2);
+		graph.add(t3);
+		ExtendedIterator<Triple> it = graph.find(s1, Node.ANY, Node.ANY);
+		while (it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		Assert.assertEquals(1, graph.size());
+		Assert.assertTrue(graph.contains(t3));
+	}
+
+	@Test
+	public void testOverlayGraphFork() {
+		OverlayGraph graph = new OverlayGraph();
+		graph.add(t1);
+		graph.add(t2);
+
+		OverlayGraph copy = graph.fork();
+		copy.delete(t1);
+		copy.add(t3);
+
+		// Changes to the copy are not seen by the original, and back
+		Assert.assertEquals(2, graph.size());
+		Assert.assertTrue(graph.contains(t1));
+		Assert.assertFalse(graph.contains(t3));
+		Assert.assertEquals(2, copy.size());
+		Assert.assertFalse(copy.contains(t1));
+		Assert.assertTrue(copy.contains(t3));
+
+		graph.delete(t2);
+		Assert.assertTrue(copy.contains(t2));
+
+		List<Triple> found = find(copy, Node.ANY, p, o1);
+		Assert.assertEquals(1, found.size());
+		Assert.assertEquals(t3, found.get(0));
+		Assert.assertEquals(2, find(copy, Node.ANY, Node.ANY, Node.ANY).size());
+
+		// Deleting and adding back a parent triple
+		copy.delete(t2);
+		copy.add(t2);
+		Assert.assertEquals(1, find(copy, s1, q, lit).size());
+		Assert.assertEquals(2, copy.size());
+	}
+
+	@Test
+	public void testOverlayGraphIteratorRemove() {
+		OverlayGraph graph = new OverlayGraph();
+		graph.add(t1);
+		OverlayGraph copy = graph.fork();
+		copy.add(t2);
+
+		// Removes both a parent triple and an added one
+		ExtendedIterator<Triple> it = copy.find(s1, Node.ANY, Node.ANY);
+		int removed = 0;
+		while (it.hasNext()) {
+			it.next();
+			it.remove();
+			removed++;
+		}
+		Assert.assertEquals(2, removed);
+		Assert.assertEquals(0, copy.size());
+		Assert.assertTrue(copy.isEmpty());
+		Assert.assertEquals(1, graph.size());
+		Assert.assertTrue(graph.contains(t1));
+	}
+
+	@Test
+	public void testOverlayGraphDeepForks() {
+		// Forks of forks (past the depth that is flattened) keep their contents
+		OverlayGraph graph = new OverlayGraph();
+		OverlayGraph[] copies = new OverlayGraph[20];
+		for (int i = 0; i < copies.length; i++) {
+			graph.add(Triple.create(s1, p, NodeFactory.createLiteral("v" + i)));
+			if (i > 0)
+				graph.delete(Triple.create(s1, p, NodeFactory.createLiteral("v" + (i - 1))));
+			copies[i] = graph.fork();
+		}
+		for (int i = 0; i < copies.length; i++) {
+			List<Triple> found = find(copies[i], s1, p, Node.ANY);
+			Assert.assertEquals(1, found.size());
+			Assert.assertEquals("v" + i, found.get(0).getObject().getLiteralLexicalForm());
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package edu.isi.wings.ontapi.tests;
 
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
 import org.mindswap.pellet.jena.PelletReasonerFactory;
 
 import com.hp.hpl.jena.ontology.Individual;
@@ -17,11 +21,56 @@ import edu.isi.wings.ontapi.KBAPI;
 import edu.isi.wings.ontapi.KBObject;
 import edu.isi.wings.ontapi.OntFactory;
 import edu.isi.wings.ontapi.OntSpec;
+import edu.isi.wings.ontapi.PreparedSparqlQuery;
+import edu.isi.wings.ontapi.SparqlQuerySolution;
 
 @SuppressWarnings("unused")
 public class KBTests {
 	static String onturl = "http://www.wings-workflows.org/ontology/workflow.owl";
 	static String url = "http://localhost:8080/wings/export/users/1/DMDomain/workflows/ModelAndClassify.owl";
+	static String ns = "http://www.wings-workflows.org/tests/kb.owl#";
+	
+	private KBAPI createTypedKB(OntSpec spec) {
+		KBAPI kb = new OntFactory(OntFactory.JENA).getKB(spec);
+		kb.createClass(ns + "Dataset");
+		kb.createClass(ns + "CSVFile", ns + "Dataset");
+		kb.createObjectOfClass(ns + "file1", kb.getConcept(ns + "CSVFile"));
+		return kb;
+	}
+	
+	private ArrayList<String> getIDs(ArrayList<ArrayList<SparqlQuerySolution>> solutions) {
+		ArrayList<String> ids = new ArrayList<String>();
+		for (ArrayList<SparqlQuerySolution> solution : solutions)
+			ids.add(solution.get(0).getObject().getID());
+		return ids;
+	}
+	
+	@Test
+	public void testLazySparqlQueryInference() {
+		// Instances of a subclass are only typed as the superclass by inference
+		String query = "SELECT ?x WHERE { ?x a <" + ns + "Dataset> }";
+		for (OntSpec spec : new OntSpec[] { OntSpec.LAZY_PELLET, OntSpec.LAZY_MICRO }) {
+			KBAPI kb = this.createTypedKB(spec);
+			Assert.assertEquals(spec.toString(), 1, kb.sparqlQuery(query).size());
+			Assert.assertTrue(getIDs(kb.sparqlQuery(query)).contains(ns + "file1"));
+			
+			PreparedSparqlQuery pquery = kb.prepareQuery(query);
+			Assert.assertTrue(getIDs(pquery.execute()).contains(ns + "file1"));
+			
+			// Changes made after the query was prepared are seen as well
+			kb.createObjectOfClass(ns + "file2", kb.getConcept(ns + "CSVFile"));
+			Assert.assertTrue(getIDs(pquery.execute()).contains(ns + "file2"));
+		}
+	}
+	
+	@Test
+	public void testPlainSparqlQuery() {
+		// Plain KBs only return the asserted types
+		String query = "SELECT ?x WHERE { ?x a <" + ns + "Dataset> }";
+		KBAPI kb = this.createTypedKB(OntSpec.PLAIN);
+		Assert.assertEquals(0, kb.sparqlQuery(query).size());
+		Assert.assertEquals(0, kb.prepareQuery(query).execute().size());
+	}
 	
 	public static void main(String[] args) {
 //		OntFactory fac = new OntFactory(OntFactory.JENA, "/Users/varun/git/fuseki/DB");
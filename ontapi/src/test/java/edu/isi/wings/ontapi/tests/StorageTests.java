@@ -0,0 +1,179 @@
+package edu.isi.wings.ontapi.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+import edu.isi.wings.ontapi.KBAPI;
+import edu.isi.wings.ontapi.OntFactory;
+import edu.isi.wings.ontapi.OntSpec;
+import edu.isi.wings.ontapi.jena.BinaryModelFile;
+import edu.isi.wings.ontapi.jena.SaveQueue;
+
+/**
+ * Tests for the binary model files and the save queue, with KBs mapped to
+ * files in a temporary directory
+ */
+public class StorageTests {
+	static String url = "http://www.wings-workflows.org/tests/storage.owl";
+	static String ns = url + "#";
+
+	File dir;
+	File rdffile;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("wings-kb", "");
+		dir.delete();
+		dir.mkdirs();
+		rdffile = new File(dir, "storage.owl");
+		new OntFactory(OntFactory.JENA).addAltEntry(url, rdffile.toURI().toString());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		OntFactory.setSaveWindow(0);
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private KBAPI getKB(boolean binary) throws Exception {
+		OntFactory fac = new OntFactory(OntFactory.JENA);
+		fac.setBinaryStorage(binary);
+		return fac.getKB(url, OntSpec.PLAIN, true);
+	}
+
+	// Classes in the RDF file, as read without the KB api
+	private boolean rdfFileHasClass(String id) {
+		Model model = ModelFactory.createDefaultModel();
+		model.read(rdffile.toURI().toString());
+		return model.contains(model.getResource(id), RDF.type, OWL.Class);
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws Exception {
+		KBAPI kb = this.getKB(true);
+		kb.createClass(ns + "Dataset");
+		kb.createClass(ns + "CSVFile", ns + "Dataset");
+		Assert.assertTrue(kb.save());
+
+		File binfile = BinaryModelFile.getFile(rdffile);
+		Assert.assertTrue(binfile.exists());
+		Assert.assertEquals(binfile, BinaryModelFile.getCurrentFile(url));
+		Assert.assertFalse(rdfFileHasClass(ns + "Dataset"));
+
+		KBAPI copy = this.getKB(false);
+		Assert.assertNotNull(copy.getConcept(ns + "CSVFile"));
+		Assert.assertEquals(ns + "Dataset",
+				copy.getSuperClasses(copy.getConcept(ns + "CSVFile"), true).get(0).getID());
+
+		// Plain saves replace the binary file
+		copy.createClass(ns + "TextFile");
+		Assert.assertTrue(copy.save());
+		Assert.assertFalse(binfile.exists());
+		Assert.assertTrue(rdfFileHasClass(ns + "TextFile"));
+	}
+
+	@Test
+	public void testBinaryFileWithoutRdfFile() throws Exception {
+		KBAPI kb = this.getKB(true);
+		kb.createClass(ns + "Dataset");
+		Assert.assertTrue(kb.save());
+		Assert.assertTrue(rdffile.delete());
+
+		Assert.assertNotNull(BinaryModelFile.getCurrentFile(url));
+		Assert.assertNotNull(this.getKB(false).getConcept(ns + "Dataset"));
+	}
+
+	@Test
+	public void testEditedRdfFile() throws Exception {
+		KBAPI kb = this.getKB(true);
+		kb.createClass(ns + "Dataset");
+		Assert.assertTrue(kb.save());
+		File binfile = BinaryModelFile.getFile(rdffile);
+
+		// Edit the RDF file, keeping the modification time of the binary file
+		Model model = ModelFactory.createDefaultModel();
+		model.createResource(ns + "Edited").addProperty(RDF.type, OWL.Class);
+		OutputStream out = FileUtils.openOutputStream(rdffile);
+		model.write(out, "RDF/XML");
+		out.close();
+		rdffile.setLastModified(binfile.lastModified());
+
+		Assert.assertNull(BinaryModelFile.getCurrentFile(url));
+		KBAPI copy = this.getKB(false);
+		Assert.assertNotNull(copy.getConcept(ns + "Edited"));
+		Assert.assertNull(copy.getConcept(ns + "Dataset"));
+
+		// Edited RDF files aren't exported over
+		OntFactory.exportRdfFiles(dir.getPath());
+		Assert.assertTrue(rdfFileHasClass(ns + "Edited"));
+	}
+
+	@Test
+	public void testExportRdfFiles() throws Exception {
+		KBAPI kb = this.getKB(true);
+		kb.createClass(ns + "Dataset");
+		Assert.assertTrue(kb.save());
+
+		OntFactory.exportRdfFiles(dir.getPath());
+		Assert.assertTrue(rdfFileHasClass(ns + "Dataset"));
+		// Written like a save of the url
+		Assert.assertTrue(FileUtils.readFileToString(rdffile).contains("xml:base=\"" + url + "\""));
+		// The binary file stays in use
+		Assert.assertNotNull(BinaryModelFile.getCurrentFile(url));
+
+		long modified = rdffile.lastModified();
+		long length = rdffile.length();
+		OntFactory.exportRdfFiles(dir.getPath());
+		Assert.assertEquals(modified, rdffile.lastModified());
+		Assert.assertEquals(length, rdffile.length());
+	}
+
+	@Test
+	public void testSaveQueueFlush() throws Exception {
+		OntFactory.setSaveWindow(60000);
+		KBAPI kb = this.getKB(false);
+		kb.createClass(ns + "Dataset");
+		Assert.assertTrue(kb.save());
+		kb.createClass(ns + "CSVFile");
+		Assert.assertTrue(kb.save());
+
+		// Nothing is written until the queue is flushed, and then only the
+		// latest save is
+		Assert.assertFalse(rdfFileHasClass(ns + "Dataset"));
+		SaveQueue.flush(url);
+		Assert.assertTrue(rdfFileHasClass(ns + "Dataset"));
+		Assert.assertTrue(rdfFileHasClass(ns + "CSVFile"));
+
+		// Loading the url writes its queued save first
+		kb.createClass(ns + "TextFile");
+		Assert.assertTrue(kb.save());
+		Assert.assertFalse(rdfFileHasClass(ns + "TextFile"));
+		Assert.assertNotNull(this.getKB(false).getConcept(ns + "TextFile"));
+		Assert.assertTrue(rdfFileHasClass(ns + "TextFile"));
+	}
+
+	@Test
+	public void testSaveQueueDelete() throws Exception {
+		OntFactory.setSaveWindow(60000);
+		KBAPI kb = this.getKB(false);
+		kb.createClass(ns + "Dataset");
+		Assert.assertTrue(kb.save());
+
+		// A delete drops the queued save, so the file doesn't come back
+		Assert.assertTrue(kb.delete());
+		SaveQueue.flush();
+		Assert.assertFalse(rdffile.exists());
+	}
+}
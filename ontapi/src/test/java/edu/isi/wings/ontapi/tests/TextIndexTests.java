@@ -0,0 +1,117 @@
+package edu.isi.wings.ontapi.tests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+import edu.isi.wings.ontapi.KBAPI;
+import edu.isi.wings.ontapi.KBObject;
+import edu.isi.wings.ontapi.OntFactory;
+import edu.isi.wings.ontapi.OntSpec;
+import edu.isi.wings.ontapi.jena.TextIndex;
+
+public class TextIndexTests {
+	static String ns = "http://www.wings-workflows.org/tests/text.owl#";
+
+	static Node expression = NodeFactory.createURI(ns + "GeneExpressionData");
+	static Node model = NodeFactory.createURI(ns + "ModelData");
+	static Node trainer = NodeFactory.createURI(ns + "TrainModel");
+
+	private static void comment(Graph graph, Node subject, String text) {
+		graph.add(Triple.create(subject, RDFS.comment.asNode(), NodeFactory.createLiteral(text)));
+	}
+
+	private Graph createGraph() {
+		Graph graph = Factory.createGraphMem();
+		comment(graph, expression, "Microarray values");
+		comment(graph, model, "A model learned from gene data");
+		comment(graph, trainer, "Learns a model");
+		return graph;
+	}
+
+	@Test
+	public void testSearch() {
+		TextIndex index = new TextIndex(this.createGraph());
+
+		// Names are split into words at camel case humps
+		Assert.assertEquals(Collections.singletonList(ns + "GeneExpressionData"),
+				index.search("expression", 0));
+		Assert.assertEquals(Collections.singletonList(ns + "GeneExpressionData"),
+				index.search("MICROARRAY", 0));
+		// Words are matched by prefix
+		Assert.assertEquals(Collections.singletonList(ns + "GeneExpressionData"),
+				index.search("expr", 0));
+		// All words have to match
+		Assert.assertEquals(Collections.singletonList(ns + "ModelData"),
+				index.search("gene learned", 0));
+		Assert.assertTrue(index.search("gene unknown", 0).isEmpty());
+		Assert.assertTrue(index.search("", 0).isEmpty());
+	}
+
+	@Test
+	public void testRanking() {
+		TextIndex index = new TextIndex(this.createGraph());
+
+		// Matches in names come before matches in values
+		ArrayList<String> ids = index.search("gene", 0);
+		Assert.assertEquals(2, ids.size());
+		Assert.assertEquals(ns + "GeneExpressionData", ids.get(0));
+		Assert.assertEquals(ns + "ModelData", ids.get(1));
+
+		// Matches in both count more than matches in names only
+		ids = index.search("data", 0);
+		Assert.assertEquals(2, ids.size());
+		Assert.assertEquals(ns + "ModelData", ids.get(0));
+		Assert.assertEquals(Collections.singletonList(ns + "ModelData"), index.search("data", 1));
+
+		// Ties are ranked by id
+		ids = index.search("model", 0);
+		Assert.assertEquals(2, ids.size());
+		Assert.assertEquals(ns + "ModelData", ids.get(0));
+		Assert.assertEquals(ns + "TrainModel", ids.get(1));
+	}
+
+	@Test
+	public void testUpdate() {
+		Graph graph = this.createGraph();
+		TextIndex index = new TextIndex(graph);
+
+		Node table = NodeFactory.createURI(ns + "TableData");
+		comment(graph, table, "Rows of microarray values");
+		graph.delete(Triple.create(expression, RDFS.comment.asNode(),
+				NodeFactory.createLiteral("Microarray values")));
+		Assert.assertEquals(1, index.search("microarray", 0).size());
+
+		ArrayList<Node> changed = new ArrayList<Node>();
+		changed.add(table);
+		changed.add(expression);
+		index.update(graph, changed);
+		Assert.assertEquals(Collections.singletonList(ns + "TableData"),
+				index.search("microarray", 0));
+		// Resources without statements are no longer found
+		Assert.assertTrue(index.search("expression", 0).isEmpty());
+	}
+
+	@Test
+	public void testKBSearch() throws Exception {
+		KBAPI kb = new OntFactory(OntFactory.JENA).getKB(OntSpec.PLAIN);
+		kb.createClass(ns + "GeneExpressionData");
+		kb.createClass(ns + "ModelData");
+		ArrayList<KBObject> found = kb.search("expression", 0);
+		Assert.assertEquals(1, found.size());
+		Assert.assertEquals(ns + "GeneExpressionData", found.get(0).getID());
+
+		// Unsaved changes are searched
+		kb.createClass(ns + "ExpressionTable");
+		Assert.assertEquals(2, kb.search("expression", 0).size());
+	}
+}
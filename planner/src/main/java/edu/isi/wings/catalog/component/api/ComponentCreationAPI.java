@@ -1,5 +1,7 @@
 package edu.isi.wings.catalog.component.api;
 
+import java.util.ArrayList;
+
 import edu.isi.wings.catalog.component.classes.Component;
 import edu.isi.wings.catalog.component.classes.ComponentTree;
 
@@ -12,6 +14,9 @@ public interface ComponentCreationAPI {
 	String getComponentLocation(String cid);
 
 	String getComponentHolderId(String cid);
+
+	// Components whose names, documentation or rules match the text
+	ArrayList<Component> searchComponents(String text, int limit);
 	
 	// Update
 	boolean addComponent(Component comp, String pholderid);
@@ -70,6 +70,31 @@ public class ComponentCreationKB extends ComponentKB implements ComponentCreatio
 		return tree;
 	}
 
+	@Override
+	public ArrayList<Component> searchComponents(String text, int limit) {
+		ArrayList<Component> list = new ArrayList<Component>();
+		KBObject topcls = this.kb.getConcept(this.topclass);
+		// Matches also include roles, holders etc. Check the best matches a
+		// page at a time, and stop once enough components are found
+		int pagesize = limit > 0 ? 2 * limit : 0;
+		int checked = 0;
+		while (true) {
+			ArrayList<KBObject> objs = this.kb.search(text, pagesize);
+			for (int i = checked; i < objs.size(); i++) {
+				KBObject compobj = this.kb.getIndividual(objs.get(i).getID());
+				if (compobj != null && topcls != null && this.kb.isA(compobj, topcls)) {
+					list.add(this.getComponent(compobj.getID(), false));
+					if (limit > 0 && list.size() >= limit)
+						return list;
+				}
+			}
+			if (pagesize == 0 || objs.size() < pagesize)
+				return list;
+			checked = objs.size();
+			pagesize *= 2;
+		}
+	}
+
 	@Override
 	public Component getComponent(String cid, boolean details) {
 		KBObject compobj = kb.getIndividual(cid);
@@ -114,6 +139,8 @@ public class ComponentCreationKB extends ComponentKB implements ComponentCreatio
 	public boolean updateComponent(Component comp) {
 		if(comp == null) return false;
 		
+		this.invalidateComponentRules();
+		
 		// Remove existing component assertions and re-add the new component details
 		boolean ok1 = this.removeComponent(comp.getID(), false, false);
 		boolean ok2 = this.addComponent(comp, null);
@@ -124,8 +151,15 @@ public class ComponentCreationKB extends ComponentKB implements ComponentCreatio
 
 	@Override
 	public boolean save() {
-		if(this.writerkb != null)
-			return this.writerkb.save();
+		if(this.writerkb != null) {
+			boolean ok = this.writerkb.save();
+			this.invalidateComponentRules();
+			// Reasoning catalogs load the concrete components too
+			if (ok && this.useClassificationSnapshot)
+				this.ontologyFactory.updateClassificationSnapshot(
+						this.getClassificationSources(true));
+			return ok;
+		}
 		return false;
 	}
 	
@@ -186,6 +220,7 @@ public class ComponentCreationKB extends ComponentKB implements ComponentCreatio
 			this.setComponentLocation(cid, comp.getLocation());
 		
 		if(comp.getRulesText() != null) {
+			this.invalidateComponentRules();
 			this.setComponentRules(cid, comp.getRulesText());
 		}
 		
@@ -211,6 +246,8 @@ public class ComponentCreationKB extends ComponentKB implements ComponentCreatio
 		KBObject compobj = kb.getIndividual(cid);
 		if(compobj == null) return false;
 		
+		this.invalidateComponentRules();
+		
 		//Remove holder
 		if(remove_holder) {
 			String holderid = this.getComponentHolderId(cid);
@@ -261,6 +298,7 @@ public class ComponentCreationKB extends ComponentKB implements ComponentCreatio
 
 	@Override
 	public boolean renameComponent(String oldid, String newid) {
+		this.invalidateComponentRules();
 		KBUtils.renameAllTriplesWith(writerkb, this.getComponentHolderId(oldid), 
 				this.getComponentHolderId(newid), false);
 		KBUtils.renameAllTriplesWith(writerkb, oldid, newid, false);
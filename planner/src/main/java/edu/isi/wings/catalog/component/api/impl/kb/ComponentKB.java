@@ -6,11 +6,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.concurrent.Future;
 
 import edu.isi.wings.common.kb.KBUtils;
 import edu.isi.wings.ontapi.KBAPI;
 import edu.isi.wings.ontapi.KBObject;
 import edu.isi.wings.ontapi.KBTriple;
+import edu.isi.wings.ontapi.KBTripleBatch;
 import edu.isi.wings.ontapi.OntFactory;
 import edu.isi.wings.ontapi.OntSpec;
 import edu.isi.wings.ontapi.rules.KBRule;
@@ -41,11 +43,27 @@ public class ComponentKB {
 	protected HashMap<String, KBObject> conceptMap;
 
 	protected ArrayList<KBTriple> domainKnowledge;
+	protected KBTripleBatch domainKnowledgeBatch;
 	protected HashMap<String, String> rulePrefixes;
 
 	protected boolean load_concrete;
 	
 	protected Properties props;
+	
+	// Use a saved classification of the (read-only) catalog instead of Pellet
+	protected boolean useClassificationSnapshot;
+	
+	// Only run the reasoner for queries that need entailments
+	protected boolean useLazyReasoning;
+	
+	// Parsed component rules, shared by all catalogs using the same abstract library
+	private static HashMap<String, RuleCache> ruleCaches = new HashMap<String, RuleCache>();
+	
+	// Version of the rule cache when this catalog was loaded
+	protected int ruleCacheVersion;
+	
+	// Stamp of the library files when this catalog was loaded
+	protected String ruleCacheStamp;
 
 	/**
 	 * Constructor
@@ -60,6 +78,9 @@ public class ComponentKB {
 	public ComponentKB(Properties props, boolean load_concrete, 
 			boolean create_writers, boolean create_if_empty) {
 		this.props = props;
+		this.useClassificationSnapshot = 
+				Boolean.parseBoolean(props.getProperty("reasoner.snapshot"));
+		this.useLazyReasoning = Boolean.parseBoolean(props.getProperty("reasoner.lazy"));
 		
 		String hash = "#";
 		this.dcns = props.getProperty("ont.data.url") + hash;
@@ -87,8 +108,17 @@ public class ComponentKB {
 	}
 	
 	protected void initializeAPI(boolean create_writers, boolean create_if_empty) {
+		this.ruleCacheStamp = this.getRuleCacheStamp();
+		this.ruleCacheVersion = this.getRuleCache().version;
+		boolean classified = this.useClassificationSnapshot && !create_writers;
+		// Parse the domain data and component ontologies while the library loads
+		Future<KBAPI> domload = this.ontologyFactory.loadKB(props.getProperty("ont.domain.data.url"),
+				OntSpec.PLAIN, create_if_empty, false, true);
+		Future<KBAPI> compload = this.ontologyFactory.loadKB(props.getProperty("ont.component.url"),
+				OntSpec.PLAIN, create_if_empty, true, true);
 		try {
-			this.kb = this.ontologyFactory.getKB(absurl, OntSpec.PELLET, create_if_empty);
+			this.kb = this.ontologyFactory.getKB(absurl, 
+					classified ? OntSpec.PLAIN : this.getReasonerSpec(), create_if_empty);
 		}
 		catch(Exception e) {
 			// Legacy Porting:  
@@ -102,15 +132,17 @@ public class ComponentKB {
 		}
 		
 		try {
+			// The concrete library may have been changed by the legacy porting above
 			if (load_concrete) {
 				this.kb.importFrom(this.ontologyFactory.getKB(liburl, OntSpec.PLAIN, create_if_empty));
 			}
-			this.kb.importFrom(this.ontologyFactory.getKB(props.getProperty("ont.domain.data.url"),
-					OntSpec.PLAIN, create_if_empty));
-			this.kb.importFrom(this.ontologyFactory.getKB(props.getProperty("ont.component.url"),
-					OntSpec.PLAIN, create_if_empty, true));
+			this.kb.importFrom(OntFactory.getLoadedKB(domload));
+			this.kb.importFrom(OntFactory.getLoadedKB(compload));
 //			this.kb.importFrom(this.ontologyFactory.getKB(props.getProperty("ont.data.url"),
 //					OntSpec.PLAIN, true, true));
+			if (classified)
+				this.kb = this.ontologyFactory.getClassifiedKB(this.kb, 
+						this.getClassificationSources(load_concrete));
 	
 			if (create_writers) {
 				if (load_concrete)
@@ -126,6 +158,20 @@ public class ComponentKB {
 			e.printStackTrace();
 		}
 	}
+	
+	protected OntSpec getReasonerSpec() {
+		return this.useLazyReasoning ? OntSpec.LAZY_PELLET : OntSpec.PELLET;
+	}
+	
+	protected ArrayList<String> getClassificationSources(boolean concrete) {
+		ArrayList<String> sources = new ArrayList<String>();
+		sources.add(absurl);
+		if (concrete)
+			sources.add(liburl);
+		sources.add(props.getProperty("ont.domain.data.url"));
+		sources.add(props.getProperty("ont.component.url"));
+		return sources;
+	}
 
 	private void initializeMaps(KBAPI kb) {
 		this.objPropMap = new HashMap<String, KBObject>();
@@ -159,6 +205,8 @@ public class ComponentKB {
 		KBObject dcDataMetricsProp = this.kb.getProperty(this.dcns + "hasDataMetrics");
 		domainKnowledge.addAll(kb.genericTripleQuery(null, rdfsSubProp, dcMetricsProp));
 		domainKnowledge.addAll(kb.genericTripleQuery(null, rdfsSubProp, dcDataMetricsProp));
+		// Encoded once, as it is added to a temporary kb for every component check
+		domainKnowledgeBatch = kb.encodeTriples(domainKnowledge);
 	}
 
 	public String getComponentLocation(String cid) {
@@ -186,9 +234,86 @@ public class ComponentKB {
 	}
 	
 	protected KBRuleList getComponentRules(String cid) {
-		KBRuleList comprules = this.getDirectComponentRules(cid);
-		comprules.mergeRules(this.getInheritedComponentRules(cid));
-		return comprules;
+		RuleCache cache = this.getRuleCache();
+		synchronized (cache) {
+			KBRuleList comprules = cache.rules.get(cid);
+			if (comprules == null) {
+				comprules = this.getDirectComponentRules(cid);
+				comprules.mergeRules(this.getInheritedComponentRules(cid));
+				// Don't cache rules read from a library that has been modified since
+				if (cache.version == this.ruleCacheVersion)
+					cache.rules.put(cid, comprules);
+			}
+			return comprules;
+		}
+	}
+	
+	/**
+	 * Parse and cache the rules of all components in the catalog
+	 */
+	protected void precomputeComponentRules() {
+		RuleCache cache = this.getRuleCache();
+		synchronized (cache) {
+			if (!cache.rules.isEmpty())
+				return;
+		}
+		KBObject topcls = this.kb.getConcept(this.topclass);
+		if (topcls == null)
+			return;
+		for (KBObject compobj : this.kb.getInstancesOfClass(topcls, false))
+			this.getComponentRules(compobj.getID());
+	}
+	
+	/**
+	 * Drop cached rules after any change to components in the library
+	 */
+	protected void invalidateComponentRules() {
+		RuleCache cache = this.getRuleCache();
+		synchronized (cache) {
+			cache.rules.clear();
+			cache.version++;
+			this.ruleCacheVersion = cache.version;
+		}
+	}
+	
+	/**
+	 * Returns the rule cache of the library. Cached rules of library files
+	 * that have changed since (i.e. changes made outside of this process, or
+	 * a library deleted and created again under the same url) are dropped
+	 */
+	private RuleCache getRuleCache() {
+		synchronized (ruleCaches) {
+			RuleCache cache = ruleCaches.get(this.absurl);
+			if (cache == null || !cache.isFor(this.ruleCacheStamp)) {
+				cache = new RuleCache(this.ruleCacheStamp);
+				ruleCaches.put(this.absurl, cache);
+			}
+			return cache;
+		}
+	}
+	
+	// Stamps of the abstract and concrete library files (null if they can't
+	// be checked for changes)
+	private String getRuleCacheStamp() {
+		String absstamp = this.ontologyFactory.getContentStamp(this.absurl);
+		String libstamp = this.ontologyFactory.getContentStamp(this.liburl);
+		if (absstamp == null || libstamp == null)
+			return null;
+		return absstamp + " " + libstamp;
+	}
+	
+	private static class RuleCache {
+		int version;
+		String stamp;
+		HashMap<String, KBRuleList> rules = new HashMap<String, KBRuleList>();
+		
+		RuleCache(String stamp) {
+			this.stamp = stamp;
+		}
+		
+		boolean isFor(String stamp) {
+			return this.stamp == null ? stamp == null : this.stamp.equals(stamp);
+		}
 	}
 	
 	protected KBRuleList getDirectComponentRules(String cid) {
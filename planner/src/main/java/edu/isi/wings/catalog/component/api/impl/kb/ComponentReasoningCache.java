@@ -0,0 +1,287 @@
+package edu.isi.wings.catalog.component.api.impl.kb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.isi.wings.catalog.component.classes.ComponentPacket;
+import edu.isi.wings.catalog.data.classes.metrics.Metric;
+import edu.isi.wings.catalog.data.classes.metrics.Metrics;
+import edu.isi.wings.ontapi.KBObject;
+import edu.isi.wings.ontapi.KBTriple;
+import edu.isi.wings.ontapi.OntFactory;
+import edu.isi.wings.workflow.template.classes.Role;
+import edu.isi.wings.workflow.template.classes.sets.Binding;
+import edu.isi.wings.workflow.template.classes.sets.ValueBinding;
+import edu.isi.wings.workflow.template.classes.sets.WingsSet;
+import edu.isi.wings.workflow.template.classes.variables.ComponentVariable;
+import edu.isi.wings.workflow.template.classes.variables.Variable;
+
+/**
+ * Results of component reasoning queries, keyed by a canonical description of
+ * the queried ComponentPacket. Sibling templates in a planning run ask the
+ * same questions about a component (same bindings, variables and
+ * constraints), so the answers are kept and copied out for every packet that
+ * asks again. The least recently used results are dropped.
+ */
+class ComponentReasoningCache {
+	static final int MAX_ENTRIES = Integer.getInteger("wings.reasoning.cache.size", 1024);
+
+	OntFactory ontologyFactory;
+	LinkedHashMap<String, Object> entries;
+
+	ComponentReasoningCache(OntFactory ontologyFactory) {
+		this.ontologyFactory = ontologyFactory;
+		this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		};
+	}
+
+	synchronized Object get(String key) {
+		return this.entries.get(key);
+	}
+
+	synchronized void put(String key, Object value) {
+		if (MAX_ENTRIES > 0)
+			this.entries.put(key, value);
+	}
+
+	synchronized void clear() {
+		this.entries.clear();
+	}
+
+	/**
+	 * Returns copies of the cached data details for the packet (null if there
+	 * are none). Parameter values found for the packet variables are set again
+	 */
+	ArrayList<ComponentPacket> getDataDetails(String key, ComponentPacket details) {
+		Object entry = this.get(key);
+		if (!(entry instanceof DataDetails))
+			return null;
+		return ((DataDetails) entry).restore(details, this.ontologyFactory);
+	}
+
+	void putDataDetails(String key, ComponentPacket details, ArrayList<ComponentPacket> list) {
+		DataDetails entry = DataDetails.snapshot(details, list, this.ontologyFactory);
+		if (entry != null)
+			this.put(key, entry);
+	}
+
+	/**
+	 * Returns a key that is the same for packets with the same component
+	 * bindings, role variables (ids, types, bindings and metrics) and
+	 * constraints
+	 */
+	static String getKey(String query, int version, ComponentPacket details) {
+		StringBuilder key = new StringBuilder(query).append('|').append(version);
+
+		ComponentVariable c = details.getComponent();
+		key.append('|').append(c.getID()).append(' ').append(c.isConcrete()).append(' ');
+		appendBinding(key, c.getBinding());
+
+		TreeMap<String, Variable> roleMaps = new TreeMap<String, Variable>(
+				details.getStringRoleMaps());
+		HashMap<String, Role> varMaps = details.getStringVariableMap();
+		for (String rolestr : roleMaps.keySet()) {
+			Variable var = roleMaps.get(rolestr);
+			Role role = varMaps.get(var.getID());
+			key.append('|').append(rolestr).append(' ')
+					.append(role != null ? role.getID() : null).append(' ')
+					.append(var.getID()).append(' ').append(var.getVariableType()).append(' ');
+			appendBinding(key, var.getBinding());
+		}
+
+		ArrayList<String> triples = new ArrayList<String>();
+		for (KBTriple t : details.getRequirements()) {
+			StringBuilder triple = new StringBuilder();
+			appendObject(triple, t.getSubject());
+			appendObject(triple, t.getPredicate());
+			appendObject(triple, t.getObject());
+			triples.add(triple.toString());
+		}
+		Collections.sort(triples);
+		for (String triple : triples)
+			key.append('|').append(triple);
+		return key.toString();
+	}
+
+	private static void appendBinding(StringBuilder key, Binding b) {
+		if (b == null) {
+			key.append('-');
+			return;
+		}
+		key.append(b.getID());
+		if (b.getValue() != null) {
+			key.append('=').append(b.getValue());
+			if (b instanceof ValueBinding)
+				key.append("^^").append(((ValueBinding) b).getDatatype());
+		}
+		Metrics metrics = b.getMetrics();
+		if (metrics != null) {
+			TreeMap<String, Metric> sorted = new TreeMap<String, Metric>(metrics.getMetrics());
+			for (Map.Entry<String, Metric> m : sorted.entrySet()) {
+				Metric metric = m.getValue();
+				key.append(';').append(m.getKey()).append('=').append(metric.getType())
+						.append(':').append(metric.getValue()).append("^^")
+						.append(metric.getDatatype());
+			}
+		}
+		if (b.isSet()) {
+			key.append('[');
+			for (WingsSet s : b) {
+				appendBinding(key, (Binding) s);
+				key.append(',');
+			}
+			key.append(']');
+		}
+	}
+
+	private static void appendObject(StringBuilder key, KBObject obj) {
+		if (obj == null)
+			key.append("- ");
+		else if (obj.isLiteral())
+			key.append('"').append(obj.getValue()).append("\"^^").append(obj.getDataType())
+					.append(' ');
+		else
+			key.append(obj.getID()).append(' ');
+	}
+
+	/**
+	 * The packets found by ComponentReasoningKB.findDataDetails. Variables of
+	 * the queried packet are kept by role, so copies refer to the variables of
+	 * the packet they are restored for
+	 */
+	static class DataDetails {
+		ArrayList<PacketState> packets = new ArrayList<PacketState>();
+		HashMap<String, ValueBinding> values = new HashMap<String, ValueBinding>();
+
+		static DataDetails snapshot(ComponentPacket details, ArrayList<ComponentPacket> list,
+				OntFactory ontologyFactory) {
+			HashMap<String, Variable> roleMaps = details.getStringRoleMaps();
+			IdentityHashMap<Variable, String> varRoles = new IdentityHashMap<Variable, String>();
+			for (Map.Entry<String, Variable> entry : roleMaps.entrySet())
+				varRoles.put(entry.getValue(), entry.getKey());
+
+			DataDetails dd = new DataDetails();
+			for (ComponentPacket cmr : list) {
+				// Errors are reported on the queried packet itself
+				if (cmr == details)
+					return null;
+				PacketState ps = new PacketState();
+				ComponentVariable c = cmr.getComponent();
+				ps.componentId = c.getID();
+				ps.bindingId = c.getBinding() != null ? c.getBinding().getID() : null;
+				ps.concrete = c.isConcrete();
+				for (Map.Entry<Role, Variable> entry : cmr.getRoleMap().entrySet()) {
+					Role r = entry.getKey();
+					Variable var = entry.getValue();
+					RoleState rs = new RoleState();
+					rs.id = r.getID();
+					rs.roleId = r.getRoleId();
+					rs.type = r.getType();
+					rs.dimensionality = r.getDimensionality();
+					rs.input = cmr.isInputRole(r.getRoleId());
+					rs.varRole = varRoles.get(var);
+					rs.varId = var.getID();
+					rs.varType = var.getVariableType();
+					// New variables are created unbound
+					if (rs.varRole == null && var.getBinding() != null)
+						return null;
+					ps.roles.add(rs);
+				}
+				// Callers rename the variables in the returned triples
+				ps.constraints = copyTriples(cmr.getRequirements(), ontologyFactory);
+				ps.explanations = new ArrayList<String>(cmr.getExplanations());
+				ps.invalid = cmr.getInvalidFlag();
+				dd.packets.add(ps);
+			}
+			for (Map.Entry<String, Variable> entry : roleMaps.entrySet()) {
+				Variable var = entry.getValue();
+				if (var.isParameterVariable() && var.getBinding() instanceof ValueBinding) {
+					ValueBinding b = (ValueBinding) var.getBinding();
+					dd.values.put(entry.getKey(), new ValueBinding(b.getValue(), b.getDatatype()));
+				}
+			}
+			return dd;
+		}
+
+		ArrayList<ComponentPacket> restore(ComponentPacket details, OntFactory ontologyFactory) {
+			HashMap<String, Variable> roleMaps = details.getStringRoleMaps();
+			for (String rolestr : this.values.keySet()) {
+				Variable var = roleMaps.get(rolestr);
+				if (var != null && var.getBinding() == null) {
+					ValueBinding b = this.values.get(rolestr);
+					var.setBinding(new ValueBinding(b.getValue(), b.getDatatype()));
+				}
+			}
+
+			ArrayList<ComponentPacket> list = new ArrayList<ComponentPacket>();
+			for (PacketState ps : this.packets) {
+				ComponentVariable c = new ComponentVariable(ps.componentId);
+				if (ps.bindingId != null)
+					c.setBinding(new Binding(ps.bindingId));
+				c.setConcrete(ps.concrete);
+
+				HashMap<Role, Variable> sRoleMap = new HashMap<Role, Variable>();
+				ArrayList<String> inputRoles = new ArrayList<String>();
+				for (RoleState rs : ps.roles) {
+					Role r = new Role(rs.id);
+					r.setRoleId(rs.roleId);
+					r.setType(rs.type);
+					r.setDimensionality(rs.dimensionality);
+					Variable var = rs.varRole != null ? roleMaps.get(rs.varRole) : null;
+					if (var == null)
+						var = new Variable(rs.varId, rs.varType);
+					sRoleMap.put(r, var);
+					if (rs.input)
+						inputRoles.add(rs.roleId);
+				}
+
+				ComponentPacket cmr = new ComponentPacket(c, sRoleMap, copyTriples(ps.constraints,
+						ontologyFactory));
+				cmr.setInputRoles(inputRoles);
+				cmr.addExplanations(new ArrayList<String>(ps.explanations));
+				cmr.setInvalidFlag(ps.invalid);
+				list.add(cmr);
+			}
+			return list;
+		}
+	}
+
+	private static ArrayList<KBTriple> copyTriples(ArrayList<KBTriple> triples,
+			OntFactory ontologyFactory) {
+		ArrayList<KBTriple> copies = new ArrayList<KBTriple>();
+		for (KBTriple t : triples)
+			copies.add(ontologyFactory.getTriple(t.getSubject(), t.getPredicate(), t.getObject()));
+		return copies;
+	}
+
+	static class PacketState {
+		String componentId;
+		String bindingId;
+		boolean concrete;
+		ArrayList<RoleState> roles = new ArrayList<RoleState>();
+		ArrayList<KBTriple> constraints;
+		ArrayList<String> explanations;
+		boolean invalid;
+	}
+
+	static class RoleState {
+		String id;
+		String roleId;
+		int type;
+		int dimensionality;
+		boolean input;
+		// Role of the variable in the queried packet (null for new variables)
+		String varRole;
+		String varId;
+		short varType;
+	}
+}
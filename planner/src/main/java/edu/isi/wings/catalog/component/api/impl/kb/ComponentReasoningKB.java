@@ -8,6 +8,8 @@ import edu.isi.wings.catalog.data.classes.metrics.Metrics;
 import edu.isi.wings.common.UuidGen;
 import edu.isi.wings.common.kb.KBUtils;
 import edu.isi.wings.ontapi.*;
+import edu.isi.wings.ontapi.rules.KBRuleList;
+import edu.isi.wings.ontapi.rules.KBRuleProfile;
 import edu.isi.wings.workflow.template.api.ConstraintEngine;
 import edu.isi.wings.workflow.template.api.impl.kb.ConstraintEngineKB;
 import edu.isi.wings.workflow.template.classes.Role;
@@ -20,16 +22,25 @@ import edu.isi.wings.workflow.template.classes.variables.VariableType;
 
 import org.apache.log4j.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ComponentReasoningKB extends ComponentKB implements ComponentReasoningAPI {
 	private Logger logger = Logger.getLogger(this.getClass());
 
+	// Held while the catalog kb is read (it isn't safe to use from several
+	// threads at once). Rules run on temporary kbs without it
+	private ReentrantLock kblock = new ReentrantLock();
+
+	// Results of the queries below, for packets that were already seen
+	private ComponentReasoningCache memo;
+
 	public ComponentReasoningKB(Properties props) {
 		super(props, true, false, false);
+		this.kb.useClassHierarchyIndex(true);
+		this.precomputeComponentRules();
+		this.memo = new ComponentReasoningCache(this.ontologyFactory);
 	}
 
 	protected KBObject copyObjectIntoKB(String id, KBObject obj, KBAPI tkb, String includeNS,
@@ -81,6 +92,34 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 		return true;
 	}
 
+	/**
+	 * Runs the component's rules on the temporary kb. Returns the lines
+	 * printed by the rules, followed by the rule profile (if rule profiling
+	 * is on). The catalog lock is let go while the rules run, as they only
+	 * use the temporary kb
+	 */
+	protected ArrayList<String> applyComponentRules(KBAPI tkb, String compid) {
+		KBRuleList rules = this.getComponentRules(compid);
+		ArrayList<String> explanations = new ArrayList<String>();
+		KBRuleProfile profile = null;
+		boolean locked = this.kblock.isHeldByCurrentThread();
+		if (locked)
+			this.kblock.unlock();
+		try {
+			if (KBRuleProfile.isEnabled())
+				profile = tkb.profileRules(rules, explanations);
+			else
+				tkb.applyRules(rules, explanations);
+		}
+		finally {
+			if (locked)
+				this.kblock.lock();
+		}
+		if (profile != null)
+			explanations.addAll(profile.getExplanations());
+		return explanations;
+	}
+
 	/**
 	 * <b>Query 2.1</b><br/>
 	 * Get a list of Specialized Components with their IO Data Requirements
@@ -134,6 +173,24 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 	 */
 	public ArrayList<ComponentPacket> findDataDetails(ComponentPacket details, boolean specialize,
 			boolean useRules) {
+		this.kblock.lock();
+		try {
+			String key = ComponentReasoningCache.getKey("details " + specialize + " " + useRules,
+					this.ruleCacheVersion, details);
+			ArrayList<ComponentPacket> list = this.memo.getDataDetails(key, details);
+			if (list == null) {
+				list = this.checkDataDetails(details, specialize, useRules);
+				this.memo.putDataDetails(key, details, list);
+			}
+			return list;
+		}
+		finally {
+			this.kblock.unlock();
+		}
+	}
+
+	private ArrayList<ComponentPacket> checkDataDetails(ComponentPacket details,
+			boolean specialize, boolean useRules) {
 		ArrayList<ComponentPacket> list = new ArrayList<ComponentPacket>();
 
 		HashMap<String, KBObject> omap = this.objPropMap;
@@ -209,6 +266,9 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 
 		logger.debug("Available components to check validity: " + ccomps);
 
+		// The redbox is added to a temporary kb for each component
+		KBTripleBatch redboxBatch = this.kb.encodeTriples(redbox);
+
 		// For All concrete components :
 		// - Get mapping of specialized arguments to variables
 		// - Transfer "relevant" output variable properties to input variables
@@ -229,12 +289,13 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 			ArrayList<String> varids = new ArrayList<String>();
 
 			// Create a new temporary kb
-			KBAPI tkb = this.ontologyFactory.getKB(OntSpec.MICRO);
+			KBAPI tkb = this.ontologyFactory.getKB(
+				this.useLazyReasoning ? OntSpec.LAZY_MICRO : OntSpec.MICRO);
 
 			// Add the redbox (i.e. datavariable constraints) to the temporary
 			// kb, along with domain knowledge about the data catalog
-			tkb.addTriples(redbox);
-			tkb.addTriples(domainKnowledge);
+			tkb.addTriples(redboxBatch);
+			tkb.addTriples(domainKnowledgeBatch);
 
 			// Create a copy of the specialized component in the temporary kb
 			KBObject tcomp = this.copyObjectIntoKB(incompid, ccomp, tkb, this.pcdomns, null,
@@ -348,24 +409,11 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 
 			// ** Run Rules **
 			if (useRules) {
-				// Redirect output to a byte stream
-				ByteArrayOutputStream bost = new ByteArrayOutputStream();
-				PrintStream oldout = System.out;
-				System.setOut(new PrintStream(bost, true));
-
-				// Run propagation rules on the temporary kb
+				// Run propagation rules on the temporary kb, and store
+				// printouts from the rules as explanations
 				tkb.setRulePrefixes(this.rulePrefixes);
-				tkb.applyRules(this.getComponentRules(ccomp.getID()));
+				explanations.addAll(this.applyComponentRules(tkb, ccomp.getID()));
 				//tkb.applyRulesFromString(allrules);
-
-				// Get printouts from Rules and store as Explanations
-				if (!bost.toString().equals("")) {
-					for (String exp : bost.toString().split("\\n")) {
-						explanations.add(exp);
-					}
-				}
-				// Set output back to original System.out
-				System.setOut(oldout);
 			}
 
 			// Checking for invalidity
@@ -446,8 +494,73 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 	 *         empty in Q4.2 though)
 	 */
 	public ArrayList<ComponentPacket> findOutputDataPredictedDescriptions(ComponentPacket details) {
+		this.kblock.lock();
+		try {
+			return this.predictOutputDataDescriptions(details);
+		}
+		finally {
+			this.kblock.unlock();
+		}
+	}
+
+	private ArrayList<ComponentPacket> predictOutputDataDescriptions(ComponentPacket details) {
+		String key = ComponentReasoningCache.getKey("outputs", this.ruleCacheVersion, details);
+		Object cached = this.memo.get(key);
+		OutputPrediction prediction;
+		if (cached instanceof OutputPrediction) {
+			prediction = (OutputPrediction) cached;
+		}
+		else {
+			prediction = this.predictOutputs(details);
+			this.memo.put(key, prediction);
+		}
+		this.applyPrediction(details, prediction);
 
+		// FIXME: Handle multiple configurations
 		ArrayList<ComponentPacket> list = new ArrayList<ComponentPacket>();
+		list.add(details);
+		return list;
+	}
+
+	/**
+	 * Sets what was predicted on the packet and its variables (values of
+	 * parameters, metrics and collection items of outputs)
+	 */
+	private void applyPrediction(ComponentPacket details, OutputPrediction prediction) {
+		details.addExplanations(prediction.explanations);
+		if (prediction.inputRoles != null)
+			details.setInputRoles(new ArrayList<String>(prediction.inputRoles));
+		if (prediction.invalid) {
+			details.setInvalidFlag(true);
+			return;
+		}
+
+		HashMap<String, Variable> sRoleMap = details.getStringRoleMaps();
+		for (String rolestr : prediction.values.keySet()) {
+			Variable var = sRoleMap.get(rolestr);
+			if (var.getBinding() == null || var.getBinding().getValue() == null) {
+				ValueBinding value = prediction.values.get(rolestr);
+				var.setBinding(new ValueBinding(value.getValue(), value.getDatatype()));
+			}
+		}
+		for (String rolestr : prediction.metrics.keySet()) {
+			Variable var = sRoleMap.get(rolestr);
+			if (var.getBinding() == null)
+				continue;
+			var.getBinding().setMetrics(new Metrics(prediction.metrics.get(rolestr)));
+			int[] dimSizes = prediction.dimensionSizes.get(rolestr);
+			if (dimSizes != null)
+				this.addCollectionBindings(var.getBinding(), dimSizes,
+						prediction.dimensionIndexProperties.get(rolestr));
+		}
+	}
+
+	/**
+	 * Runs the component rules for the packet. Nothing is set on the packet
+	 * here, so the prediction can be cached and applied to other packets
+	 */
+	private OutputPrediction predictOutputs(ComponentPacket details) {
+		OutputPrediction prediction = new OutputPrediction();
 
 		HashMap<String, KBObject> omap = this.objPropMap;
 		HashMap<String, KBObject> dmap = this.dataPropMap;
@@ -462,10 +575,9 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 		KBObject comp = this.kb.getIndividual(c.getBinding().getID());
 		if (comp == null) {
 			logger.debug(comp + " is not a valid component");
-			details.addExplanations(comp + " is not a valid component");
-			details.setInvalidFlag(true);
-			list.add(details);
-			return list;
+			prediction.explanations.add(comp + " is not a valid component");
+			prediction.invalid = true;
+			return prediction;
 		}
 
 		// Get a mapping of ArgID's to arg for the Component
@@ -488,7 +600,8 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 		}
 
 		// Create a new temporary KB store to run rules on
-		KBAPI tkb = this.ontologyFactory.getKB(OntSpec.MICRO);
+		KBAPI tkb = this.ontologyFactory.getKB(
+				this.useLazyReasoning ? OntSpec.LAZY_MICRO : OntSpec.MICRO);
 
 		// Add component to the temporary KB store (add all its classes
 		// explicitly)
@@ -503,7 +616,7 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 			Variable var = sRoleMap.get(rolestr);
 			KBObject arg = argMaps.get(rolestr);
 			if(arg == null) {
-				details.addExplanations("ERROR Component catalog cannot recognize role id "+rolestr);
+				prediction.explanations.add("ERROR Component catalog cannot recognize role id "+rolestr);
 				continue;
 			}
 			
@@ -536,7 +649,7 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 								if (valobj == null) {
 									// TODO: Log and explain (make a utility
 									// function)
-									details.addExplanations("ERROR Cannot Recognize Metrics Value " + val);
+									prediction.explanations.add("ERROR Cannot Recognize Metrics Value " + val);
 									continue;
 								}
 								// Copy over the object class into kb as well
@@ -555,13 +668,13 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 									// value
 									tkb.addTriple(varobj, metricProp, tobj);
 								} else {
-									details.addExplanations("ERROR Cannot Convert Metrics Value " + val);
+									prediction.explanations.add("ERROR Cannot Convert Metrics Value " + val);
 									continue;
 								}
 							}
 						} else {
 							// TODO: Log and explain (make a utility function)
-							details.addExplanations("ERROR No Such Metrics Property Known to Component Catalog : "
+							prediction.explanations.add("ERROR No Such Metrics Property Known to Component Catalog : "
 											+ propid);
 							continue;
 						}
@@ -635,18 +748,10 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 			// end of for (String rolestr : sRoleMap.keySet())
 		}
 		// Set input roles
-		details.setInputRoles(new ArrayList<String>(sInputRoles.keySet()));
+		prediction.inputRoles = new ArrayList<String>(sInputRoles.keySet());
 
 		// Add Metrics property hierarchy triples into the temporary store
-		KBObject rdfsProp = this.kb.getProperty(KBUtils.RDFS + "subPropertyOf");
-		KBObject dcProp = this.kb.getProperty(this.dcns + "hasMetrics");
-		KBObject dcPropD = this.kb.getProperty(this.dcns + "hasDataMetrics");
-		// Get all metric properties
-		ArrayList<KBTriple> metricTriples = this.kb.genericTripleQuery(null, rdfsProp, dcProp);
-		// Get all data metric properties
-		metricTriples.addAll(this.kb.genericTripleQuery(null, rdfsProp, dcPropD));
-		// Add all metrics and datametrics properties to temporary store
-		tkb.addTriples(metricTriples);
+		tkb.addTriples(domainKnowledgeBatch);
 
 		// Cache varid to varobj
 		HashMap<String, KBObject> varIDObjMap = new HashMap<String, KBObject>();
@@ -665,42 +770,28 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 			tkb.addTriple(subj, t.getPredicate(), obj);
 		}
 
-		// Redirect Standard output to a byte stream
-		ByteArrayOutputStream bost = new ByteArrayOutputStream();
-		PrintStream oldout = System.out;
-		System.setOut(new PrintStream(bost, true));
-
 		// *** Run propagation rules on the temporary ontmodel ***
+		// Add printouts from rules as explanations
 		tkb.setRulePrefixes(this.rulePrefixes);
-		tkb.applyRules(this.getComponentRules(comp.getID()));
+		prediction.explanations.addAll(this.applyComponentRules(tkb, comp.getID()));
 		//tkb.applyRulesFromString(allrules);
 
-		// Add printouts from rules as explanations
-		if (!bost.toString().equals("")) {
-			for (String exp : bost.toString().split("\\n")) {
-				details.addExplanations(exp);
-			}
-		}
-
-		// Reset the Standard output
-		System.setOut(oldout);
-
 		// Check if the rules marked this component as invalid for
 		// the current component details packet
 		KBObject invalidProp = tkb.getProperty(this.pcns + "isInvalid");
 		KBObject isInvalid = tkb.getPropertyValue(tcomp, invalidProp);
 		if (isInvalid != null && (Boolean) isInvalid.getValue()) {
-			details.addExplanations("INFO "+tcomp + " is not valid for its inputs");
+			prediction.explanations.add("INFO "+tcomp + " is not valid for its inputs");
 			logger.debug(tcomp + " is not valid for its inputs");
-			details.setInvalidFlag(true);
-			list.add(details);
-			return list;
+			prediction.invalid = true;
+			return prediction;
 		}
 
 		// Set values of variables by looking at values set by rules
 		// in temporary kb store
 		// - Only set if there isn't already a binding value for the variable
-		for (Variable var : sRoleMap.values()) {
+		for (String rolestr : sRoleMap.keySet()) {
+			Variable var = sRoleMap.get(rolestr);
 			if (var.isParameterVariable()
 					&& (var.getBinding() == null || var.getBinding().getValue() == null)) {
 				KBObject varobj = tkb.getResource(variableNameMap.get(var));
@@ -709,7 +800,8 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 				if (val != null && val.getValue() != null) {
 					tkb.addTriple(origvarobj,
 							tkb.getResource(this.wflowns + "hasParameterValue"), val);
-					var.setBinding(new ValueBinding(val.getValue(), val.getDataType()));
+					prediction.values.put(rolestr,
+							new ValueBinding(val.getValue(), val.getDataType()));
 				}
 			}
 		}
@@ -746,8 +838,7 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 					metrics.addMetric(KBUtils.RDF + "type", new Metric(Metric.URI, cls.getID()));
 
 				// Set metrics for the Binding
-				if (var.getBinding() != null)
-					var.getBinding().setMetrics(metrics);
+				prediction.metrics.put(rolestr, metrics);
 
 				// -- Dealing with Collections --
 				// User other Properties for creating output binding collections
@@ -816,54 +907,58 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 				// dim = 3 is a Cube
 				// .. and so on
 				if (dim > 0) {
-					int[] dimCounters = new int[dim];
-					dimCounters[0] = 1;
-					for (int k = 1; k < dim; k++) {
-						int perms = 1;
-						for (int l = k - 1; l >= 0; l--)
-							perms *= dimSizes[l];
-						dimCounters[k] = dimCounters[k - 1] + perms;
-					}
+					prediction.dimensionSizes.put(rolestr, Arrays.copyOf(dimSizes, dim));
+					prediction.dimensionIndexProperties.put(rolestr, dimIndexProps);
+				}
+			}
+		}
 
-					Binding b = var.getBinding();
-					ArrayList<Binding> vbs = new ArrayList<Binding>();
-					vbs.add(b);
-					int counter = 0;
-					while (!vbs.isEmpty()) {
-						Binding vb = vbs.remove(0);
-						if (vb.getMetrics() == null)
-							continue;
-						int vdim = 0;
-						for (vdim = 0; vdim < dim; vdim++) {
-							if (counter < dimCounters[vdim])
-								break;
-						}
-						if (vdim < dim) {
-							for (int i = 0; i < dimSizes[vdim]; i++) {
-								Binding cvb = new Binding(b.getNamespace()
-										+ UuidGen.generateAUuid("" + i));
-								// Add dimension index (if property set)
-								String prop = dimIndexProps[vdim];
-								if (prop != null && !prop.equals("")) {
-									Metrics tmpMetrics = new Metrics(vb.getMetrics());
-									Metric nm = new Metric(Metric.LITERAL, i, KBUtils.XSD+"integer");
-									tmpMetrics.addMetric(this.dcdomns + prop, nm);
-									cvb.setMetrics(tmpMetrics);
-								}
-								vb.add(cvb);
-								vbs.add(cvb);
-							}
-						}
-						counter++;
+		return prediction;
+	}
+
+	// Create the items of an output collection binding (each item with the
+	// metrics of the collection, and its index in the dimension)
+	private void addCollectionBindings(Binding b, int[] dimSizes, String[] dimIndexProps) {
+		int dim = dimSizes.length;
+		int[] dimCounters = new int[dim];
+		dimCounters[0] = 1;
+		for (int k = 1; k < dim; k++) {
+			int perms = 1;
+			for (int l = k - 1; l >= 0; l--)
+				perms *= dimSizes[l];
+			dimCounters[k] = dimCounters[k - 1] + perms;
+		}
+
+		ArrayList<Binding> vbs = new ArrayList<Binding>();
+		vbs.add(b);
+		int counter = 0;
+		while (!vbs.isEmpty()) {
+			Binding vb = vbs.remove(0);
+			if (vb.getMetrics() == null)
+				continue;
+			int vdim = 0;
+			for (vdim = 0; vdim < dim; vdim++) {
+				if (counter < dimCounters[vdim])
+					break;
+			}
+			if (vdim < dim) {
+				for (int i = 0; i < dimSizes[vdim]; i++) {
+					Binding cvb = new Binding(b.getNamespace()
+							+ UuidGen.generateAUuid("" + i));
+					// Add dimension index (if property set)
+					String prop = dimIndexProps[vdim];
+					if (prop != null && !prop.equals("")) {
+						Metrics tmpMetrics = new Metrics(vb.getMetrics());
+						Metric nm = new Metric(Metric.LITERAL, i, KBUtils.XSD+"integer");
+						tmpMetrics.addMetric(this.dcdomns + prop, nm);
+						cvb.setMetrics(tmpMetrics);
 					}
+					vb.add(cvb);
+					vbs.add(cvb);
 				}
-				// end if(dim > 0)
 			}
+			counter++;
 		}
-
-		// FIXME: Handle multiple configurations
-		list.add(details);
-		return list;
 	}
 
 	public ComponentInvocation getComponentInvocation(ComponentPacket details) {
@@ -937,4 +1032,17 @@ public class ComponentReasoningKB extends ComponentKB implements ComponentReason
 			}
 		}
 	}
+
+	/**
+	 * What the component rules predict for the variables of a packet, by role
+	 */
+	static class OutputPrediction {
+		ArrayList<String> explanations = new ArrayList<String>();
+		ArrayList<String> inputRoles;
+		boolean invalid;
+		HashMap<String, ValueBinding> values = new HashMap<String, ValueBinding>();
+		HashMap<String, Metrics> metrics = new HashMap<String, Metrics>();
+		HashMap<String, int[]> dimensionSizes = new HashMap<String, int[]>();
+		HashMap<String, String[]> dimensionIndexProperties = new HashMap<String, String[]>();
+	}
 }
@@ -38,6 +38,9 @@ public interface DataCreationAPI {
 
 	ArrayList<MetadataValue> getMetadataValues(String dataid, ArrayList<String> propids);
 
+	// Datatypes and Data whose names, comments or metadata values match the text
+	ArrayList<DataItem> searchData(String text, int limit);
+
 	// Write
 	boolean addDatatype(String dtypeid, String parentid);
 
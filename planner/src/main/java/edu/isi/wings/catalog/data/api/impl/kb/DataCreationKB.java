@@ -31,9 +31,26 @@ public class DataCreationKB extends DataKB implements DataCreationAPI {
 
 	@Override
 	public boolean save() {
-		if(this.ontkb != null && this.libkb != null)
-			return this.ontkb.save() &&
-					this.libkb.save();
+		if(this.ontkb != null && this.libkb != null) {
+			// Commit both KBs together
+			boolean ok = false, committed = false;
+			this.ontologyFactory.startBatch();
+			try {
+				ok = this.ontkb.save() && this.libkb.save();
+				if (ok) {
+					// commitBatch ends the batch even if the commit fails
+					committed = true;
+					ok = this.ontologyFactory.commitBatch();
+				}
+			}
+			finally {
+				if (!committed)
+					this.ontologyFactory.abortBatch();
+			}
+			if (ok && this.useClassificationSnapshot)
+				this.ontologyFactory.updateClassificationSnapshot(this.getClassificationSources());
+			return ok;
+		}
 		return false;
 	}
 	
@@ -111,6 +128,26 @@ public class DataCreationKB extends DataKB implements DataCreationAPI {
 		return list;
 	}
 
+	@Override
+	public ArrayList<DataItem> searchData(String text, int limit) {
+		ArrayList<DataItem> list = new ArrayList<DataItem>();
+		// Matches also include metadata properties etc, so rank them all
+		for (KBObject obj : this.kb.search(text, 0)) {
+			if (limit > 0 && list.size() >= limit)
+				break;
+			String ns = obj.getNamespace();
+			if (ns.equals(this.dclibns)) {
+				if (this.kb.getIndividual(obj.getID()) != null)
+					list.add(new DataItem(obj.getID(), DataItem.DATA));
+			}
+			else if (ns.equals(this.dcdomns) || ns.equals(this.dcns)) {
+				if (this.kb.getConcept(obj.getID()) != null)
+					list.add(new DataItem(obj.getID(), DataItem.DATATYPE));
+			}
+		}
+		return list;
+	}
+
 	@Override
 	public String getTypeNameFormat(String dtypeid) {
 		KBObject datatype = this.kb.getConcept(dtypeid);
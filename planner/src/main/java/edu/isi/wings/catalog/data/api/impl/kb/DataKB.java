@@ -1,8 +1,10 @@
 package edu.isi.wings.catalog.data.api.impl.kb;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Properties;
+import java.util.concurrent.Future;
 
 import edu.isi.wings.common.kb.KBUtils;
 import edu.isi.wings.ontapi.KBAPI;
@@ -35,12 +37,21 @@ public class DataKB {
 	protected OntFactory ontologyFactory;
 	protected SparqlFactory sparqlFactory;
 	protected String tdbRepository;
+	
+	// Use a saved classification of the (read-only) catalog instead of Pellet
+	protected boolean useClassificationSnapshot;
+	
+	// Only run the reasoner for queries that need entailments
+	protected boolean useLazyReasoning;
 
 	public DataKB(Properties props, boolean create_writers) {
 		this.dcurl = props.getProperty("ont.data.url");
 		this.onturl = props.getProperty("ont.domain.data.url");
 		this.liburl = props.getProperty("lib.domain.data.url");
 		this.datadir = props.getProperty("lib.domain.data.storage");
+		this.useClassificationSnapshot = 
+				Boolean.parseBoolean(props.getProperty("reasoner.snapshot"));
+		this.useLazyReasoning = Boolean.parseBoolean(props.getProperty("reasoner.lazy"));
 
 		String hash = "#";
 		this.dcns = dcurl + hash;
@@ -61,10 +72,20 @@ public class DataKB {
 	}
 	
 	protected void initializeAPI(boolean create_writers, boolean create_if_empty) {
+		boolean classified = this.useClassificationSnapshot && !create_writers;
+		// Parse the ontologies while the library loads
+		Future<KBAPI> ontload = this.ontologyFactory.loadKB(onturl, OntSpec.PLAIN, create_if_empty,
+				false, true);
+		Future<KBAPI> dcload = this.ontologyFactory.loadKB(dcurl, OntSpec.PLAIN, create_if_empty,
+				true, true);
 		try {
-			this.kb = this.ontologyFactory.getKB(liburl, OntSpec.PELLET, create_if_empty);
-			this.kb.importFrom(this.ontologyFactory.getKB(onturl, OntSpec.PLAIN, create_if_empty));
-			this.kb.importFrom(this.ontologyFactory.getKB(dcurl, OntSpec.PLAIN, create_if_empty, true));
+			this.kb = this.ontologyFactory.getKB(liburl, classified ? OntSpec.PLAIN
+					: this.useLazyReasoning ? OntSpec.LAZY_PELLET : OntSpec.PELLET, create_if_empty);
+			this.kb.importFrom(OntFactory.getLoadedKB(ontload));
+			this.kb.importFrom(OntFactory.getLoadedKB(dcload));
+			if (classified)
+				this.kb = this.ontologyFactory.getClassifiedKB(this.kb, 
+						this.getClassificationSources());
 			if (create_writers) {
 				this.ontkb = this.ontologyFactory.getKB(onturl, OntSpec.PLAIN);
 				this.libkb = this.ontologyFactory.getKB(liburl, OntSpec.PLAIN);
@@ -76,6 +97,46 @@ public class DataKB {
 		}
 	}
 
+	/**
+	 * Collects predicate and class statistics of the data library, which are
+	 * used to order the patterns of data queries. Statistics are collected
+	 * again only after the library (or the data ontologies) change
+	 */
+	protected void collectQueryStatistics() {
+		String stamp = this.getQueryStatisticsStamp();
+		if (this.sparqlFactory.useCachedStatistics(stamp))
+			return;
+		try {
+			KBAPI libkb = this.ontologyFactory.getKB(liburl, OntSpec.PLAIN, false, false, true);
+			this.sparqlFactory.collectStatistics(libkb, this.kb);
+			this.sparqlFactory.cacheStatistics(stamp);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Stamps of the library and of the ontologies with its classes (null if
+	// any of them can't be checked for changes)
+	private String getQueryStatisticsStamp() {
+		StringBuilder stamp = new StringBuilder();
+		for (String url : this.getClassificationSources()) {
+			String urlstamp = this.ontologyFactory.getContentStamp(url);
+			if (urlstamp == null)
+				return null;
+			stamp.append(urlstamp).append(' ');
+		}
+		return stamp.toString();
+	}
+
+	protected ArrayList<String> getClassificationSources() {
+		ArrayList<String> sources = new ArrayList<String>();
+		sources.add(liburl);
+		sources.add(onturl);
+		sources.add(dcurl);
+		return sources;
+	}
+
 	private void initializeMaps() {
 		this.objPropMap = new HashMap<String, KBObject>();
 		this.dataPropMap = new HashMap<String, KBObject>();
@@ -21,6 +21,7 @@ import edu.isi.wings.common.kb.KBUtils;
 import edu.isi.wings.common.logging.LoggerHelper;
 import edu.isi.wings.ontapi.KBObject;
 import edu.isi.wings.ontapi.KBTriple;
+import edu.isi.wings.ontapi.PreparedSparqlQuery;
 import edu.isi.wings.ontapi.SparqlQuery;
 import edu.isi.wings.ontapi.SparqlQuerySolution;
 
@@ -37,6 +38,8 @@ public class DataReasoningKB extends DataKB implements DataReasoningAPI {
 	 */
 	public DataReasoningKB(Properties props) {
 		super(props, false);
+		this.kb.useClassHierarchyIndex(true);
+		this.collectQueryStatistics();
 	}
 
 	/**
@@ -73,12 +76,17 @@ public class DataReasoningKB extends DataKB implements DataReasoningAPI {
 
 		result = new ArrayList<VariableBindingsList>();
 
-		SparqlQuery sq = sparqlFactory.makeSparqlQueryFromDataObjectDescriptions(dods);
+		// Queries for different candidate templates mostly differ only in 
+		// constants, so use a parameterized query that is compiled only once
+		SparqlQuery sq = sparqlFactory.makeParameterizedSparqlQueryFromDataObjectDescriptions(dods);
 		HashMap<String, KBObject> variableMap = sq.getVariableMap();
-		String query = sq.getQuery();
+		HashMap<String, KBObject> parameters = sq.getParameters();
 
-		//System.out.println(query);
-		ArrayList<ArrayList<SparqlQuerySolution>> queryResults = kb.sparqlQuery(query);
+		//System.out.println(sq.getQuery());
+		PreparedSparqlQuery query = kb.prepareQuery(sq.getQuery());
+		for (String parameter : parameters.keySet())
+			query.bind(parameter, parameters.get(parameter));
+		ArrayList<ArrayList<SparqlQuerySolution>> queryResults = query.execute();
 		for (ArrayList<SparqlQuerySolution> queryResult : queryResults) {
 			VariableBindingsList listOfBindings = new VariableBindingsList();
 			for (SparqlQuerySolution sparqlQuerySolution : queryResult) {
@@ -1,6 +1,10 @@
 package edu.isi.wings.common;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -11,6 +15,8 @@ public class UuidGen {
 	static int MAXIMUM_LENGTH_OF_UUID_PREFIX = 16;
 	static Pattern pattern = Pattern.compile("^(.+?)\\-[a-f0-9]+\\-");
 
+	static CopyOnWriteArrayList<Recorder> recorders = new CopyOnWriteArrayList<Recorder>();
+
 	/**
 	 * returns a uuid with queryIndicator at the prefix e.g.
 	 * generateAUuid("q4.2") ==> q4.2-a6d237a7-1ca6-4a63-86d0-2334a83448e8 max
@@ -37,9 +43,35 @@ public class UuidGen {
 			result.append("-");
 		}
 		result.append(uuid.toString());
+		for (Recorder recorder : recorders)
+			recorder.uuids.add(uuid.toString());
 		return result.toString();
 	}
 
+	/**
+	 * Collects the uuids generated from now on (by any thread) until the
+	 * recorder is stopped
+	 */
+	public static Recorder startRecording() {
+		Recorder recorder = new Recorder();
+		recorders.add(recorder);
+		return recorder;
+	}
+
+	public static class Recorder {
+		Set<String> uuids = Collections.synchronizedSet(new HashSet<String>());
+
+		public void stop() {
+			recorders.remove(this);
+		}
+
+		public Set<String> getUuids() {
+			synchronized (this.uuids) {
+				return new HashSet<String>(this.uuids);
+			}
+		}
+	}
+
 	public static String generateURIUuid(URIEntity oldentity) {
 		String name = generateAUuid(oldentity.getName());
 		String ns = oldentity.getNamespace();
@@ -54,9 +54,11 @@ public class RunKB implements ExecutionLoggerAPI, ExecutionMonitorAPI {
 			this.ontologyFactory = new OntFactory(OntFactory.JENA, this.tdbRepository);
 		}
 		KBUtils.createLocationMappings(props, this.ontologyFactory);
+		this.ontologyFactory.setBinaryStorage(
+				Boolean.parseBoolean(props.getProperty("storage.binary")));
 		try {
 			this.kb = this.ontologyFactory.getKB(liburl, OntSpec.PLAIN, true);
-			this.kb.importFrom(this.ontologyFactory.getKB(onturl, OntSpec.PLAIN, false, true));
+			this.kb.importFrom(this.ontologyFactory.getKB(onturl, OntSpec.PLAIN, false, true, true));
 			this.libkb = this.ontologyFactory.getKB(liburl, OntSpec.PLAIN);
 			this.initializeMaps();
 		}
@@ -7,6 +7,7 @@ import edu.isi.wings.workflow.template.api.Seed;
 import edu.isi.wings.workflow.template.api.Template;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 
 public interface WorkflowGenerationAPI {
 
@@ -30,6 +31,10 @@ public interface WorkflowGenerationAPI {
 	
 	public Template getExpandedTemplate(Template configuredTemplate);
 
+	public Iterator<Template> getConfiguredTemplates(Iterator<Template> specializedTemplates);
+
+	public Iterator<Template> getExpandedTemplates(Iterator<Template> configuredTemplates);
+
 	public ArrayList<String> getExplanations();
 	
 	public ExecutionPlan getExecutionPlan(Template template);
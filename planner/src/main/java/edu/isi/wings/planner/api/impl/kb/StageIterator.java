@@ -0,0 +1,48 @@
+package edu.isi.wings.planner.api.impl.kb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import edu.isi.wings.workflow.template.api.Template;
+
+/**
+ * A planner stage : templates of the previous stage are read and expanded
+ * one at a time, only when the templates they produce are asked for. So
+ * only the templates of the current item of each stage are kept. Stages are
+ * chained by passing one as the source of the next
+ */
+public abstract class StageIterator implements Iterator<Template> {
+	Iterator<Template> source;
+	LinkedList<Template> buffer = new LinkedList<Template>();
+
+	public StageIterator(Iterator<Template> source) {
+		this.source = source;
+	}
+
+	/**
+	 * Returns the templates produced from a template of the previous stage
+	 * (null or empty if none)
+	 */
+	protected abstract ArrayList<Template> expand(Template template);
+
+	public boolean hasNext() {
+		while (this.buffer.isEmpty() && this.source.hasNext()) {
+			ArrayList<Template> templates = this.expand(this.source.next());
+			if (templates != null)
+				this.buffer.addAll(templates);
+		}
+		return !this.buffer.isEmpty();
+	}
+
+	public Template next() {
+		if (!this.hasNext())
+			throw new NoSuchElementException();
+		return this.buffer.removeFirst();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -50,8 +50,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Name: WorkflowGenerationKB
@@ -78,6 +85,33 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 	String exPrefix;
 
 	Properties props;
+
+	// Pool that expands queued templates in parallel (see expandTemplates)
+	static final int EXPANSION_THREADS = Integer.getInteger("wings.planner.threads",
+			Runtime.getRuntime().availableProcessors());
+	static ExecutorService expansionPool = Executors.newFixedThreadPool(
+			Math.max(EXPANSION_THREADS, 1), new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "template-expansion");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	// Set while the current thread is expanding a template
+	static ThreadLocal<Boolean> expanding = new ThreadLocal<Boolean>() {
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
+	// Explanations of the template being expanded by the current thread
+	ThreadLocal<ArrayList<String>> expansionExplanations = new ThreadLocal<ArrayList<String>>();
+
+	// The data catalog is not thread safe, so expansions call it one at a
+	// time (the component catalog locks its kb itself, and runs rules
+	// concurrently)
+	final Object catalogLock = new Object();
 	
 	/**
 	 * base constructor
@@ -145,11 +179,9 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 	 * @return a list of specialized templates customized to seed constraints
 	 */
 	public ArrayList<Template> specializeTemplates(Template template) {
-		LogEvent event = getEvent(LogEvent.EVENT_WG_SPECIALIZE);
+		final LogEvent event = getEvent(LogEvent.EVENT_WG_SPECIALIZE);
 		logger.info(event.createStartLogMsg().addWQ(LogEvent.TEMPLATE, "" + template));
 
-		ComponentReasoningAPI pc = this.pc;
-
 		ArrayList<Template> templates = new ArrayList<Template>();
 		ArrayList<Template> processedTemplates = new ArrayList<Template>();
 		// ArrayList<Template> rejectedTemplates = new ArrayList<Template>();
@@ -168,153 +200,170 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 			logger.info(event.createLogMsg().addList(LogEvent.SPECIALIZED_TEMPLATES_Q,
 					processedTemplates));
 
-			Template currentTemplate = templates.remove(0);
-
-			ArrayList<String> nodesDone = done.get(currentTemplate);
-			if (nodesDone == null) {
-				nodesDone = new ArrayList<String>();
+			// Expand all queued templates (in parallel), and merge the results
+			// in queue order
+			ArrayList<Template> frontier = templates;
+			templates = new ArrayList<Template>();
+			for (Expansion expansion : this.expandTemplates(frontier, done, new TemplateExpander() {
+				public void expand(Template queued, ArrayList<String> nodesDone, Expansion expansion) {
+					specializeTemplate(queued, nodesDone, event, expansion);
+				}
+			})) {
+				this.addExplanations(expansion.explanations);
+				if (expansion.template != null)
+					processedTemplates.add(expansion.template);
+				templates.addAll(expansion.queued);
+				done.putAll(expansion.done);
 			}
+		}
+		logger.info(event.createEndLogMsg().addWQ(LogEvent.TEMPLATE, "" + template));
+		return processedTemplates;
+	}
 
-			ArrayList<Link> links = new ArrayList<Link>();
-			Link[] linkArray = currentTemplate.getOutputLinks();
-			for (Link link : linkArray) {
-				links.add(link);
-			}
+	/**
+	 * Specializes the components of a queued template. Alternative
+	 * specializations are queued as copies of the template
+	 */
+	private void specializeTemplate(Template currentTemplate, ArrayList<String> nodesDone,
+			LogEvent event, Expansion expansion) {
+		ComponentReasoningAPI pc = this.pc;
 
-			while (!links.isEmpty()) {
-				HashMap<Role, Variable> roleMap = new HashMap<Role, Variable>();
+		ArrayList<Link> links = new ArrayList<Link>();
+		Link[] linkArray = currentTemplate.getOutputLinks();
+		for (Link link : linkArray) {
+			links.add(link);
+		}
 
-				Link currentLink = links.remove(0);
-				if (currentLink.isInputLink()) {
+		while (!links.isEmpty()) {
+			HashMap<Role, Variable> roleMap = new HashMap<Role, Variable>();
+
+			Link currentLink = links.remove(0);
+			if (currentLink.isInputLink()) {
+				// continue;
+				// no op
+			} else {
+				roleMap.put(currentLink.getOriginPort().getRole(), currentLink.getVariable());
+				ArrayList<String> variableIds = new ArrayList<String>();
+				Node originNode = currentLink.getOriginNode();
+
+				Link[] outputLinks = currentTemplate.getOutputLinks(originNode);
+				for (Link outputLink : outputLinks) {
+					Variable variable = outputLink.getVariable();
+					roleMap.put(outputLink.getOriginPort().getRole(), variable);
+					variableIds.add(variable.getID());
+					links.remove(outputLink);
+				}
+
+				Link[] inputLinks = currentTemplate.getInputLinks(originNode);
+				for (Link inputLink : inputLinks) {
+					Variable variable = inputLink.getVariable();
+					roleMap.put(inputLink.getDestinationPort().getRole(), variable);
+					variableIds.add(variable.getID());
+					links.add(inputLink);
+				}
+
+				if (nodesDone.contains(originNode.getID())) {
 					// continue;
 					// no op
 				} else {
-					roleMap.put(currentLink.getOriginPort().getRole(), currentLink.getVariable());
-					ArrayList<String> variableIds = new ArrayList<String>();
-					Node originNode = currentLink.getOriginNode();
+					ArrayList<KBTriple> redBox = currentTemplate.getConstraintEngine()
+							.getConstraints(variableIds);
 
-					Link[] outputLinks = currentTemplate.getOutputLinks(originNode);
-					for (Link outputLink : outputLinks) {
-						Variable variable = outputLink.getVariable();
-						roleMap.put(outputLink.getOriginPort().getRole(), variable);
-						variableIds.add(variable.getID());
-						links.remove(outputLink);
-					}
+					ComponentVariable component = originNode.getComponentVariable();
+					if (component.isTemplate())
+						pc = this.tc;
+					else
+						pc = this.pc;
 
-					Link[] inputLinks = currentTemplate.getInputLinks(originNode);
-					for (Link inputLink : inputLinks) {
-						Variable variable = inputLink.getVariable();
-						roleMap.put(inputLink.getDestinationPort().getRole(), variable);
-						variableIds.add(variable.getID());
-						links.add(inputLink);
+					ComponentPacket sentMapsComponentDetails = new ComponentPacket(component,
+							roleMap, redBox);
+
+					if (logger.isInfoEnabled()) {
+						HashMap<String, Object> args = new HashMap<String, Object>();
+						args.put("component", component);
+						args.put("roleMap", roleMap);
+						args.put("redBox", redBox);
+						logger.info(event.createLogMsg().addWQ(LogEvent.QUERY_NUMBER, "2.1")
+								.addMap(LogEvent.QUERY_ARGUMENTS, args));
+					}
+					ArrayList<ComponentPacket> allcmrs = pc
+							.specializeAndFindDataDetails(sentMapsComponentDetails);
+					ArrayList<ComponentPacket> componentDetailsList = new ArrayList<ComponentPacket>();
+					for (ComponentPacket cmr : allcmrs) {
+						this.addExplanations(cmr.getExplanations());
+						if (!cmr.getInvalidFlag())
+							componentDetailsList.add(cmr);
+						else {
+							// Template t = currentTemplate.createCopy();
+							// rejectedTemplates.add(t);
+						}
 					}
 
-					if (nodesDone.contains(originNode.getID())) {
-						// continue;
-						// no op
+					if (componentDetailsList.isEmpty()) {
+						logger.warn(event.createLogMsg().addWQ(LogEvent.QUERY_NUMBER, "2.1")
+								.addWQ(LogEvent.QUERY_RESPONSE, LogEvent.NO_MATCH));
+						currentTemplate = null;
+						break;
 					} else {
-						ArrayList<KBTriple> redBox = currentTemplate.getConstraintEngine()
-								.getConstraints(variableIds);
-
-						ComponentVariable component = originNode.getComponentVariable();
-						if (component.isTemplate())
-							pc = this.tc;
-						else
-							pc = this.pc;
-
-						ComponentPacket sentMapsComponentDetails = new ComponentPacket(component,
-								roleMap, redBox);
-
 						if (logger.isInfoEnabled()) {
-							HashMap<String, Object> args = new HashMap<String, Object>();
-							args.put("component", component);
-							args.put("roleMap", roleMap);
-							args.put("redBox", redBox);
-							logger.info(event.createLogMsg().addWQ(LogEvent.QUERY_NUMBER, "2.1")
-									.addMap(LogEvent.QUERY_ARGUMENTS, args));
-						}
-						ArrayList<ComponentPacket> allcmrs = pc
-								.specializeAndFindDataDetails(sentMapsComponentDetails);
-						ArrayList<ComponentPacket> componentDetailsList = new ArrayList<ComponentPacket>();
-						for (ComponentPacket cmr : allcmrs) {
-							this.addExplanations(cmr.getExplanations());
-							if (!cmr.getInvalidFlag())
-								componentDetailsList.add(cmr);
-							else {
-								// Template t = currentTemplate.createCopy();
-								// rejectedTemplates.add(t);
+							ArrayList<ComponentVariable> components = new ArrayList<ComponentVariable>();
+							for (ComponentPacket componentMapsAndRequirement : componentDetailsList) {
+								components.add(componentMapsAndRequirement.getComponent());
 							}
+							logger.info(event
+									.createLogMsg()
+									.addWQ(LogEvent.QUERY_NUMBER, "2.1")
+									.addList(LogEvent.QUERY_RESPONSE + ".components",
+											components));
 						}
 
-						if (componentDetailsList.isEmpty()) {
-							logger.warn(event.createLogMsg().addWQ(LogEvent.QUERY_NUMBER, "2.1")
-									.addWQ(LogEvent.QUERY_RESPONSE, LogEvent.NO_MATCH));
-							currentTemplate = null;
-							break;
-						} else {
-							if (logger.isInfoEnabled()) {
-								ArrayList<ComponentVariable> components = new ArrayList<ComponentVariable>();
-								for (ComponentPacket componentMapsAndRequirement : componentDetailsList) {
-									components.add(componentMapsAndRequirement.getComponent());
-								}
-								logger.info(event
-										.createLogMsg()
-										.addWQ(LogEvent.QUERY_NUMBER, "2.1")
-										.addList(LogEvent.QUERY_RESPONSE + ".components",
-												components));
-							}
-
-							nodesDone.add(originNode.getID());
-							done.put(currentTemplate, nodesDone);
+						nodesDone.add(originNode.getID());
 
-							// note this is over the rest of the cmrs
-							ComponentSetCreationRule crule = originNode.getComponentSetRule();
-							if (crule == null || crule.getType() == SetType.WTYPE) {
-								for (int i = 1; i < componentDetailsList.size(); i++) {
-									ComponentPacket cmr = componentDetailsList.get(i);
-									this.addExplanations(cmr.getExplanations());
-									Template specializedTemplate = currentTemplate.createCopy();
-									specializedTemplate.setID(
-											UuidGen.generateURIUuid((URIEntity)currentTemplate));
-									Node specializedNode = specializedTemplate.getNode(originNode
-											.getID());
-									boolean ok = this.modifyTemplate(specializedTemplate,
-											specializedNode,
-											new ComponentPacket[] { componentDetailsList.get(i) });
-									if (ok) {
-										templates.add(specializedTemplate);
-									}
-									done.put(specializedTemplate, new ArrayList<String>(nodesDone));
-								}
-								ComponentPacket firstCmr = componentDetailsList.get(0);
-								boolean ok = this.modifyTemplate(currentTemplate, originNode,
-										new ComponentPacket[] { firstCmr });
-								if (!ok) {
-									currentTemplate = null;
-									break;
-								}
-							} else if (crule != null && crule.getType() == SetType.STYPE) {
-								boolean ok = this.modifyTemplate(currentTemplate, originNode,
-										componentDetailsList.toArray(new ComponentPacket[0]));
-								if (!ok) {
-									currentTemplate = null;
-									break;
+						// note this is over the rest of the cmrs
+						ComponentSetCreationRule crule = originNode.getComponentSetRule();
+						if (crule == null || crule.getType() == SetType.WTYPE) {
+							for (int i = 1; i < componentDetailsList.size(); i++) {
+								ComponentPacket cmr = componentDetailsList.get(i);
+								this.addExplanations(cmr.getExplanations());
+								Template specializedTemplate = currentTemplate.createCopy();
+								specializedTemplate.setID(
+										UuidGen.generateURIUuid((URIEntity)currentTemplate));
+								Node specializedNode = specializedTemplate.getNode(originNode
+										.getID());
+								boolean ok = this.modifyTemplate(specializedTemplate,
+										specializedNode,
+										new ComponentPacket[] { componentDetailsList.get(i) });
+								if (ok) {
+									expansion.queued.add(specializedTemplate);
 								}
+								expansion.done.put(specializedTemplate, new ArrayList<String>(nodesDone));
+							}
+							ComponentPacket firstCmr = componentDetailsList.get(0);
+							boolean ok = this.modifyTemplate(currentTemplate, originNode,
+									new ComponentPacket[] { firstCmr });
+							if (!ok) {
+								currentTemplate = null;
+								break;
+							}
+						} else if (crule != null && crule.getType() == SetType.STYPE) {
+							boolean ok = this.modifyTemplate(currentTemplate, originNode,
+									componentDetailsList.toArray(new ComponentPacket[0]));
+							if (!ok) {
+								currentTemplate = null;
+								break;
 							}
 						}
 					}
 				}
 			}
-			if (currentTemplate != null) {
-				currentTemplate.autoUpdateTemplateRoles(); // If any new input/output
-				// variables have been
-				// created
-				currentTemplate.fillInDefaultSetCreationRules();
-				processedTemplates.add(currentTemplate);
-			}
 		}
-		logger.info(event.createEndLogMsg().addWQ(LogEvent.TEMPLATE, "" + template));
-		return processedTemplates;
+		if (currentTemplate != null) {
+			currentTemplate.autoUpdateTemplateRoles(); // If any new input/output
+			// variables have been
+			// created
+			currentTemplate.fillInDefaultSetCreationRules();
+			expansion.template = currentTemplate;
+		}
 	}
 
 	/**
@@ -590,7 +639,7 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 	 */
 
 	public ArrayList<Template> configureTemplates(Template template) {
-		LogEvent event = getEvent(LogEvent.EVENT_WG_CONFIGURE);
+		final LogEvent event = getEvent(LogEvent.EVENT_WG_CONFIGURE);
 		logger.info(event.createStartLogMsg().addWQ(LogEvent.TEMPLATE, "" + template));
 
 		ArrayList<Template> templates = new ArrayList<Template>();
@@ -608,205 +657,206 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 			logger.info(event.createLogMsg().addList(LogEvent.CONFIGURED_TEMPLATES_Q,
 					processedTemplates));
 
-			Template currentTemplate = templates.remove(0);
-
-			ArrayList<String> nodesDone = done.get(currentTemplate);
-			if (nodesDone == null) {
-				nodesDone = new ArrayList<String>();
+			// Expand all queued templates (in parallel), and merge the results
+			// in queue order
+			ArrayList<Template> frontier = templates;
+			templates = new ArrayList<Template>();
+			for (Expansion expansion : this.expandTemplates(frontier, done, new TemplateExpander() {
+				public void expand(Template queued, ArrayList<String> nodesDone, Expansion expansion) {
+					configureTemplate(queued, nodesDone, event, expansion);
+				}
+			})) {
+				this.addExplanations(expansion.explanations);
+				if (expansion.template != null)
+					processedTemplates.add(expansion.template);
+				templates.addAll(expansion.queued);
+				done.putAll(expansion.done);
 			}
-
-			ArrayList<Link> links = new ArrayList<Link>();
-			for (Link link : currentTemplate.getInputLinks()) {
-				links.add(link);
+		}
+		
+		// Run template rules (if any)
+		ArrayList<Template> configuredTemplates = new ArrayList<Template>(); 
+		for (Template instance : processedTemplates) {
+			if (instance.getRules() != null && instance.getRules().getRulesText() != null) {
+				// Check template invalidity
+				instance = instance.applyRules();
+				if (instance == null) {
+					logger.warn(event.createLogMsg().addWQ(
+							LogEvent.MSG,
+							"Invalid Workflow Instance " + instance
+									+ " : Template Rules not satisfied"));
+					continue;
+				}
 			}
+			configuredTemplates.add(instance);
+		}
 
-			while (!links.isEmpty()) {
-				if (currentTemplate == null)
-					break;
+		logger.info(event.createEndLogMsg().addWQ(LogEvent.TEMPLATE, "" + template));
 
-				HashMap<Role, Variable> roleMap = new HashMap<Role, Variable>();
+		return configuredTemplates;
+	}
 
-				Link currentLink = links.remove(0);
+	/**
+	 * Configures the components of a queued template. Alternative
+	 * configurations are queued as copies of the template
+	 */
+	private void configureTemplate(Template currentTemplate, ArrayList<String> nodesDone,
+			LogEvent event, Expansion expansion) {
+		ArrayList<Link> links = new ArrayList<Link>();
+		for (Link link : currentTemplate.getInputLinks()) {
+			links.add(link);
+		}
 
-				if (!currentLink.isOutputLink()) {
-					roleMap.put(currentLink.getDestinationPort().getRole(),
-							currentLink.getVariable());
-					ArrayList<String> variableIds = new ArrayList<String>();
-					Node destNode = currentLink.getDestinationNode();
+		while (!links.isEmpty()) {
+			if (currentTemplate == null)
+				break;
 
-					// If this node hasn't been processed yet
-					if (!nodesDone.contains(destNode.getID())) {
+			HashMap<Role, Variable> roleMap = new HashMap<Role, Variable>();
 
-						Link[] inputLinks = currentTemplate.getInputLinks(destNode);
-						Link[] outputLinks = currentTemplate.getOutputLinks(destNode);
+			Link currentLink = links.remove(0);
 
-						// Check that all inputs have data bindings
-						boolean comebacklater = false;
-						for (Link inputLink : inputLinks) {
-							Variable invar = inputLink.getVariable();
-							if (invar.isDataVariable() && invar.getBinding() == null) {
-								comebacklater = true;
-								break;
-							}
-						}
-						if (comebacklater) {
-							links.add(currentLink);
-							continue;
-						}
+			if (!currentLink.isOutputLink()) {
+				roleMap.put(currentLink.getDestinationPort().getRole(),
+						currentLink.getVariable());
+				ArrayList<String> variableIds = new ArrayList<String>();
+				Node destNode = currentLink.getDestinationNode();
 
-						HashMap<String, String> prospectiveIds = new HashMap<String, String>();
-						HashMap<String, String> portVariableIds = new HashMap<String, String>();
-						HashMap<String, String> opPortVariableIds = new HashMap<String, String>();
-
-						// Add all output links to queue
-						// Set temporary output dataset id
-						for (Link outputLink : outputLinks) {
-							Variable variable = outputLink.getVariable();
-							if (variable.getBinding() == null) {
-								String prospectiveId = dataNS + UuidGen.generateAUuid("");
-								variable.setBinding(new Binding(prospectiveId));
-								prospectiveIds.put(variable.getID(), prospectiveId);
-							}
+				// If this node hasn't been processed yet
+				if (!nodesDone.contains(destNode.getID())) {
 
-							roleMap.put(outputLink.getOriginPort().getRole(), variable);
-							variableIds.add(variable.getID());
-							links.add(outputLink);
-							portVariableIds.put(outputLink.getOriginPort().getID(),
-									variable.getID());
-							opPortVariableIds.put(outputLink.getOriginPort().getID(),
-									variable.getID());
-						}
+					Link[] inputLinks = currentTemplate.getInputLinks(destNode);
+					Link[] outputLinks = currentTemplate.getOutputLinks(destNode);
 
-						// Remove all input links from queue
-						for (Link inputLink : inputLinks) {
-							Variable variable = inputLink.getVariable();
-							roleMap.put(inputLink.getDestinationPort().getRole(), variable);
-							variableIds.add(variable.getID());
-							links.remove(inputLink);
-							portVariableIds.put(inputLink.getDestinationPort().getID(),
-									variable.getID());
+					// Check that all inputs have data bindings
+					boolean comebacklater = false;
+					for (Link inputLink : inputLinks) {
+						Variable invar = inputLink.getVariable();
+						if (invar.isDataVariable() && invar.getBinding() == null) {
+							comebacklater = true;
+							break;
 						}
+					}
+					if (comebacklater) {
+						links.add(currentLink);
+						continue;
+					}
 
-						ArrayList<KBTriple> redBox = currentTemplate.getConstraintEngine()
-								.getConstraints(variableIds);
-
-						ComponentVariable component = destNode.getComponentVariable();
-
-						// TODO: Check the port rules & variable bindings here
-						// - For now, ignore all parameters in port rules
-						// (add port-parameter-rules later)
-						// - Have to get constraints for bindings with the
-						// correct dimensionality here ? (or maybe PC will
-						// handle it from the metrics)
+					HashMap<String, String> prospectiveIds = new HashMap<String, String>();
+					HashMap<String, String> portVariableIds = new HashMap<String, String>();
+					HashMap<String, String> opPortVariableIds = new HashMap<String, String>();
 
-						ComponentPacket cmr = new ComponentPacket(component, roleMap, redBox);
+					// Add all output links to queue
+					// Set temporary output dataset id
+					for (Link outputLink : outputLinks) {
+						Variable variable = outputLink.getVariable();
+						if (variable.getBinding() == null) {
+							String prospectiveId = dataNS + UuidGen.generateAUuid("");
+							variable.setBinding(new Binding(prospectiveId));
+							prospectiveIds.put(variable.getID(), prospectiveId);
+						}
 
-						PortBindingList ipblist = PortSetRuleHandler.normalizePortBindings(
-								destNode, currentTemplate);
+						roleMap.put(outputLink.getOriginPort().getRole(), variable);
+						variableIds.add(variable.getID());
+						links.add(outputLink);
+						portVariableIds.put(outputLink.getOriginPort().getID(),
+								variable.getID());
+						opPortVariableIds.put(outputLink.getOriginPort().getID(),
+								variable.getID());
+					}
 
-						// PortBindingList opblist = configureBindings(pblist);
-						// Recursively go through the whole pblist and create
-						// input/output maps and get parameter bindings for each
-						// portbinding
-						// - Maybe check rules at this point too in the future ?
+					// Remove all input links from queue
+					for (Link inputLink : inputLinks) {
+						Variable variable = inputLink.getVariable();
+						roleMap.put(inputLink.getDestinationPort().getRole(), variable);
+						variableIds.add(variable.getID());
+						links.remove(inputLink);
+						portVariableIds.put(inputLink.getDestinationPort().getID(),
+								variable.getID());
+					}
 
-						// constraints for these bindings needed or will the
-						// metrics be enough ?
-						// - should we translate metrics to rdf constraints ?
-						// - should we represent metrics as they are (strings)
-						// in the rdf ?
+					ArrayList<KBTriple> redBox = currentTemplate.getConstraintEngine()
+							.getConstraints(variableIds);
 
-						// Check that opblist is not empty
+					ComponentVariable component = destNode.getComponentVariable();
 
-						PortSetCreationRule prule = destNode.getPortSetRule();
-						nodesDone.add(destNode.getID());
+					// TODO: Check the port rules & variable bindings here
+					// - For now, ignore all parameters in port rules
+					// (add port-parameter-rules later)
+					// - Have to get constraints for bindings with the
+					// correct dimensionality here ? (or maybe PC will
+					// handle it from the metrics)
 
-						if (ipblist.isEmpty() && ipblist.getPortBinding() == null) {
-							currentTemplate = null;
-							break;
-						}
+					ComponentPacket cmr = new ComponentPacket(component, roleMap, redBox);
 
-						if (prule.getType() == SetType.WTYPE) {
-							ipblist = PortSetRuleHandler.flattenPortBindingList(ipblist, 0);
+					PortBindingList ipblist = PortSetRuleHandler.normalizePortBindings(
+							destNode, currentTemplate);
 
-							for (int i = ipblist.size() - 1; i >= 0; i--) {
-								// Todo: Parallelize: have independent threads
-								// for each iteration
+					// PortBindingList opblist = configureBindings(pblist);
+					// Recursively go through the whole pblist and create
+					// input/output maps and get parameter bindings for each
+					// portbinding
+					// - Maybe check rules at this point too in the future ?
 
-								PortBindingList ipb = ipblist.get(i);
+					// constraints for these bindings needed or will the
+					// metrics be enough ?
+					// - should we translate metrics to rdf constraints ?
+					// - should we represent metrics as they are (strings)
+					// in the rdf ?
 
-								Template configuredTemplate = currentTemplate;
-								ComponentVariable c = component;
-								Node n = destNode;
-								if (i > 0) {
-									configuredTemplate = currentTemplate.createCopy();
-									configuredTemplate.setID(
-											UuidGen.generateURIUuid((URIEntity)currentTemplate));
-									n = configuredTemplate.getNode(destNode.getID());
-									c = n.getComponentVariable();
-								}
+					// Check that opblist is not empty
 
-								// Clone cmr before sending ? We basically need
-								// to have separate variable bindings
-								ComponentPacket pcmr = cloneCMRBindings(cmr);
-								pcmr.setComponent(c);
+					PortSetCreationRule prule = destNode.getPortSetRule();
+					nodesDone.add(destNode.getID());
 
-								PortBindingList pblist = configureBindings(ipb, destNode, n, c,
-										pcmr, event, prospectiveIds);
-								PortBinding pb = PortSetRuleHandler.deNormalizePortBindings(pblist);
+					if (ipblist.isEmpty() && ipblist.getPortBinding() == null) {
+						currentTemplate = null;
+						break;
+					}
 
-								if (pb == null) {
-									if (i == 0)
-										currentTemplate = null;
-									continue;
-								}
+					if (prule.getType() == SetType.WTYPE) {
+						ipblist = PortSetRuleHandler.flattenPortBindingList(ipblist, 0);
 
-								this.removeComponentBindingsWithNoData(c);
-
-								// CHANGED: (6/6/2011)
-								// Extract bindings only for output variables or
-								// parameter variables
-								// Earlier we were doing this for all variables
-								for (Port p : pb.keySet()) {
-									Variable cv = configuredTemplate.getVariable(portVariableIds
-											.get(p.getID()));
-									if (cv.isParameterVariable()
-											|| opPortVariableIds.containsKey(p.getID())) {
-										Binding b = pb.get(p);
-										cv.setBinding(b);
-									}
-								}
+						for (int i = ipblist.size() - 1; i >= 0; i--) {
+							// Todo: Parallelize: have independent threads
+							// for each iteration
 
-								if (i > 0) {
-									templates.add(configuredTemplate);
-									done.put(configuredTemplate, new ArrayList<String>(nodesDone));
-								} else {
-									logger.info(event.createLogMsg().addWQ(LogEvent.MSG,
-											"Configured Template: " + currentTemplate));
-									done.put(currentTemplate, nodesDone);
-								}
+							PortBindingList ipb = ipblist.get(i);
 
+							Template configuredTemplate = currentTemplate;
+							ComponentVariable c = component;
+							Node n = destNode;
+							if (i > 0) {
+								configuredTemplate = currentTemplate.createCopy();
+								configuredTemplate.setID(
+										UuidGen.generateURIUuid((URIEntity)currentTemplate));
+								n = configuredTemplate.getNode(destNode.getID());
+								c = n.getComponentVariable();
 							}
 
-						} else if (prule.getType() == SetType.STYPE) {
-							PortBindingList pblist = configureBindings(ipblist, destNode, destNode,
-									component, cmr, event, prospectiveIds);
+							// Clone cmr before sending ? We basically need
+							// to have separate variable bindings
+							ComponentPacket pcmr = cloneCMRBindings(cmr);
+							pcmr.setComponent(c);
+
+							PortBindingList pblist = configureBindings(ipb, destNode, n, c,
+									pcmr, event, prospectiveIds);
 							PortBinding pb = PortSetRuleHandler.deNormalizePortBindings(pblist);
 
 							if (pb == null) {
-								currentTemplate = null;
-								break;
+								if (i == 0)
+									currentTemplate = null;
+								continue;
 							}
 
-							this.removeComponentBindingsWithNoData(component);
+							this.removeComponentBindingsWithNoData(c);
 
 							// CHANGED: (6/6/2011)
 							// Extract bindings only for output variables or
 							// parameter variables
 							// Earlier we were doing this for all variables
 							for (Port p : pb.keySet()) {
-								Variable cv = currentTemplate.getVariable(portVariableIds.get(p
-										.getID()));
+								Variable cv = configuredTemplate.getVariable(portVariableIds
+										.get(p.getID()));
 								if (cv.isParameterVariable()
 										|| opPortVariableIds.containsKey(p.getID())) {
 									Binding b = pb.get(p);
@@ -814,61 +864,74 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 								}
 							}
 
-							logger.info(event.createLogMsg().addWQ(LogEvent.MSG,
-									"Configured Template: " + currentTemplate));
-							done.put(currentTemplate, nodesDone);
+							if (i > 0) {
+								expansion.queued.add(configuredTemplate);
+								expansion.done.put(configuredTemplate, new ArrayList<String>(nodesDone));
+							} else {
+								logger.info(event.createLogMsg().addWQ(LogEvent.MSG,
+										"Configured Template: " + currentTemplate));
+							}
+
+						}
+
+					} else if (prule.getType() == SetType.STYPE) {
+						PortBindingList pblist = configureBindings(ipblist, destNode, destNode,
+								component, cmr, event, prospectiveIds);
+						PortBinding pb = PortSetRuleHandler.deNormalizePortBindings(pblist);
+
+						if (pb == null) {
+							currentTemplate = null;
+							break;
 						}
 
-						// System.exit(0);
-					} else if (currentTemplate != null) {
-						Link[] outputLinks = currentTemplate.getOutputLinks(destNode);
-						for (Link ol : outputLinks) {
-							links.add(ol);
+						this.removeComponentBindingsWithNoData(component);
+
+						// CHANGED: (6/6/2011)
+						// Extract bindings only for output variables or
+						// parameter variables
+						// Earlier we were doing this for all variables
+						for (Port p : pb.keySet()) {
+							Variable cv = currentTemplate.getVariable(portVariableIds.get(p
+									.getID()));
+							if (cv.isParameterVariable()
+									|| opPortVariableIds.containsKey(p.getID())) {
+								Binding b = pb.get(p);
+								cv.setBinding(b);
+							}
 						}
+
+						logger.info(event.createLogMsg().addWQ(LogEvent.MSG,
+								"Configured Template: " + currentTemplate));
 					}
-				}
-			}
-			if (currentTemplate != null) {
-				// Check that all component bindings in the template
-				// have portbindings
-				/*boolean ok = true;
-				for (Node n : currentTemplate.getNodes()) {
-					if (hasEmptyPortBindings(n.getComponentVariable().getBinding())) {
-						ok = false;
-						break;
+
+					// System.exit(0);
+				} else if (currentTemplate != null) {
+					Link[] outputLinks = currentTemplate.getOutputLinks(destNode);
+					for (Link ol : outputLinks) {
+						links.add(ol);
 					}
-				}*/
-				
-				// Check in-out links to see that all the data that is
-				// produced, is actually consumed by a component on the other
-				// side of the link
-				// - If not, then remove the producer component
-				// - TODO: Should this be a configurable option ?
-				if(removeProducersWithNoConsumers(currentTemplate))
-					processedTemplates.add(currentTemplate);
+				}
 			}
 		}
-		
-		// Run template rules (if any)
-		ArrayList<Template> configuredTemplates = new ArrayList<Template>(); 
-		for (Template instance : processedTemplates) {
-			if (instance.getRules() != null && instance.getRules().getRulesText() != null) {
-				// Check template invalidity
-				instance = instance.applyRules();
-				if (instance == null) {
-					logger.warn(event.createLogMsg().addWQ(
-							LogEvent.MSG,
-							"Invalid Workflow Instance " + instance
-									+ " : Template Rules not satisfied"));
-					continue;
+		if (currentTemplate != null) {
+			// Check that all component bindings in the template
+			// have portbindings
+			/*boolean ok = true;
+			for (Node n : currentTemplate.getNodes()) {
+				if (hasEmptyPortBindings(n.getComponentVariable().getBinding())) {
+					ok = false;
+					break;
 				}
-			}
-			configuredTemplates.add(instance);
+			}*/
+			
+			// Check in-out links to see that all the data that is
+			// produced, is actually consumed by a component on the other
+			// side of the link
+			// - If not, then remove the producer component
+			// - TODO: Should this be a configurable option ?
+			if(removeProducersWithNoConsumers(currentTemplate))
+				expansion.template = currentTemplate;
 		}
-
-		logger.info(event.createEndLogMsg().addWQ(LogEvent.TEMPLATE, "" + template));
-
-		return configuredTemplates;
 	}
 
 	/**
@@ -1115,6 +1178,59 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 	}
 
 	
+	/**
+	 * Steps 3-4, run lazily : the specialized templates are bound to input
+	 * data, and the bound templates configured, one at a time as the returned
+	 * iterator is read. Callers that only need the first few configured
+	 * templates can stop reading, and the rest are never created
+	 * 
+	 * @param specializedTemplates
+	 *            specialized templates
+	 * @return configured candidate workflows
+	 */
+	public Iterator<Template> getConfiguredTemplates(Iterator<Template> specializedTemplates) {
+		Iterator<Template> boundTemplates = new StageIterator(specializedTemplates) {
+			// Metrics of the data objects bound so far
+			HashMap<String, Metrics> metrics = new HashMap<String, Metrics>();
+
+			protected ArrayList<Template> expand(Template template) {
+				ArrayList<Template> bts = selectInputDataObjects(template);
+				for (Template bt : bts) {
+					for (Variable var : bt.getInputVariables()) {
+						if (var.isDataVariable())
+							setBindingMetrics(var.getBinding(), metrics, curLogEvent);
+					}
+				}
+				return bts;
+			}
+		};
+		return new StageIterator(boundTemplates) {
+			protected ArrayList<Template> expand(Template template) {
+				return configureTemplates(template);
+			}
+		};
+	}
+
+	/**
+	 * Step 5, run lazily : the configured templates are expanded one at a
+	 * time as the returned iterator is read
+	 * 
+	 * @param configuredTemplates
+	 *            configured templates (from getConfiguredTemplates)
+	 * @return expanded templates
+	 */
+	public Iterator<Template> getExpandedTemplates(Iterator<Template> configuredTemplates) {
+		return new StageIterator(configuredTemplates) {
+			protected ArrayList<Template> expand(Template template) {
+				ArrayList<Template> ets = new ArrayList<Template>();
+				Template et = getExpandedTemplate(template);
+				if (et != null)
+					ets.add(et);
+				return ets;
+			}
+		};
+	}
+
 	@Override
 	/**
 	 * Create an Execution Plan from the Expanded Template
@@ -1445,11 +1561,98 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 	}
 	
 	private void addExplanations(ArrayList<String> exp) {
-		this.explanations.addAll(exp);
+		ArrayList<String> buffer = this.expansionExplanations.get();
+		if (buffer != null)
+			buffer.addAll(exp);
+		else
+			this.explanations.addAll(exp);
 	}
 
 	private void addExplanation(String exp) {
-		this.explanations.add(exp);
+		ArrayList<String> buffer = this.expansionExplanations.get();
+		if (buffer != null)
+			buffer.add(exp);
+		else
+			this.explanations.add(exp);
+	}
+
+	/**
+	 * Expands the queued templates, in parallel when there are several of
+	 * them. Each template is expanded with its own explanation buffer, and the
+	 * expansions are returned in queue order, so that merging them gives the
+	 * same results (and explanations) as expanding the templates one by one
+	 */
+	private ArrayList<Expansion> expandTemplates(ArrayList<Template> frontier,
+			HashMap<Template, ArrayList<String>> done, final TemplateExpander expander) {
+		ArrayList<Expansion> expansions = new ArrayList<Expansion>();
+		// Expansions of sub-templates (from within an expansion) are not
+		// queued on the pool, as its threads could all end up waiting on them.
+		// Templates with sub-templates are expanded one by one as well, as
+		// their copies share the sub-template objects, which are modified
+		// when they are specialized (see TemplateReasoningKB)
+		if (EXPANSION_THREADS <= 1 || frontier.size() < 2 || expanding.get()
+				|| this.hasSubTemplates(frontier)) {
+			for (Template queued : frontier)
+				expansions.add(this.expandTemplate(expander, queued, done.get(queued)));
+			return expansions;
+		}
+
+		ArrayList<Future<Expansion>> futures = new ArrayList<Future<Expansion>>();
+		for (final Template queued : frontier) {
+			final ArrayList<String> nodesDone = done.get(queued);
+			futures.add(expansionPool.submit(new Callable<Expansion>() {
+				public Expansion call() {
+					return expandTemplate(expander, queued, nodesDone);
+				}
+			}));
+		}
+		for (Future<Expansion> future : futures) {
+			try {
+				expansions.add(future.get());
+			}
+			catch (InterruptedException e) {
+				for (Future<Expansion> f : futures)
+					f.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			catch (ExecutionException e) {
+				for (Future<Expansion> f : futures)
+					f.cancel(true);
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				if (e.getCause() instanceof Error)
+					throw (Error) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return expansions;
+	}
+
+	private boolean hasSubTemplates(ArrayList<Template> templates) {
+		for (Template template : templates)
+			for (Node node : template.getNodes())
+				if (node.getComponentVariable().isTemplate())
+					return true;
+		return false;
+	}
+
+	private Expansion expandTemplate(TemplateExpander expander, Template template,
+			ArrayList<String> nodesDone) {
+		Expansion expansion = new Expansion();
+		ArrayList<String> buffer = this.expansionExplanations.get();
+		boolean wasExpanding = expanding.get();
+		this.expansionExplanations.set(expansion.explanations);
+		expanding.set(true);
+		try {
+			expander.expand(template, nodesDone != null ? nodesDone : new ArrayList<String>(),
+					expansion);
+		}
+		finally {
+			this.expansionExplanations.set(buffer);
+			expanding.set(wasExpanding);
+		}
+		return expansion;
 	}
 	
 	
@@ -1613,6 +1816,20 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 		return true;
 	}
 
+	// What expanding a queued template produced
+	static class Expansion {
+		// The finished template (null if it was rejected)
+		Template template;
+		// Copies of the template with alternative choices, to be expanded next
+		ArrayList<Template> queued = new ArrayList<Template>();
+		HashMap<Template, ArrayList<String>> done = new HashMap<Template, ArrayList<String>>();
+		ArrayList<String> explanations = new ArrayList<String>();
+	}
+
+	interface TemplateExpander {
+		void expand(Template template, ArrayList<String> nodesDone, Expansion expansion);
+	}
+
 	private LogEvent getEvent(String evid) {
 		return new LogEvent(evid, "Wings", LogEvent.REQUEST_ID, this.request_id);
 	}
@@ -1767,7 +1984,9 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 			if (event != null)
 				logger.info(event.createLogMsg().addWQ(LogEvent.QUERY_NUMBER, "4.1")
 						.addWQ(LogEvent.QUERY_ARGUMENTS, dataObjectId));
-			metrics = dc.findDataMetricsForDataObject(dataObjectId);
+			synchronized (this.catalogLock) {
+				metrics = dc.findDataMetricsForDataObject(dataObjectId);
+			}
 			if (metrics != null) {
 				metricsMap.put(dataObjectName, metrics);
 				if (event != null)
@@ -1809,8 +2028,11 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 				KBObject tobj = t.getObject();
 				if (vtype == null)
 					vtype = tobj;
-				else if (dc.checkDatatypeSubsumption(vtype.toString(), tobj.toString())) {
-					vtype = tobj;
+				else {
+					synchronized (this.catalogLock) {
+						if (dc.checkDatatypeSubsumption(vtype.toString(), tobj.toString()))
+							vtype = tobj;
+					}
 				}
 			}
 		}
@@ -2245,7 +2467,10 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 					dbs.add(sb);
 				}
 			} else {
-				Metrics metrics = dc.findDataMetricsForDataObject(db.getID());
+				Metrics metrics;
+				synchronized (this.catalogLock) {
+					metrics = dc.findDataMetricsForDataObject(db.getID());
+				}
 				ArrayList<KBTriple> redbox = this.convertMetricsToTriples(metrics, v.getID());
 				ArrayList<String> redboxStr = new ArrayList<String>();
 				for (KBTriple kbTriple : redbox) {
@@ -2275,11 +2500,13 @@ public class WorkflowGenerationKB implements WorkflowGenerationAPI {
 		logger.info(event.createLogMsg().addWQ(LogEvent.QUERY_NUMBER, "4.3")
 				.addWQ(LogEvent.QUERY_ARGUMENTS, key));
 
-		String id = dc.createDataIDFromKey(key, v.getName());
-
+		String id;
 		String opid = null;
-		if (db != null && vtype != null && db.getMetrics() != null)
-			opid = dc.createDataIDFromMetrics(id, vtype.getID(), db.getMetrics());
+		synchronized (this.catalogLock) {
+			id = dc.createDataIDFromKey(key, v.getName());
+			if (db != null && vtype != null && db.getMetrics() != null)
+				opid = dc.createDataIDFromMetrics(id, vtype.getID(), db.getMetrics());
+		}
 
 		if (opid == null)
 			opid = id;
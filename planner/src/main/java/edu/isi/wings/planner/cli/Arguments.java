@@ -24,6 +24,8 @@ public class Arguments {
 		System.out
 				.println(" -V, --validate=<file> Validate given template and store rdf in <file>");
 		System.out.println(" -T, --trim=<n> Trim the search space to return 'n' or less daxes");
+		System.out.println(" -k, --plans=<n> Stop planning after the first 'n' execution plans");
+		System.out.println(" -S, --stats Print timings of knowledge base calls and rules on exit");
 		System.out.println();
 		System.out.println("seed|template options:");
 		System.out.println(" -s, --seed=<name> Specify the Seed name");
@@ -38,7 +40,7 @@ public class Arguments {
 			return null;
 		}
 
-		String sopts = "hc:l:o:O:d:i:r:L:D:P:E:V:T:s:t:";
+		String sopts = "hSc:l:o:O:d:i:r:L:D:P:E:V:T:k:s:t:";
 
 		LongOpt[] lopts = { new LongOpt("help", LongOpt.NO_ARGUMENT, null, 'h'),
 				new LongOpt("conf", LongOpt.REQUIRED_ARGUMENT, null, 'c'),
@@ -52,6 +54,8 @@ public class Arguments {
 				new LongOpt("elaborate", LongOpt.REQUIRED_ARGUMENT, null, 'E'),
 				new LongOpt("validate", LongOpt.REQUIRED_ARGUMENT, null, 'V'),
 				new LongOpt("trim", LongOpt.REQUIRED_ARGUMENT, null, 'T'),
+				new LongOpt("plans", LongOpt.REQUIRED_ARGUMENT, null, 'k'),
+				new LongOpt("stats", LongOpt.NO_ARGUMENT, null, 'S'),
 				new LongOpt("seed", LongOpt.REQUIRED_ARGUMENT, null, 's'),
 				new LongOpt("template", LongOpt.REQUIRED_ARGUMENT, null, 't') };
 
@@ -83,6 +87,25 @@ public class Arguments {
 				}
 				options.put("trim", trimnum);
 				break;
+			case 'k':
+				String plansnum = g.getOptarg();
+				boolean valid = true;
+				try {
+					if (Integer.parseInt(plansnum) <= 0)
+						valid = false;
+				} catch (NumberFormatException e) {
+					valid = false;
+				}
+				if (!valid) {
+					System.err.println("-k or --plans takes a positive number argument");
+					displayUsage(program);
+					return null;
+				}
+				options.put("plans", plansnum);
+				break;
+			case 'S':
+				options.put("stats", "true");
+				break;
 			case 'r':
 				options.put("requestid", g.getOptarg());
 				break;
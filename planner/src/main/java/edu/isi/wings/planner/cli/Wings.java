@@ -12,7 +12,9 @@ import edu.isi.wings.execution.engine.api.PlanExecutionEngine;
 import edu.isi.wings.execution.engine.api.impl.local.LocalExecutionEngine;
 import edu.isi.wings.execution.engine.api.impl.pegasus.dax.DAX;
 import edu.isi.wings.execution.engine.classes.RuntimePlan;
+import edu.isi.wings.ontapi.OntFactory;
 import edu.isi.wings.planner.api.WorkflowGenerationAPI;
+import edu.isi.wings.planner.api.impl.kb.StageIterator;
 import edu.isi.wings.planner.api.impl.kb.WorkflowGenerationKB;
 import edu.isi.wings.workflow.plan.api.ExecutionPlan;
 import edu.isi.wings.workflow.plan.api.impl.pplan.PPlan;
@@ -30,6 +32,7 @@ import com.google.gson.Gson;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Properties;
 import java.util.Random;
 
@@ -350,6 +353,56 @@ public class Wings {
 		return plans;
 	}
 
+	/**
+	 * Binds, configures and plans the candidate workflows one at a time (with
+	 * selectInputData, getDataMetricsForInputData and forwardSweep), and
+	 * stops after the first num execution plans. If trim > 0, no more than
+	 * trim bound and configured workflows are (randomly) chosen
+	 */
+	public ArrayList<ExecutionPlan> getFirstExecutionPlans(ArrayList<Template> candidateWorkflows,
+			int num, final int trim) {
+		Iterator<Template> boundWorkflows = new StageIterator(candidateWorkflows.iterator()) {
+			int remaining = trim;
+
+			protected ArrayList<Template> expand(Template candidateWorkflow) {
+				if (trim > 0 && remaining == 0)
+					return null;
+				ArrayList<Template> bindings = selectInputData(asList(candidateWorkflow));
+				if (trim > 0) {
+					if (bindings.size() > remaining)
+						bindings = randomSelection(bindings, remaining);
+					remaining -= bindings.size();
+				}
+				getDataMetricsForInputData(bindings);
+				return bindings;
+			}
+		};
+		Iterator<Template> configuredWorkflows = new StageIterator(boundWorkflows) {
+			int remaining = trim;
+
+			protected ArrayList<Template> expand(Template boundWorkflow) {
+				if (trim > 0 && remaining == 0)
+					return null;
+				ArrayList<Template> configurations = forwardSweep(asList(boundWorkflow));
+				if (trim > 0) {
+					if (configurations.size() > remaining)
+						configurations = randomSelection(configurations, remaining);
+					remaining -= configurations.size();
+				}
+				return configurations;
+			}
+		};
+
+		ArrayList<ExecutionPlan> plans = new ArrayList<ExecutionPlan>();
+		while (plans.size() < num && configuredWorkflows.hasNext()) {
+			ExecutionPlan plan = wg.getExecutionPlan(configuredWorkflows.next());
+			if (plan != null) {
+				plans.add(plan);
+			}
+		}
+		return plans;
+	}
+
 	public void writePlans(ArrayList<PPlan> plans) {
 		if (!PropertiesHelper.createDir(PropertiesHelper.getOutputDir())) {
 			String tmpdir = System.getProperty("java.io.tmpdir");
@@ -444,6 +497,12 @@ public class Wings {
 		}
 	}
 
+	private ArrayList<Template> asList(Template template) {
+		ArrayList<Template> list = new ArrayList<Template>();
+		list.add(template);
+		return list;
+	}
+
 	private ArrayList<Template> randomSelection(ArrayList<Template> items, int num) {
 		ArrayList<Template> ret = new ArrayList<Template>();
 
@@ -507,6 +566,18 @@ public class Wings {
 			PropertiesHelper.setOntologyDir(options.get("ontdir"));
 		}
 
+		if (options.get("stats") != null) {
+			OntFactory.setProfiling(true);
+			OntFactory.setRuleProfiling(true);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					OntFactory.dumpProfile(System.err);
+					System.err.println();
+					OntFactory.dumpRuleProfile(System.err);
+				}
+			});
+		}
+
 		String itemid = null;
 		boolean isTemplate = false;
 
@@ -572,6 +643,14 @@ public class Wings {
 			candidates = wings.randomSelection(candidates, trim);
 		}
 
+		if (options.get("plans") != null && options.get("getData") == null
+				&& options.get("getParameters") == null) {
+			// Only plan as many workflows as asked for
+			ArrayList<ExecutionPlan> plans = wings.getFirstExecutionPlans(candidates,
+					Integer.parseInt(options.get("plans")), trim);
+			wings.end(ev, plans.size() == 0 ? 1 : 0);
+		}
+
 		ArrayList<Template> bindings = wings.selectInputData(candidates);
 		if (bindings.size() == 0) {
 			wings.end(ev, 1);
@@ -78,6 +78,7 @@ public class PPlan extends URIEntity implements ExecutionPlan {
 			fac = new OntFactory(OntFactory.JENA, tdbRepository);
 		}
 		KBUtils.createLocationMappings(this.props, fac);
+		fac.setBinaryStorage(Boolean.parseBoolean(this.props.getProperty("storage.binary")));
 
 		KBAPI kb = fac.getKB(this.getURL(), OntSpec.MICRO);
 		kb.importFrom(fac.getKB(wfinst, OntSpec.PLAIN, true));
@@ -146,6 +147,7 @@ public class PPlan extends URIEntity implements ExecutionPlan {
 			fac = new OntFactory(OntFactory.JENA, tdbRepository);
 		}
 		KBUtils.createLocationMappings(this.props, fac);
+		fac.setBinaryStorage(Boolean.parseBoolean(this.props.getProperty("storage.binary")));
 
 		KBAPI kb = fac.getKB(OntSpec.PLAIN);
 		KBAPI wfkb = fac.getKB(wfinst, OntSpec.PLAIN, false, true);
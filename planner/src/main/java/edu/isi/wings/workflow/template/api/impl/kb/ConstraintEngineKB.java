@@ -2,6 +2,7 @@ package edu.isi.wings.workflow.template.api.impl.kb;
 
 import edu.isi.wings.common.kb.KBUtils;
 import edu.isi.wings.ontapi.KBAPI;
+import edu.isi.wings.ontapi.KBIterator;
 import edu.isi.wings.ontapi.KBObject;
 import edu.isi.wings.ontapi.KBTriple;
 import edu.isi.wings.ontapi.OntFactory;
@@ -32,7 +33,8 @@ public class ConstraintEngineKB implements ConstraintEngine {
 	}
 
 	public ConstraintEngineKB(ConstraintEngineKB engine) {
-		this.kb = ontFactory.getKB(OntSpec.PLAIN);
+		// Share the existing engine's triples (changes are kept separately)
+		this.kb = engine.kb.fork();
 
 		if (engine.blacklistns != null)
 			blacklistns = new ArrayList<String>(engine.blacklistns);
@@ -42,15 +44,12 @@ public class ConstraintEngineKB implements ConstraintEngine {
 			blacklistIds = new ArrayList<String>(engine.blacklistIds);
 		if (engine.allowedIds != null)
 			allowedIds = new ArrayList<String>(engine.allowedIds);
-		
-		// Copy over triples from existing engine
-		this.kb.addTriples(engine.getConstraints());
 	}
 
 	private void initKB(KBAPI kb) {
-		ArrayList<KBTriple> triples = kb.getAllTriples();
 		ArrayList<KBTriple> newTriples = new ArrayList<KBTriple>();
-		for (KBTriple t : triples) {
+		for (KBIterator<KBTriple> it = kb.streamAllTriples(0); it.hasNext();) {
+			KBTriple t = it.next();
 			if (isBanned(t.getSubject()) || isBanned(t.getPredicate()) || isBanned(t.getObject())) {
 				continue;
 			}
@@ -270,9 +269,11 @@ public class ConstraintEngineKB implements ConstraintEngine {
 	}
 
 	public boolean containsConstraint(KBTriple cons) {
-		if (this.kb.genericTripleQuery(cons.getSubject(), cons.getPredicate(), cons.getObject()) != null)
-			return true;
-		return false;
+		KBIterator<KBTriple> it = this.kb.streamTripleQuery(cons.getSubject(),
+				cons.getPredicate(), cons.getObject(), 1);
+		boolean found = it.hasNext();
+		it.close();
+		return found;
 	}
 
 	public void replaceSubjectInConstraints(KBObject subj, KBObject newSubj) {
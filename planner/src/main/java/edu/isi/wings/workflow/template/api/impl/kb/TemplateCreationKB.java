@@ -45,6 +45,8 @@ public class TemplateCreationKB implements TemplateCreationAPI {
 			this.ontologyFactory = new OntFactory(OntFactory.JENA, tdbRepository);
 		}
        	KBUtils.createLocationMappings(props, this.ontologyFactory);
+		this.ontologyFactory.setBinaryStorage(
+				Boolean.parseBoolean(props.getProperty("storage.binary")));
 
 		this.initializeAPI(false);
 	}
@@ -52,7 +54,8 @@ public class TemplateCreationKB implements TemplateCreationAPI {
 	private void initializeAPI(boolean create_if_empty) {
 		try {
 			this.kb = this.ontologyFactory.getKB(liburl, OntSpec.PELLET, create_if_empty);
-			this.kb.importFrom(this.ontologyFactory.getKB(onturl, OntSpec.PLAIN, create_if_empty, true));
+			this.kb.importFrom(this.ontologyFactory.getKB(onturl, OntSpec.PLAIN, create_if_empty, 
+					true, true));
 			
 			this.writerkb = this.ontologyFactory.getKB(liburl, OntSpec.PLAIN);
 		}
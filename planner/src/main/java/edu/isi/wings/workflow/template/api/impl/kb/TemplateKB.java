@@ -119,13 +119,15 @@ public class TemplateKB extends URIEntity implements Template {
 			this.ontologyFactory = new OntFactory(OntFactory.JENA, tdbRepository);
 		}
 		KBUtils.createLocationMappings(props, this.ontologyFactory);
+		this.ontologyFactory.setBinaryStorage(
+				Boolean.parseBoolean(props.getProperty("storage.binary")));
 		try {
 			// Using a PLAIN kb as we don't need much inference here
 			if(load_template)
 				kb = this.ontologyFactory.getKB(this.getURL(), OntSpec.PLAIN);
 			else
 				kb = this.ontologyFactory.getKB(OntSpec.PLAIN);
-			kb.importFrom(ontologyFactory.getKB(this.onturl, OntSpec.PLAIN, true));
+			kb.importFrom(ontologyFactory.getKB(this.onturl, OntSpec.PLAIN, true, false, true));
 			this.constraintEngine = new ConstraintEngineKB(kb, this.wflowns);
 		}
 		catch (Exception e) {
@@ -1162,8 +1164,6 @@ public class TemplateKB extends URIEntity implements Template {
 			map.put(e, n);
 		}
 
-		ArrayList<String> varids = new ArrayList<String>();
-
 		// Copy links
 		for (int i = 0; i < Links.length; i++) {
 			Link l = Links[i];
@@ -1198,8 +1198,6 @@ public class TemplateKB extends URIEntity implements Template {
 			if (vv != null) {
 				Link ll = t.addLink(fromNode, toNode, fromPort, toPort, vv);
 				ll.setID(Links[i].getID());
-
-				varids.add(vv.getID());
 			}
 		}
 
@@ -1221,8 +1219,7 @@ public class TemplateKB extends URIEntity implements Template {
 			t.addOutputRole(varid, nr);
 		}
 
-		// Copy Variable Constraints
-		t.getConstraintEngine().addConstraints(this.constraintEngine.getConstraints(varids));
+		// Variable Constraints are already shared by the copied constraint engine
 
 		// Recache concepts and properties
 		t.cacheConceptsAndProperties();
@@ -1360,7 +1357,7 @@ public class TemplateKB extends URIEntity implements Template {
 	public void resetInternalRepresentation() {
 		this.kb = this.serializeAndGetKB();
 		try {
-			this.kb.importFrom(ontologyFactory.getKB(this.onturl, OntSpec.PLAIN));
+			this.kb.importFrom(ontologyFactory.getKB(this.onturl, OntSpec.PLAIN, false, false, true));
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -23,6 +23,7 @@ import edu.isi.wings.execution.engine.api.impl.pegasus.PegasusExecutionEngine;
 import edu.isi.wings.execution.logger.LoggerFactory;
 import edu.isi.wings.execution.logger.api.ExecutionLoggerAPI;
 import edu.isi.wings.execution.logger.api.ExecutionMonitorAPI;
+import edu.isi.wings.ontapi.OntFactory;
 import edu.isi.wings.portal.classes.domains.Domain;
 import edu.isi.wings.portal.controllers.DomainController;
 
@@ -42,6 +43,10 @@ public class Config {
 	private String dataOntologyUrl;
 	private String componentOntologyUrl;
 	private String executionOntologyUrl;
+	private boolean useClassificationSnapshots;
+	private boolean useLazyReasoning;
+	private int planCacheSize;
+	private int maxExpansions;
 	
 	private String ontdirurl = "http://www.wings-workflows.org/ontology";
 
@@ -102,6 +107,14 @@ public class Config {
 		this.componentOntologyUrl = serverConfig.getString("ontology.component");
 		this.workflowOntologyUrl = serverConfig.getString("ontology.workflow");
 		this.executionOntologyUrl = serverConfig.getString("ontology.execution");
+		OntFactory.setUseIntTripleGraphs(serverConfig.getBoolean("storage.compact", false));
+		OntFactory.setSaveWindow(serverConfig.getLong("storage.savewindow", 0));
+		OntFactory.setProfiling(serverConfig.getBoolean("profile.kb", false));
+		OntFactory.setRuleProfiling(serverConfig.getBoolean("profile.rules", false));
+		this.useClassificationSnapshots = serverConfig.getBoolean("reasoner.snapshot", false);
+		this.useLazyReasoning = serverConfig.getBoolean("reasoner.lazy", false);
+		this.planCacheSize = serverConfig.getInt("planner.cache", 0);
+		this.maxExpansions = serverConfig.getInt("planner.expansions", 0);
 		this.engines = new HashMap<String, ExeEngine>();
 
 		@SuppressWarnings("unchecked")
@@ -227,6 +240,10 @@ public class Config {
 			props.setProperty("ont.execution.url", this.getExecutionOntologyUrl());
 			if (domain.getUseSharedTripleStore())
 				props.setProperty("tdb.repository.dir", this.getTripleStoreDir());
+			if (this.useClassificationSnapshots)
+				props.setProperty("reasoner.snapshot", "true");
+			if (this.useLazyReasoning)
+				props.setProperty("reasoner.lazy", "true");
 			return props;
 		}
 		return null;
@@ -412,6 +429,16 @@ public class Config {
 	public void setStorageDirectory(String storageDirectory) {
 		this.storageDirectory = storageDirectory;
 	}
+
+	// Number of planner results kept on disk for each domain (0 to disable)
+	public int getPlanCacheSize() {
+		return planCacheSize;
+	}
+
+	// Number of expanded templates planned for a request (0 for all)
+	public int getMaxExpansions() {
+		return maxExpansions;
+	}
 }
 
 class ExeEngine {
@@ -0,0 +1,211 @@
+package edu.isi.wings.portal.classes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import edu.isi.wings.ontapi.OntFactory;
+import edu.isi.wings.ontapi.jena.KBAPIJena;
+import edu.isi.wings.ontapi.jena.SaveQueue;
+
+/**
+ * Planner results (the JSON sent back to the portal) saved on disk, so that a
+ * template planned again with the same bindings is answered without loading
+ * the catalogs. Results are keyed by a hash of the request and of the
+ * modification times and sizes of the data and component catalog files, so
+ * any change to these is a new key. Ids that the planner generated for a
+ * result are replaced by new ones every time it is read. Only the most
+ * recently used results are kept.
+ */
+public class PlanCache {
+	static final String EXTENSION = ".json";
+
+	// Catalogs (with .url and .map properties)
+	static final String[] CATALOGS = { "lib.domain.data", "ont.domain.data",
+			"lib.abstract", "lib.concrete" };
+
+	File dir;
+	int maxEntries;
+	String stamp;
+
+	public PlanCache(String dir, int maxEntries, Properties props) {
+		this.dir = new File(dir);
+		this.maxEntries = maxEntries;
+		this.stamp = getCatalogStamp(props);
+		if (this.stamp != null && !this.dir.exists() && !this.dir.mkdirs())
+			System.err.println("Cannot create plan cache directory : " + dir);
+	}
+
+	/**
+	 * Returns the key of a request (null if the catalogs aren't local files,
+	 * and can't be checked for changes)
+	 */
+	public String getKey(String request) {
+		if (this.stamp == null)
+			return null;
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(this.stamp.getBytes("UTF-8"));
+			md.update(request.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : md.digest())
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the result saved for the key (null if there is none)
+	 */
+	public String get(String key) {
+		File f = new File(this.dir, key + EXTENSION);
+		if (!f.exists())
+			return null;
+		try {
+			String text = readFile(f);
+			int nl = text.indexOf('\n');
+			if (nl < 0)
+				return null;
+			f.setLastModified(System.currentTimeMillis());
+
+			// First line has the generated ids
+			String result = text.substring(nl + 1);
+			for (String uuid : text.substring(0, nl).split(" ")) {
+				if (!uuid.equals(""))
+					result = result.replace(uuid, UUID.randomUUID().toString());
+			}
+			return result;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the result for the key, along with the ids generated for it
+	 */
+	public void put(String key, String result, Set<String> uuids) {
+		StringBuilder text = new StringBuilder();
+		for (String uuid : uuids) {
+			if (result.contains(uuid))
+				text.append(uuid).append(' ');
+		}
+		text.append('\n').append(result);
+
+		// Write to a temporary file first, so readers never see a partial file
+		File f = new File(this.dir, key + EXTENSION);
+		File tmp = new File(this.dir, key + EXTENSION + "." + UUID.randomUUID() + ".tmp");
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(text.toString().getBytes("UTF-8"));
+			}
+			finally {
+				out.close();
+			}
+			if (!tmp.renameTo(f)) {
+				f.delete();
+				if (!tmp.renameTo(f))
+					tmp.delete();
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			tmp.delete();
+		}
+		this.evict();
+	}
+
+	// Remove the least recently used results
+	private void evict() {
+		File[] files = this.dir.listFiles();
+		if (files == null)
+			return;
+		int count = 0;
+		for (File f : files) {
+			if (f.getName().endsWith(EXTENSION))
+				count++;
+		}
+		if (count <= this.maxEntries)
+			return;
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				return Long.valueOf(f1.lastModified()).compareTo(f2.lastModified());
+			}
+		});
+		for (File f : files) {
+			if (count <= this.maxEntries)
+				break;
+			if (f.getName().endsWith(EXTENSION) && f.delete())
+				count--;
+		}
+	}
+
+	/**
+	 * Modification times and sizes of the data and component catalog files (or
+	 * of the shared triple store files), after any saves of the catalogs that
+	 * are still queued are written. Null if they can't be found
+	 */
+	static String getCatalogStamp(Properties props) {
+		StringBuilder stamp = new StringBuilder();
+		String tdbdir = props.getProperty("tdb.repository.dir");
+		if (tdbdir != null) {
+			for (String catalog : CATALOGS) {
+				String url = props.getProperty(catalog + ".url");
+				if (url != null)
+					SaveQueue.flush(url);
+			}
+			File[] files = new File(tdbdir).listFiles();
+			if (files == null)
+				return null;
+			Arrays.sort(files);
+			for (File f : files)
+				stamp.append(getFileStamp(f)).append(' ');
+			return stamp.toString();
+		}
+		OntFactory fac = new OntFactory(OntFactory.JENA);
+		for (String catalog : CATALOGS) {
+			String url = props.getProperty(catalog + ".url");
+			String fileuri = props.getProperty(catalog + ".map");
+			if (url == null || fileuri == null || !fileuri.startsWith("file:"))
+				return null;
+			// The catalogs may not have been loaded (and mapped) yet
+			fac.addAltEntry(url, fileuri);
+			String filestamp = KBAPIJena.getFileStamp(url);
+			if (filestamp == null)
+				return null;
+			stamp.append(catalog).append(':').append(filestamp).append(' ');
+		}
+		return stamp.toString();
+	}
+
+	private static String getFileStamp(File f) {
+		return f.getName() + ":" + f.lastModified() + ":" + f.length();
+	}
+
+	private static String readFile(File f) throws Exception {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] bytes = new byte[(int) f.length()];
+			int off = 0, n;
+			while (off < bytes.length && (n = in.read(bytes, off, bytes.length - off)) > 0)
+				off += n;
+			return new String(bytes, 0, off, "UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package edu.isi.wings.portal.classes;
+
+/**
+ * Parameters of the catalog search requests (searchDataJSON,
+ * searchComponentsJSON)
+ */
+public class SearchRequest {
+	public static final int DEFAULT_LIMIT = 50;
+
+	// Number of search results to return (DEFAULT_LIMIT if not given)
+	public static int getLimit(String limit) {
+		try {
+			return limit != null ? Integer.parseInt(limit) : DEFAULT_LIMIT;
+		}
+		catch (NumberFormatException e) {
+			return DEFAULT_LIMIT;
+		}
+	}
+}
@@ -18,6 +18,7 @@ import edu.isi.wings.catalog.data.api.DataCreationAPI;
 import edu.isi.wings.common.kb.PropertiesHelper;
 import edu.isi.wings.execution.logger.LoggerFactory;
 import edu.isi.wings.execution.logger.api.ExecutionMonitorAPI;
+import edu.isi.wings.ontapi.OntFactory;
 import edu.isi.wings.portal.classes.Config;
 import edu.isi.wings.workflow.template.TemplateFactory;
 import edu.isi.wings.workflow.template.api.TemplateCreationAPI;
@@ -30,6 +31,7 @@ public class Domain {
 
 	String domainName;
 	Boolean useSharedTripleStore;
+	boolean useBinaryStorage;
 	
 	DomainLibrary templateLibrary;
 	UrlMapPrefix newTemplateDirectory;
@@ -169,6 +171,8 @@ public class Domain {
 		
 		// Remove domain directory
 		if(deleteStorage) {
+			// Queued saves would otherwise write files back after the delete
+			OntFactory.flush();
 			try {
 				FileUtils.deleteDirectory(new File(domain.getDomainDirectory()));
 			} catch (IOException e) {
@@ -210,6 +214,7 @@ public class Domain {
 			PropertyListConfiguration config = new PropertyListConfiguration(this.domainConfigFile);
 
 			this.useSharedTripleStore = config.getBoolean("useSharedTripleStore", true);
+			this.useBinaryStorage = config.getBoolean("useBinaryStorage", false);
 			this.planEngine = config.getString("executions.engine.plan", "Local");
 			this.stepEngine = config.getString("executions.engine.step", "Local");
 
@@ -314,6 +319,9 @@ public class Domain {
 					furl + domdir + this.abstractComponentLibrary.getMapping());
 			domainProps.setProperty("lib.concrete.map",
 					furl + domdir + this.concreteComponentLibrary.getMapping());
+			// Save templates, plans and runs in the binary model format
+			if (this.useBinaryStorage)
+				domainProps.setProperty("storage.binary", "true");
 		}
 		return domainProps;
 	}
@@ -327,6 +335,7 @@ public class Domain {
 		PropertyListConfiguration config = new PropertyListConfiguration();
 		config.addProperty("name", this.domainName);
 		config.addProperty("useSharedTripleStore", this.useSharedTripleStore);
+		config.addProperty("useBinaryStorage", this.useBinaryStorage);
 		
 		config.addProperty("executions.engine.plan", this.planEngine);
 		config.addProperty("executions.engine.step", this.stepEngine);
@@ -366,6 +375,8 @@ public class Domain {
 
 	public void prepareDomainForExport() {
 		// TODO: If useSharedTripleStore, then create owl files into map paths
+		if (!this.isLegacy && this.useBinaryStorage)
+			OntFactory.exportRdfFiles(this.domainDirectory);
 	}
 
 	public String getDomainName() {
@@ -493,6 +504,14 @@ public class Domain {
 		this.useSharedTripleStore = useSharedTripleStore;
 	}
 
+	public boolean getUseBinaryStorage() {
+		return useBinaryStorage;
+	}
+
+	public void setUseBinaryStorage(boolean useBinaryStorage) {
+		this.useBinaryStorage = useBinaryStorage;
+	}
+
 	public String getPlanEngine() {
 		return planEngine;
 	}
@@ -112,6 +112,16 @@ public class ComponentController {
 		}
 	}
 	
+	public String searchComponentsJSON(String text, int limit) {
+		try {
+			return json.toJson(cc.searchComponents(text, limit));
+		}
+		finally {
+			cc.end();
+			dc.end();
+		}
+	}
+	
 	public void streamComponent(String cid, HttpServletResponse response, ServletContext context) {
 		try {
 			String location = cc.getComponentLocation(cid);
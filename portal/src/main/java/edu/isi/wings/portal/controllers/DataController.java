@@ -160,6 +160,19 @@ public class DataController {
 		}
 	}
 
+	public String searchDataJSON(String text, int limit) {
+		try {
+			return json.toJson(dc.searchData(text, limit));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+		finally {
+			dc.end();
+		}
+	}
+
 	public String getMetricsHierarchyJSON() {
 		try {
 			String tree = json.toJson(dc.getMetricsHierarchy().getRoot());
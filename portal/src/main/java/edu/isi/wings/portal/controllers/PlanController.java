@@ -1,8 +1,10 @@
 package edu.isi.wings.portal.controllers;
 
+import java.io.File;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeMap;
@@ -26,6 +28,7 @@ import edu.isi.wings.planner.api.WorkflowGenerationAPI;
 import edu.isi.wings.planner.api.impl.kb.WorkflowGenerationKB;
 import edu.isi.wings.portal.classes.Config;
 import edu.isi.wings.portal.classes.JsonHandler;
+import edu.isi.wings.portal.classes.PlanCache;
 import edu.isi.wings.workflow.plan.api.ExecutionPlan;
 import edu.isi.wings.workflow.template.TemplateFactory;
 import edu.isi.wings.workflow.template.api.Template;
@@ -53,6 +56,10 @@ public class PlanController {
 	private Gson json;
 	private Properties props;
 
+	private PlanCache plancache;
+	private String cachekey;
+	private UuidGen.Recorder recorder;
+
 	private String wliburl;
 	private String dcdomns;
 	private String dclibns;
@@ -66,9 +73,9 @@ public class PlanController {
 		this.props = config.getProperties();
 
 		tc = TemplateFactory.getCreationAPI(props);
-		cc = ComponentFactory.getReasoningAPI(props);
-		dc = DataFactory.getReasoningAPI(props);
-		wg = new WorkflowGenerationKB(props, dc, cc, UuidGen.generateAUuid(""));
+		if (config.getPlanCacheSize() > 0 && config.getDomain() != null)
+			this.plancache = new PlanCache(config.getDomain().getDomainDirectory()
+					+ File.separator + "plancache", config.getPlanCacheSize(), props);
 
 		this.wliburl = (String) props.get("domain.workflows.dir.url");
 		this.dcdomns = (String) props.get("ont.domain.data.url") + "#";
@@ -93,6 +100,7 @@ public class PlanController {
 	}
 
 	public void printElaboratedTemplateJSON(String tplid, String templatejson, String consjson) {
+		this.initializePlanner();
 		Template tpl = JsonHandler.getTemplateFromJSON(this.json, templatejson, consjson);
 		tpl = wg.getInferredTemplate(tpl);
 		tpl.setID(tplid);
@@ -105,8 +113,64 @@ public class PlanController {
 	@SuppressWarnings("rawtypes")
 	private void printPlannerJSON(String tplid, Map keyvals, String op) {
 		Template tpl = tc.getTemplate(tplid);
-		this.addTemplateBindings(tpl, keyvals);
-		
+		if (this.printCachedResults(op, tpl, keyvals))
+			return;
+		try {
+			this.initializePlanner();
+			this.addTemplateBindings(tpl, keyvals);
+			this.planTemplate(tpl, op);
+		}
+		finally {
+			if (this.recorder != null)
+				this.recorder.stop();
+		}
+	}
+
+	// The catalogs are only loaded for requests that aren't cached
+	private void initializePlanner() {
+		if (wg != null)
+			return;
+		cc = ComponentFactory.getReasoningAPI(props);
+		dc = DataFactory.getReasoningAPI(props);
+		wg = new WorkflowGenerationKB(props, dc, cc, UuidGen.generateAUuid(""));
+	}
+
+	// Print the saved results of the same request (if any). Otherwise record
+	// the ids generated while planning, so they can be saved with the results
+	@SuppressWarnings("rawtypes")
+	private boolean printCachedResults(String op, Template tpl, Map keyvals) {
+		if (this.plancache == null)
+			return false;
+
+		// Only the parameters used as bindings are part of the request
+		TreeMap<String, Object> bindings = new TreeMap<String, Object>();
+		for (Object key : keyvals.keySet()) {
+			String keystr = (String) key;
+			if (keystr.equals("__cbindings") || keystr.equals("__paramdtypes")
+					|| (!keystr.startsWith("__")
+							&& tpl.getVariable(tpl.getNamespace() + keystr) != null))
+				bindings.put(keystr, keyvals.get(key));
+		}
+		ArrayList<Object> request = new ArrayList<Object>();
+		request.add(op);
+		request.add(tpl.getID());
+		request.add(JsonHandler.getTemplateJSON(json, tpl, null));
+		request.add(bindings);
+		request.add(config.getMaxExpansions());
+
+		this.cachekey = this.plancache.getKey(json.toJson(request));
+		if (this.cachekey == null)
+			return false;
+		String results = this.plancache.get(this.cachekey);
+		if (results != null) {
+			this.out.print(results);
+			return true;
+		}
+		this.recorder = UuidGen.startRecording();
+		return false;
+	}
+
+	private void planTemplate(Template tpl, String op) {
 		Template itpl = wg.getInferredTemplate(tpl);
 		ArrayList<Template> candidates = wg.specializeTemplates(itpl);
 		if(candidates.size() == 0) {
@@ -114,6 +178,11 @@ public class PlanController {
 			return;
 		}
 		
+		if(op.equals("getExpansions")) {
+			planExpansions(candidates);
+			return;
+		}
+		
 		ArrayList<Template> bts = new ArrayList<Template>();
 		for(Template t : candidates)
 			bts.addAll(wg.selectInputDataObjects(t));
@@ -139,20 +208,24 @@ public class PlanController {
 			printParameterBindingsJSON(cts);
 			return;
 		}
+		
+		printError();
+	}
 
+	// Expansions are planned one at a time, and planning stops once enough
+	// of them are found
+	private void planExpansions(ArrayList<Template> candidates) {
+		int max = config.getMaxExpansions();
+		Iterator<Template> its = wg.getExpandedTemplates(
+				wg.getConfiguredTemplates(candidates.iterator()));
 		ArrayList<Template> ets = new ArrayList<Template>();
-		for(Template ct : cts)
-			ets.add(wg.getExpandedTemplate(ct));
+		while((max <= 0 || ets.size() < max) && its.hasNext())
+			ets.add(its.next());
 		if(ets.size() == 0) {
 			printError();
 			return;
 		}
-		if(op.equals("getExpansions")) {
-			printTemplatesJSON(ets);
-			return;
-		}
-		
-		printError();
+		printTemplatesJSON(ets);
 	}
 		
 	private void printTemplatesJSON(ArrayList<Template> ts) {
@@ -209,7 +282,10 @@ public class PlanController {
 		HashMap<String, Object> results = new HashMap<String, Object>();
 		results.put("success", (Boolean)!error);
 		results.put("data", map);
-		json.toJson(results, this.out);
+		String text = json.toJson(results);
+		this.out.print(text);
+		if (!error && this.recorder != null)
+			this.plancache.put(this.cachekey, text, this.recorder.getUuids());
 	}
 	
 	private ArrayList<TreeMap<String, Binding>> getDataBindings(ArrayList<Template> bts) {
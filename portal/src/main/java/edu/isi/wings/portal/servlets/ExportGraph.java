@@ -9,6 +9,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import edu.isi.wings.ontapi.KBAPI;
+import edu.isi.wings.ontapi.KBIterator;
+import edu.isi.wings.ontapi.KBTriple;
 import edu.isi.wings.ontapi.OntFactory;
 import edu.isi.wings.ontapi.OntSpec;
 import edu.isi.wings.portal.classes.Config;
@@ -38,7 +40,10 @@ public class ExportGraph extends HttpServlet {
 		OntFactory tdbfac = new OntFactory(OntFactory.JENA, config.getTripleStoreDir());
 		try {
 			KBAPI kb = tdbfac.getKB(uri, OntSpec.PLAIN);
-			if(kb.getAllTriples().size() > 0) {
+			KBIterator<KBTriple> triples = kb.streamAllTriples(1);
+			boolean empty = !triples.hasNext();
+			triples.close();
+			if(!empty) {
 				response.setContentType("text/plain");
 				out.println(kb.toAbbrevRdf(true));
 			}
@@ -9,6 +9,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import edu.isi.wings.portal.classes.Config;
+import edu.isi.wings.portal.classes.SearchRequest;
 import edu.isi.wings.portal.classes.WriteLock;
 import edu.isi.wings.portal.controllers.ComponentController;
 
@@ -89,6 +90,9 @@ public class ManageComponents extends HttpServlet {
 			return;
 		} else if (op.equals("getComponentJSON")) {
 			out.print(cv.getComponentJSON(cid));
+		} else if (op.equals("searchComponentsJSON")) {
+			out.print(cv.searchComponentsJSON(request.getParameter("q"), 
+					SearchRequest.getLimit(request.getParameter("limit"))));
 		}
 		
 		synchronized(WriteLock.Lock) {
@@ -11,6 +11,7 @@ import javax.servlet.http.HttpServletResponse;
 import com.google.gson.*;
 
 import edu.isi.wings.portal.classes.Config;
+import edu.isi.wings.portal.classes.SearchRequest;
 import edu.isi.wings.portal.classes.WriteLock;
 import edu.isi.wings.portal.controllers.DataController;
 
@@ -95,6 +96,9 @@ public class ManageData extends HttpServlet {
 			out.println(dv.getDatatypeJSON(dtype));
 		} else if (op.equals("getDataHierarchyJSON")) {
 			out.println(dv.getDataHierarchyJSON());
+		} else if (op.equals("searchDataJSON")) {
+			out.println(dv.searchDataJSON(request.getParameter("q"), 
+					SearchRequest.getLimit(request.getParameter("limit"))));
 		}
 
 		// Writer functions
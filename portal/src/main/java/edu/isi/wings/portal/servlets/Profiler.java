@@ -0,0 +1,77 @@
+package edu.isi.wings.portal.servlets;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import edu.isi.wings.ontapi.KBProfiler;
+import edu.isi.wings.ontapi.OntFactory;
+import edu.isi.wings.ontapi.rules.KBRuleProfile;
+import edu.isi.wings.portal.classes.JsonHandler;
+
+/**
+ * Shows the KB call and component rule statistics recorded so far (when the
+ * portal is configured with profile.kb or profile.rules). Add format=json to
+ * get them as JSON, and reset=true to clear them.
+ */
+public class Profiler extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 */
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		if ("true".equals(request.getParameter("reset"))) {
+			OntFactory.resetProfile();
+			OntFactory.resetRuleProfile();
+		}
+
+		PrintWriter out = response.getWriter();
+		if ("json".equals(request.getParameter("format"))) {
+			HashMap<String, Object> map = new HashMap<String, Object>();
+			map.put("operations", OntFactory.getProfile());
+			map.put("rules", OntFactory.getRuleProfile());
+			response.setContentType("application/json");
+			out.print(JsonHandler.createGson().toJson(map));
+			return;
+		}
+
+		response.setContentType("text/html");
+		out.println("<html><body>");
+		out.println("<h1>KB operations</h1>");
+		out.println("<table border='1'><tr><th>KB</th><th>Spec</th><th>Method</th>"
+				+ "<th>Calls</th><th>Total(ms)</th><th>p50</th><th>p90</th><th>p99</th>"
+				+ "<th>Max</th><th>Results</th><th>Alloc(KB)</th></tr>");
+		for (KBProfiler.Entry e : OntFactory.getProfile()) {
+			out.println(String.format("<tr><td>%s</td><td>%s</td><td>%s</td><td>%d</td>"
+					+ "<td>%.1f</td><td>%.2f</td><td>%.2f</td><td>%.2f</td><td>%.2f</td>"
+					+ "<td>%.1f</td><td>%d</td></tr>", escape(e.kb), escape(e.spec),
+					escape(e.method), e.count, e.totalMillis, e.p50Millis, e.p90Millis,
+					e.p99Millis, e.maxMillis, e.meanResults, e.allocatedBytes / 1024));
+		}
+		out.println("</table>");
+
+		out.println("<h1>Component rules</h1>");
+		out.println("<table border='1'><tr><th>Rule</th><th>Runs</th><th>Matches</th>"
+				+ "<th>Firings</th><th>Deductions</th><th>~Time(ms)</th></tr>");
+		for (KBRuleProfile.RuleStats s : OntFactory.getRuleProfile()) {
+			out.println(String.format("<tr><td>%s</td><td>%d</td><td>%d</td><td>%d</td>"
+					+ "<td>%d</td><td>%.1f</td></tr>", escape(s.rule), s.runs, s.matches,
+					s.firings, s.deductions, s.estimatedMillis));
+		}
+		out.println("</table>");
+		out.println("</body></html>");
+	}
+
+	private static String escape(String text) {
+		if (text == null)
+			return "";
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
@@ -13,6 +13,7 @@ import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.ReadWrite;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.query.ResultSetFormatter;
 import com.hp.hpl.jena.sparql.resultset.ResultsFormat;
@@ -80,15 +81,24 @@ public class SparqlEndpoint extends HttpServlet {
 			ResultsFormat fmt = ResultsFormat.lookup(request.getParameter("format"));
 			
 			Dataset tdbstore = TDBFactory.createDataset(config.getTripleStoreDir());
-			QueryExecution qexec = QueryExecutionFactory.create(query, tdbstore);
-			qexec.getContext().set(TDB.symUnionDefaultGraph, true);
-			ResultSet results = qexec.execSelect();
-			if(fmt == null) {
-				out.print(queryString+"\n");
-				ResultSetFormatter.out(out, results, query);
+			// Read transaction : doesn't block other readers, and sees a 
+			// consistent store while writers commit
+			tdbstore.begin(ReadWrite.READ);
+			try {
+				QueryExecution qexec = QueryExecutionFactory.create(query, tdbstore);
+				qexec.getContext().set(TDB.symUnionDefaultGraph, true);
+				ResultSet results = qexec.execSelect();
+				if(fmt == null) {
+					out.print(queryString+"\n");
+					ResultSetFormatter.out(out, results, query);
+				}
+				else
+					ResultSetFormatter.output(out, results, fmt);
+				qexec.close();
+			}
+			finally {
+				tdbstore.end();
 			}
-			else
-				ResultSetFormatter.output(out, results, fmt);
 		}
 		else {
 			out.print("Only select queries allowed");
@@ -99,9 +109,15 @@ public class SparqlEndpoint extends HttpServlet {
 		Config config = new Config(request);
 		Dataset tdbstore = TDBFactory.createDataset(config.getTripleStoreDir());
 		UpdateRequest update = UpdateFactory.create(updateString);
-		UpdateAction.execute(update, tdbstore);
+		tdbstore.begin(ReadWrite.WRITE);
+		try {
+			UpdateAction.execute(update, tdbstore);
+			tdbstore.commit();
+		}
+		finally {
+			tdbstore.end();
+		}
 		out.print("Updated");
-		TDB.sync(tdbstore);
 	}
 
 	/**
@@ -0,0 +1,132 @@
+package edu.isi.wings.portal.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.isi.wings.ontapi.KBAPI;
+import edu.isi.wings.ontapi.OntFactory;
+import edu.isi.wings.ontapi.OntSpec;
+import edu.isi.wings.portal.classes.PlanCache;
+
+/**
+ * Tests that planner results are cached until the catalogs change
+ */
+public class PlanCacheTests {
+	static String ns = "http://www.wings-workflows.org/tests/";
+	static String[] catalogs = { "lib.domain.data", "ont.domain.data", "lib.abstract",
+			"lib.concrete" };
+	static String request = "{\"template\":\"ModelAndClassify\"}";
+
+	File dir;
+	Properties props;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("wings-plans", "");
+		dir.delete();
+		dir.mkdirs();
+		props = new Properties();
+		for (String catalog : catalogs) {
+			props.setProperty(catalog + ".url", ns + catalog + ".owl");
+			props.setProperty(catalog + ".map",
+					new File(dir, catalog + ".owl").toURI().toString());
+			this.getCatalog(catalog).save();
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		OntFactory.setSaveWindow(0);
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private KBAPI getCatalog(String catalog) throws Exception {
+		OntFactory fac = new OntFactory(OntFactory.JENA);
+		String url = props.getProperty(catalog + ".url");
+		fac.addAltEntry(url, props.getProperty(catalog + ".map"));
+		return fac.getKB(url, OntSpec.PLAIN, true);
+	}
+
+	private PlanCache createCache() {
+		return new PlanCache(new File(dir, "plans").getPath(), 10, props);
+	}
+
+	@Test
+	public void testKeys() {
+		String key = this.createCache().getKey(request);
+		Assert.assertNotNull(key);
+		Assert.assertEquals(key, this.createCache().getKey(request));
+		Assert.assertFalse(key.equals(this.createCache().getKey(request + " ")));
+	}
+
+	@Test
+	public void testCatalogChange() throws Exception {
+		for (String catalog : catalogs) {
+			String key = this.createCache().getKey(request);
+			KBAPI kb = this.getCatalog(catalog);
+			kb.createClass(ns + catalog + ".owl#NewType");
+			kb.save();
+			Assert.assertFalse(catalog, key.equals(this.createCache().getKey(request)));
+		}
+	}
+
+	@Test
+	public void testQueuedCatalogSave() throws Exception {
+		String key = this.createCache().getKey(request);
+		OntFactory.setSaveWindow(60000);
+		KBAPI kb = this.getCatalog("lib.concrete");
+		kb.createClass(ns + "lib.concrete.owl#NewComponent");
+		kb.save();
+
+		// The queued save is written before the catalogs are checked
+		String newkey = this.createCache().getKey(request);
+		Assert.assertFalse(key.equals(newkey));
+		Assert.assertEquals(newkey, this.createCache().getKey(request));
+	}
+
+	@Test
+	public void testNonLocalCatalogs() {
+		props.remove("lib.concrete.map");
+		Assert.assertNull(this.createCache().getKey(request));
+	}
+
+	@Test
+	public void testResults() {
+		PlanCache cache = this.createCache();
+		String key = cache.getKey(request);
+		Assert.assertNull(cache.get(key));
+
+		String uuid = "6f1c2a9e-0d1b-4c8e-9a3f-2b7d5e4c1a00";
+		HashSet<String> uuids = new HashSet<String>();
+		uuids.add(uuid);
+		cache.put(key, "{\"id\":\"" + uuid + "\"}", uuids);
+
+		// Generated ids are new every time the result is read
+		String result = cache.get(key);
+		Assert.assertNotNull(result);
+		Assert.assertFalse(result.contains(uuid));
+		Assert.assertTrue(result.startsWith("{\"id\":\""));
+		Assert.assertFalse(result.equals(cache.get(key)));
+	}
+
+	@Test
+	public void testEviction() {
+		PlanCache cache = new PlanCache(new File(dir, "plans").getPath(), 2, props);
+		for (int i = 0; i < 3; i++)
+			cache.put(cache.getKey(request + i), "{}", new HashSet<String>());
+		int found = 0;
+		for (int i = 0; i < 3; i++) {
+			if (cache.get(cache.getKey(request + i)) != null)
+				found++;
+		}
+		Assert.assertEquals(2, found);
+	}
+}